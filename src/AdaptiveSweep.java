@@ -0,0 +1,395 @@
+import sim.util.DoubleBag;
+import sim.util.distribution.Probability;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sequential sweep that decides how many replicates each condition gets from the replicates already run, instead of
+ * running a fixed number per condition. Every condition first gets minimumReplicates. After that, a condition keeps
+ * receiving replicates until the confidence interval of the mean of every measure is narrower than the target
+ * (a half-width, absolute or relative to the mean), or until it has maximumReplicates.
+ * Replicates run in parallel. Each time a worker is free, the next replicate goes to the unfinished condition with the
+ * largest remaining need, estimated as n * (halfWidth / target)^2 - n over its measures: the number of extra replicates
+ * its current variance says it needs. Conditions close to the target are only topped up when nothing needs more.
+ * The seed of replicate r of condition c is seed + c * 100000 + r, so a replicate can always be rerun alone;
+ * which replicates exist depends on the order in which runs finish.
+ * Usage:
+ * java AdaptiveSweep -conditions FILE [-measures falseDiscoveryRate,fundsGini] [-target 0.01] [-relative]
+ * [-confidence 0.95] [-min 5] [-max 50] [-for 5000] [-threads N] [-seed 1] [-cache DIR] [-metrics PORT]
+ * The conditions file has one condition per line: a name followed by parameter=value pairs, with the names of
+ * ReplicateRunner (e.g. "lottery lotteryOfFunding=true"). Lines starting with # are ignored.
+ * A measure that is NaN at the end of a replicate (e.g. the false discovery rate of a window without publications)
+ * is written to the replicates file but left out of the interval of its condition. A measure with fewer than two values
+ * has no interval, so its condition is off target until it has two or reaches maximumReplicates; a measure that was NaN
+ * in every replicate of a condition is reported when the sweep ends.
+ * Each replicate writes its usual resources/runJOB.csv. The sweep writes a line per replicate to
+ * resources/sweepReplicates.csv and the final state of every condition to resources/sweepSummary.csv.
+ * With -cache, replicates already in that RunCache are not run again, so extending a sweep only runs the new replicates.
+ * With -metrics, the progress of the sweep and the replicates running are served by the MetricsEndpoint on that port.
+ * The total is the most replicates the sweep can take, every condition at maximumReplicates, until the sweep ends.
+ */
+class AdaptiveSweep {
+
+    //region Fields
+    private final List<Condition> conditions;
+    private final String[] measureNames;
+    private final double target;
+    private final boolean relativeTarget;
+    private final double confidence;
+    private final int minimumReplicates;
+    private final int maximumReplicates;
+    private final long steps;
+    private final int threads;
+    private final long seed;
+    private long latestJob = -1;
+    private RunCache runCache;
+    private final MetricsEndpoint.SweepProgress progress = new MetricsEndpoint.SweepProgress("AdaptiveSweep");
+    //endregion
+
+    /**
+     * A set of parameter values, with the measures of its finished replicates.
+     */
+    static class Condition {
+        final int index;
+        final String name;
+        final String[] parameterNames;
+        final String[] parameterValues;
+        final DoubleBag[] observations;
+        int replicatesLaunched;
+        int replicatesFinished;
+
+        Condition(int index, String name, String[] parameterNames, String[] parameterValues, int numberOfMeasures) {
+            this.index = index;
+            this.name = name;
+            this.parameterNames = parameterNames;
+            this.parameterValues = parameterValues;
+            this.observations = new DoubleBag[numberOfMeasures];
+            for (int i = 0; i < numberOfMeasures; i++) {
+                observations[i] = new DoubleBag();
+            }
+        }
+    }
+
+    /**
+     * The measures of a finished replicate.
+     */
+    private static class Result {
+        final Condition condition;
+        final int replicate;
+        final long seed;
+        final long job;
+        final double[] measures;
+        final long steps;
+
+        Result(Condition condition, int replicate, long seed, long job, double[] measures, long steps) {
+            this.condition = condition;
+            this.replicate = replicate;
+            this.seed = seed;
+            this.job = job;
+            this.measures = measures;
+            this.steps = steps;
+        }
+    }
+
+    AdaptiveSweep(List<Condition> conditions, String[] measureNames, double target, boolean relativeTarget,
+                  double confidence, int minimumReplicates, int maximumReplicates, long steps, int threads, long seed) {
+        this.conditions = conditions;
+        this.measureNames = measureNames;
+        this.target = target;
+        this.relativeTarget = relativeTarget;
+        this.confidence = confidence;
+        this.minimumReplicates = Math.max(minimumReplicates, 2);
+        this.maximumReplicates = Math.max(maximumReplicates, this.minimumReplicates);
+        this.steps = steps;
+        this.threads = threads;
+        this.seed = seed;
+        progress.setRunsTotal((long) conditions.size() * this.maximumReplicates);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        String conditionsFile = null;
+        String[] measureNames = {"falseDiscoveryRate", "fundsGini"};
+        double target = 0.01;
+        boolean relativeTarget = false;
+        double confidence = 0.95;
+        int minimumReplicates = 5;
+        int maximumReplicates = 50;
+        long steps = 5000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        String cacheDirectory = null;
+        int metricsPort = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-conditions": conditionsFile = args[++i]; break;
+                case "-measures": measureNames = args[++i].split(","); break;
+                case "-target": target = Double.parseDouble(args[++i]); break;
+                case "-relative": relativeTarget = true; break;
+                case "-confidence": confidence = Double.parseDouble(args[++i]); break;
+                case "-min": minimumReplicates = Integer.parseInt(args[++i]); break;
+                case "-max": maximumReplicates = Integer.parseInt(args[++i]); break;
+                case "-for": steps = Long.parseLong(args[++i]); break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                case "-seed": seed = Long.parseLong(args[++i]); break;
+                case "-cache": cacheDirectory = args[++i]; break;
+                case "-metrics": metricsPort = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (conditionsFile == null) {
+            throw new IllegalArgumentException("A conditions file is required: -conditions FILE");
+        }
+        new File("resources").mkdirs();
+        AdaptiveSweep sweep = new AdaptiveSweep(readConditions(conditionsFile, measureNames.length), measureNames,
+                target, relativeTarget, confidence, minimumReplicates, maximumReplicates, steps, threads, seed);
+        if (cacheDirectory != null) {
+            sweep.setRunCache(new RunCache(cacheDirectory));
+        }
+        if (metricsPort > 0) {
+            MetricsEndpoint.getSharedEndpoint(metricsPort).attach(sweep.getProgress());
+        }
+        sweep.run();
+        System.exit(0);
+    }
+
+    /**
+     * @param fileName         The conditions file.
+     * @param numberOfMeasures The number of measures collected per replicate.
+     * @return The conditions, in the order of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    static List<Condition> readConditions(String fileName, int numberOfMeasures) throws IOException {
+        List<Condition> conditions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                String[] parameterNames = new String[tokens.length - 1];
+                String[] parameterValues = new String[tokens.length - 1];
+                for (int i = 1; i < tokens.length; i++) {
+                    int equals = tokens[i].indexOf('=');
+                    if (equals < 1) {
+                        throw new IllegalArgumentException("Expected parameter=value in condition " + tokens[0] + ": " + tokens[i]);
+                    }
+                    parameterNames[i - 1] = tokens[i].substring(0, equals);
+                    parameterValues[i - 1] = tokens[i].substring(equals + 1);
+                }
+                conditions.add(new Condition(conditions.size(), tokens[0], parameterNames, parameterValues, numberOfMeasures));
+            }
+        }
+        return conditions;
+    }
+
+    /**
+     * Keeps every worker busy with the neediest condition until all conditions are finished, then writes the summary.
+     * Parameters of every condition are checked before anything runs.
+     */
+    void run() throws IOException, InterruptedException, ExecutionException {
+        for (Condition condition : conditions) {
+            ReplicateRunner.configure(condition.parameterNames, condition.parameterValues, seed, 0);
+        }
+        ScienceFunding.setStepsRequested(steps);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ExecutorCompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+        try (BufferedWriter replicatesWriter = new BufferedWriter(new FileWriter("resources" + File.separator + "sweepReplicates.csv"))) {
+            replicatesWriter.write("condition,replicate,seed,job,steps," + String.join(",", measureNames));
+            replicatesWriter.newLine();
+            int running = 0;
+            while (true) {
+                while (running < threads) {
+                    Condition next = chooseNextCondition();
+                    if (next == null) {
+                        break;
+                    }
+                    submit(completionService, next);
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+                Result result = completionService.take().get();
+                running--;
+                result.condition.replicatesFinished++;
+                progress.addRunsDone(1);
+                for (int i = 0; i < measureNames.length; i++) {
+                    if (!Double.isNaN(result.measures[i])) {
+                        result.condition.observations[i].add(result.measures[i]);
+                    }
+                }
+                writeReplicate(replicatesWriter, result);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        progress.setRunsTotal(progress.getRunsDone());
+        writeSummary();
+    }
+
+    void setRunCache(RunCache runCache) {
+        this.runCache = runCache;
+    }
+
+    MetricsEndpoint.SweepProgress getProgress() {
+        return progress;
+    }
+
+    private void submit(ExecutorCompletionService<Result> completionService, Condition condition) {
+        int replicate = condition.replicatesLaunched++;
+        long replicateSeed = seed + condition.index * 100000L + replicate;
+        long job = ++latestJob;
+        completionService.submit(() -> {
+            ScienceFunding model = ReplicateRunner.configure(condition.parameterNames, condition.parameterValues, replicateSeed, job);
+            double[] measures = RunCache.run(runCache, model, steps, measureNames);
+            return new Result(condition, replicate, replicateSeed, job, measures, model.schedule.getSteps());
+        });
+    }
+
+    /**
+     * Conditions below minimumReplicates (counting those still running) come first, fewest first.
+     * Otherwise, the condition with the largest remaining need that can still be launched, or null if none.
+     * The need of a condition is reduced by its replicates still running, so that a slow condition is not
+     * flooded while its first results are pending.
+     *
+     * @return The condition of the next replicate, or null if no condition needs more right now.
+     */
+    Condition chooseNextCondition() {
+        Condition leastReplicated = null;
+        for (Condition condition : conditions) {
+            if (condition.replicatesLaunched < minimumReplicates
+                    && (leastReplicated == null || condition.replicatesLaunched < leastReplicated.replicatesLaunched)) {
+                leastReplicated = condition;
+            }
+        }
+        if (leastReplicated != null) {
+            return leastReplicated;
+        }
+        Condition neediest = null;
+        double largestNeed = 0;
+        for (Condition condition : conditions) {
+            if (condition.replicatesLaunched >= maximumReplicates || condition.replicatesFinished < minimumReplicates) {
+                continue;
+            }
+            double need = remainingNeed(condition) - (condition.replicatesLaunched - condition.replicatesFinished);
+            if (need > largestNeed) {
+                largestNeed = need;
+                neediest = condition;
+            }
+        }
+        return neediest;
+    }
+
+    /**
+     * @param condition A condition with finished replicates.
+     * @return The extra replicates that the widest interval, relative to its target, still calls for. 0 if all
+     * measures are on target. At least 1 while some measure is off target, so that the condition is not dropped.
+     * A measure with fewer than two values needs the replicates it lacks to have an interval, and one whose ratio to its
+     * target cannot be computed (a relative target of 0, when the mean is 0) needs as many replicates as it has.
+     */
+    double remainingNeed(Condition condition) {
+        double need = 0;
+        for (int i = 0; i < measureNames.length; i++) {
+            int n = condition.observations[i].size();
+            if (n < 2) {
+                need = Math.max(need, 2 - n);
+                continue;
+            }
+            double halfWidth = halfWidth(condition.observations[i]);
+            double targetHalfWidth = targetHalfWidth(condition.observations[i]);
+            if (!(halfWidth <= targetHalfWidth)) {
+                double ratio = halfWidth / targetHalfWidth;
+                need = Math.max(need, Double.isFinite(ratio) ? Math.max(n * ratio * ratio - n, 1) : n);
+            }
+        }
+        return need;
+    }
+
+    /**
+     * @param observations The values of a measure in the finished replicates.
+     * @return The half-width of the confidence interval of their mean, using Student's t. Infinite with fewer than two.
+     */
+    double halfWidth(DoubleBag observations) {
+        int n = observations.size();
+        if (n < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = mean(observations);
+        double sumOfSquaredDeviations = 0;
+        for (int i = 0; i < n; i++) {
+            double deviation = observations.get(i) - mean;
+            sumOfSquaredDeviations += deviation * deviation;
+        }
+        double standardError = Math.sqrt(sumOfSquaredDeviations / (n - 1) / n);
+        return Probability.studentTInverse(1 - confidence, n - 1) * standardError;
+    }
+
+    private double targetHalfWidth(DoubleBag observations) {
+        return relativeTarget ? target * Math.abs(mean(observations)) : target;
+    }
+
+    private static double mean(DoubleBag observations) {
+        double sum = 0;
+        for (int i = 0; i < observations.size(); i++) {
+            sum += observations.get(i);
+        }
+        return sum / observations.size();
+    }
+
+    private void writeReplicate(BufferedWriter writer, Result result) throws IOException {
+        StringBuilder line = new StringBuilder();
+        line.append(result.condition.name).append(',').append(result.replicate).append(',').append(result.seed)
+                .append(',').append(result.job).append(',').append(result.steps);
+        for (double measure : result.measures) {
+            line.append(',').append(measure);
+        }
+        writer.write(line.toString());
+        writer.newLine();
+        writer.flush();
+    }
+
+    /**
+     * Writes, per condition, the number of replicates, and the number of values, the mean and the confidence interval
+     * half-width of every measure, and whether all measures met the target.
+     * Measures that were NaN in every replicate of a condition are also reported on the standard error stream.
+     */
+    private void writeSummary() throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter("resources" + File.separator + "sweepSummary.csv"))) {
+            StringBuilder header = new StringBuilder("condition,replicates,onTarget");
+            for (String measureName : measureNames) {
+                header.append(',').append(measureName).append("Values,").append(measureName).append("Mean,")
+                        .append(measureName).append("HalfWidth");
+            }
+            writer.write(header.toString());
+            writer.newLine();
+            for (Condition condition : conditions) {
+                StringBuilder line = new StringBuilder();
+                line.append(condition.name).append(',').append(condition.replicatesFinished).append(',')
+                        .append(remainingNeed(condition) == 0);
+                for (int i = 0; i < measureNames.length; i++) {
+                    line.append(',').append(condition.observations[i].size()).append(',')
+                            .append(mean(condition.observations[i])).append(',').append(halfWidth(condition.observations[i]));
+                    if (condition.observations[i].size() == 0 && condition.replicatesFinished > 0) {
+                        System.err.println("Measure " + measureNames[i] + " was NaN in all " + condition.replicatesFinished
+                                + " replicates of condition " + condition.name);
+                    }
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+    }
+}
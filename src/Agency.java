@@ -6,7 +6,7 @@ import java.util.Comparator;
 /**
  * This class builds an agent that assigns funding to the scheduled labs each turn.
  * The parameters for the assignment of this funding can be found in ScienceFunding.
- * This class also has parameters:
+ * This class also has parameters, whose values are kept in ScienceFunding and passed to the constructor:
  * Budget determines the number of grants to be distributed measured in UNITS OF BIG GRANTS. A big grant provides 5
  * years of funding, and a small grant provides 1.
  * ProportionOfBigGrants determine how many of the units of budget are going to be assigned as big grants, and
@@ -18,10 +18,10 @@ import java.util.Comparator;
 class Agency implements Steppable {
 
     //region Parameters
-    private final int budget = 10;
-    private final double proportionOfBigGrants = 0.2;
-    private final boolean includeNoise = false;
-    private final double evaluationNoise = 0.001;
+    private final int budget;
+    private final double proportionOfBigGrants;
+    private final boolean includeNoise;
+    private final double evaluationNoise;
     //endregion
 
     /*
@@ -29,7 +29,11 @@ class Agency implements Steppable {
      */
     private Bag applicantsForThisTurn;
 
-    public Agency(){
+    public Agency(int budget, double proportionOfBigGrants, boolean includeNoise, double evaluationNoise) {
+        this.budget = budget;
+        this.proportionOfBigGrants = proportionOfBigGrants;
+        this.includeNoise = includeNoise;
+        this.evaluationNoise = evaluationNoise;
         applicantsForThisTurn = new Bag();
     }
 
@@ -41,6 +45,7 @@ class Agency implements Steppable {
      * If the result is 4 small grants, the 4 topmost labs receive 1 year of funding for 1 postdoc.
      * Whenever a lab receives funding, it is removed from the ranking.
      * If lottery is set to true on ScienceFunding, instead of sorting according to score, the applicants ar randomly sorted.
+     * Every grant awarded is recorded in the event journal of the run, if there is one.
      * Budget doesn't go over to the next time cycle. If grants are left after all applicants receive funding, they are lost.
      *
      * @param state The simulation state.
@@ -48,6 +53,15 @@ class Agency implements Steppable {
     @Override
     public void step(SimState state) {
         ScienceFunding simulationState = (ScienceFunding) state;
+        SimulationMetrics metrics = simulationState.getSimulationMetrics();
+        EventJournal eventJournal = simulationState.getEventJournal();
+        metrics.startPhase(SimulationMetrics.AGENCY);
+        metrics.countApplicants(applicantsForThisTurn.size());
+        AllocationRoundEvent allocationEvent = new AllocationRoundEvent();
+        allocationEvent.begin();
+        int numberOfApplicants = applicantsForThisTurn.size();
+        int bigGrantsAwarded = 0;
+        int smallGrantsAwarded = 0;
         if (includeNoise) {
             for (int i = 0; i < applicantsForThisTurn.size(); i++) {
                 Lab thisLab = (Lab) applicantsForThisTurn.get(i);
@@ -70,6 +84,12 @@ class Agency implements Steppable {
             if (state.random.nextDouble() < this.proportionOfBigGrants) {
                 Lab topLabInRanking = (Lab) applicantsForThisTurn.pop(); // Note that pop() removes and return top agent on Bag.
                 topLabInRanking.grants.add(5);
+                simulationState.getGlobalsObject().updateLabInHistograms(topLabInRanking);
+                if (eventJournal != null) {
+                    eventJournal.recordGrant(state.schedule.getSteps(), topLabInRanking, true, simulationState.getLotteryOfFunding());
+                }
+                metrics.countGrantAwarded();
+                bigGrantsAwarded++;
             } else {
                 /*
                 If it's a small grant, loop again assigning 1 year of funding to the 4 top labs.
@@ -80,10 +100,26 @@ class Agency implements Steppable {
                     }
                     Lab bestLab = (Lab) applicantsForThisTurn.pop();
                     bestLab.grants.add(1);
+                    simulationState.getGlobalsObject().updateLabInHistograms(bestLab);
+                    if (eventJournal != null) {
+                        eventJournal.recordGrant(state.schedule.getSteps(), bestLab, false, simulationState.getLotteryOfFunding());
+                    }
+                    metrics.countGrantAwarded();
+                    smallGrantsAwarded++;
                 }
             }
         }
         applicantsForThisTurn = new Bag();
+        allocationEvent.end();
+        if (allocationEvent.shouldCommit()) {
+            allocationEvent.step = state.schedule.getSteps();
+            allocationEvent.applicants = numberOfApplicants;
+            allocationEvent.bigGrants = bigGrantsAwarded;
+            allocationEvent.smallGrants = smallGrantsAwarded;
+            allocationEvent.lottery = simulationState.getLotteryOfFunding();
+            allocationEvent.commit();
+        }
+        metrics.endPhase(SimulationMetrics.AGENCY);
     }
 
     /**
@@ -0,0 +1,30 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one round of grant allocation. Emitted by Agency.
+ */
+@Name("ScienceFunding.AllocationRound")
+@Label("Allocation Round")
+@Category("Science Funding")
+@Description("The funding agency ranking applicants and awarding grants")
+class AllocationRoundEvent extends Event {
+
+    @Label("Step")
+    long step;
+
+    @Label("Applicants")
+    int applicants;
+
+    @Label("Big Grants")
+    int bigGrants;
+
+    @Label("Small Grants")
+    int smallGrants;
+
+    @Label("Lottery")
+    boolean lottery;
+}
@@ -0,0 +1,164 @@
+import sim.util.DoubleBag;
+import sim.util.IntBag;
+
+/**
+ * Decides when the windowed series aggregated by Globals (false discovery rate, funds Gini, postdoc number Gini)
+ * have reached a steady state. Globals passes one observation of every series per aggregation step.
+ * Two tests are available:
+ * RELATIVE_DRIFT compares the mean of the last window of observations with the mean of the window before it, and
+ * accepts when every series drifted less than tolerance, relative to the larger of the two means.
+ * MSER applies the MSER-5 truncation rule to the whole history of every series: observations are grouped in batches
+ * of 5, and the truncation point is the number of leading batches whose removal minimizes the squared standard error
+ * of the remaining batch means. It accepts when the truncation point lies in the first half of the history,
+ * and needs at least window batches.
+ * Once all series are accepted, the detector keeps its convergence step: for RELATIVE_DRIFT, the step of the observation
+ * at which the drift became small enough; for MSER, the step of the first observation after the truncation point.
+ * Observations with a NaN or infinite value, such as the false discovery rate before anything has been published,
+ * are skipped.
+ */
+class ConvergenceDetector {
+
+    //region Tests
+    static final int RELATIVE_DRIFT = 0;
+    static final int MSER = 1;
+    private static final int MSER_BATCH_SIZE = 5;
+    //endregion
+
+    //region Fields
+    private final int test;
+    private final int window;
+    private final double tolerance;
+
+    private final DoubleBag[] series;
+    private final IntBag stepsOfObservations = new IntBag();
+    private long convergenceStep = -1;
+    //endregion
+
+    /**
+     * @param test            RELATIVE_DRIFT or MSER.
+     * @param window          For RELATIVE_DRIFT, the number of observations in each of the two windows compared.
+     *                        For MSER, the minimum number of batches before the rule is applied.
+     * @param tolerance       For RELATIVE_DRIFT, the largest relative difference between window means accepted. Unused by MSER.
+     * @param numberOfSeries  The number of values in every observation.
+     */
+    ConvergenceDetector(int test, int window, double tolerance, int numberOfSeries) {
+        this.test = test;
+        this.window = window;
+        this.tolerance = tolerance;
+        this.series = new DoubleBag[numberOfSeries];
+        for (int i = 0; i < numberOfSeries; i++) {
+            series[i] = new DoubleBag();
+        }
+    }
+
+    /**
+     * Records an observation of every series and runs the test, unless convergence was already detected.
+     *
+     * @param step   The step of the observation.
+     * @param values One value per series, always in the same order.
+     * @return True if the series have converged, now or at an earlier observation.
+     */
+    boolean observe(long step, double... values) {
+        if (hasConverged()) {
+            return true;
+        }
+        for (double value : values) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < series.length; i++) {
+            series[i].add(values[i]);
+        }
+        stepsOfObservations.add((int) step);
+
+        int convergenceObservation = test == MSER ? mserTruncation() : relativeDrift();
+        if (convergenceObservation >= 0) {
+            convergenceStep = stepsOfObservations.get(convergenceObservation);
+        }
+        return hasConverged();
+    }
+
+    /**
+     * @return The index of the latest observation if every series passes the drift test, -1 otherwise.
+     */
+    private int relativeDrift() {
+        int numberOfObservations = stepsOfObservations.size();
+        if (numberOfObservations < 2 * window) {
+            return -1;
+        }
+        int earlierWindowStart = numberOfObservations - 2 * window;
+        for (DoubleBag thisSeries : series) {
+            double earlierMean = 0;
+            double laterMean = 0;
+            for (int i = 0; i < window; i++) {
+                earlierMean += thisSeries.get(earlierWindowStart + i);
+                laterMean += thisSeries.get(earlierWindowStart + window + i);
+            }
+            earlierMean /= window;
+            laterMean /= window;
+            double scale = Math.max(Math.abs(earlierMean), Math.abs(laterMean));
+            if (Math.abs(laterMean - earlierMean) > tolerance * scale) {
+                return -1;
+            }
+        }
+        return numberOfObservations - 1;
+    }
+
+    /**
+     * @return The index of the first observation after the latest MSER-5 truncation point of all series if every
+     * series has its truncation point in the first half of its batches, -1 otherwise.
+     */
+    private int mserTruncation() {
+        int numberOfBatches = stepsOfObservations.size() / MSER_BATCH_SIZE;
+        if (numberOfBatches < Math.max(window, 2)) {
+            return -1;
+        }
+        int latestTruncation = 0;
+        for (DoubleBag thisSeries : series) {
+            double[] batchMeans = new double[numberOfBatches];
+            for (int b = 0; b < numberOfBatches; b++) {
+                for (int i = 0; i < MSER_BATCH_SIZE; i++) {
+                    batchMeans[b] += thisSeries.get(b * MSER_BATCH_SIZE + i);
+                }
+                batchMeans[b] /= MSER_BATCH_SIZE;
+            }
+            /*
+            Walk the truncation point d from the end, keeping the sum and sum of squares of the batches after d,
+            so that MSER(d) = (sumOfSquares - sum^2 / m) / m^2, with m = numberOfBatches - d, costs O(1) each.
+             */
+            double sum = batchMeans[numberOfBatches - 1];
+            double sumOfSquares = sum * sum;
+            int bestTruncation = numberOfBatches - 1;
+            double bestMser = Double.POSITIVE_INFINITY;
+            for (int d = numberOfBatches - 2; d >= 0; d--) {
+                sum += batchMeans[d];
+                sumOfSquares += batchMeans[d] * batchMeans[d];
+                int remaining = numberOfBatches - d;
+                double mser = Math.max(sumOfSquares - sum * sum / remaining, 0) / ((double) remaining * remaining);
+                if (mser <= bestMser) {
+                    bestMser = mser;
+                    bestTruncation = d;
+                }
+            }
+            if (bestTruncation > numberOfBatches / 2) {
+                return -1;
+            }
+            latestTruncation = Math.max(latestTruncation, bestTruncation);
+        }
+        return latestTruncation * MSER_BATCH_SIZE;
+    }
+
+    //region Getters
+    boolean hasConverged() {
+        return convergenceStep >= 0;
+    }
+
+    /**
+     * @return The convergence step, as described above, or -1 if the steady state has not been detected.
+     */
+    long getConvergenceStep() {
+        return convergenceStep;
+    }
+    //endregion
+}
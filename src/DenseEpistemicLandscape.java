@@ -0,0 +1,77 @@
+import sim.field.grid.DoubleGrid2D;
+
+/**
+ * Epistemic landscape backed by a MASON DoubleGrid2D. Every topic is stored, so memory is O(cells).
+ * This is the default backend.
+ */
+class DenseEpistemicLandscape implements EpistemicLandscape {
+
+    //region Fields
+    private final DoubleGrid2D grid;
+    //endregion
+
+    /**
+     * @param width           Width of the landscape.
+     * @param height          Height of the landscape.
+     * @param initialBaseRate The base rate that every topic starts with.
+     */
+    DenseEpistemicLandscape(int width, int height, double initialBaseRate) {
+        this.grid = new DoubleGrid2D(width, height, initialBaseRate);
+    }
+
+    private DenseEpistemicLandscape(DoubleGrid2D grid) {
+        this.grid = grid;
+    }
+
+    @Override
+    public double get(int x, int y) {
+        return grid.field[x][y];
+    }
+
+    @Override
+    public void set(int x, int y, double baseRate) {
+        grid.field[x][y] = baseRate;
+    }
+
+    @Override
+    public int getWidth() {
+        return grid.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return grid.getHeight();
+    }
+
+    @Override
+    public double[] toArray() {
+        return grid.toArray();
+    }
+
+    /**
+     * Computed in place on the field by GridStatistics, which sums small grids in the same order as
+     * DoubleGrid2D.toArray() so the result is identical to averaging that array.
+     */
+    @Override
+    public double mean() {
+        return GridStatistics.mean(grid.field);
+    }
+
+    @Override
+    public double standardDeviation(double mean) {
+        return GridStatistics.standardDeviation(grid.field, mean);
+    }
+
+    /**
+     * Copies the grid column by column with System.arraycopy.
+     */
+    @Override
+    public EpistemicLandscape copy() {
+        return new DenseEpistemicLandscape(new DoubleGrid2D(grid));
+    }
+
+    @Override
+    public DoubleGrid2D toGrid() {
+        return grid;
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests whether two ways of running the model give the same distribution of measures, for optimized modes that are
+ * only statistically equivalent to the original (aggregateResearchSampling, parallelInitialization), which the
+ * FingerprintVerifier cannot check because they draw different random numbers.
+ * Each set of replicates is a directory of output files (runJOB.csv). For every column asked for, the value of every
+ * replicate at a step (by default, the last step of the file) is taken, and both samples are compared with a
+ * two-sample Kolmogorov-Smirnov test, with the asymptotic p-value of Numerical Recipes' probks.
+ * Usage: java DistributionComparison -a DIRECTORY -b DIRECTORY [-columns falseDiscoveryRate,fundsGini,...]
+ * [-step S] [-alpha 0.01]
+ * A line per column is printed with the sizes and means of both samples, the statistic D and the p-value. Replicates
+ * whose value is NaN are left out of the sizes, the means and the test.
+ * The exit status is 1 if any column has a p-value below alpha, and 0 otherwise. With a few dozen replicates per set,
+ * the test only detects differences of about a third of a standard deviation or more.
+ */
+class DistributionComparison {
+
+    private DistributionComparison() {
+    }
+
+    /**
+     * @param args See the class description.
+     * @throws IOException If a run file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String directoryA = null;
+        String directoryB = null;
+        String[] columns = {"falseDiscoveryRate", "rateOfDiscovery", "fundsGini", "postdocNumberGini", "effortQuantile50"};
+        long step = -1;
+        double alpha = 0.01;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-a": directoryA = args[++i]; break;
+                case "-b": directoryB = args[++i]; break;
+                case "-columns": columns = args[++i].split(","); break;
+                case "-step": step = Long.parseLong(args[++i]); break;
+                case "-alpha": alpha = Double.parseDouble(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (directoryA == null || directoryB == null) {
+            throw new IllegalArgumentException("Both sets of runs are required: -a DIRECTORY -b DIRECTORY");
+        }
+        boolean allSame = true;
+        System.out.println("column,sizeA,sizeB,meanA,meanB,D,pValue,verdict");
+        for (String column : columns) {
+            double[] sampleA = readSample(new File(directoryA), column, step);
+            double[] sampleB = readSample(new File(directoryB), column, step);
+            double statistic = kolmogorovSmirnovStatistic(sampleA, sampleB);
+            int sizeA = countNumbers(sampleA);
+            int sizeB = countNumbers(sampleB);
+            double pValue = kolmogorovSmirnovPValue(statistic, sizeA, sizeB);
+            boolean same = pValue >= alpha;
+            allSame &= same;
+            System.out.println(column + "," + sizeA + "," + sizeB + "," + mean(sampleA) + "," + mean(sampleB)
+                    + "," + statistic + "," + pValue + "," + (same ? "same" : "different"));
+        }
+        System.exit(allSame ? 0 : 1);
+    }
+
+    /**
+     * @param directory Directory with the run files of a set of replicates.
+     * @param column    Name of a column of the run files.
+     * @param step      The step to read, or -1 for the last row of each file.
+     * @return The value of the column at that step in every run file that has it.
+     */
+    static double[] readSample(File directory, String column, long step) throws IOException {
+        File[] runFiles = directory.listFiles((parent, fileName) -> fileName.matches("run\\d+\\.csv"));
+        if (runFiles == null || runFiles.length == 0) {
+            throw new IOException("No run files in " + directory);
+        }
+        Arrays.sort(runFiles);
+        List<Double> sample = new ArrayList<>();
+        for (File runFile : runFiles) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(runFile))) {
+                String header = reader.readLine();
+                int index = header == null ? -1 : Arrays.asList(header.split(",")).indexOf(column);
+                if (index < 0) {
+                    throw new IOException(runFile + " has no column " + column);
+                }
+                String value = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",");
+                    if (step < 0 || Long.parseLong(fields[0]) == step) {
+                        value = fields[index];
+                    }
+                }
+                if (value != null) {
+                    sample.add(Double.parseDouble(value));
+                }
+            }
+        }
+        double[] values = new double[sample.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sample.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * @return The largest distance between the empirical distribution functions of both samples. NaN values are dropped.
+     */
+    static double kolmogorovSmirnovStatistic(double[] sampleA, double[] sampleB) {
+        double[] a = Arrays.stream(sampleA).filter(value -> !Double.isNaN(value)).sorted().toArray();
+        double[] b = Arrays.stream(sampleB).filter(value -> !Double.isNaN(value)).sorted().toArray();
+        if (a.length == 0 || b.length == 0) {
+            return Double.NaN;
+        }
+        double statistic = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            double value = Math.min(a[i], b[j]);
+            while (i < a.length && a[i] == value) {
+                i++;
+            }
+            while (j < b.length && b[j] == value) {
+                j++;
+            }
+            statistic = Math.max(statistic, Math.abs((double) i / a.length - (double) j / b.length));
+        }
+        return statistic;
+    }
+
+    /**
+     * @return The asymptotic probability of a statistic at least this large if both samples come from the same
+     * distribution. 1 for a statistic of 0, and NaN if the statistic is NaN.
+     */
+    static double kolmogorovSmirnovPValue(double statistic, int sizeA, int sizeB) {
+        if (Double.isNaN(statistic)) {
+            return Double.NaN;
+        }
+        double effectiveSize = Math.sqrt((double) sizeA * sizeB / (sizeA + sizeB));
+        double lambda = (effectiveSize + 0.12 + 0.11 / effectiveSize) * statistic;
+        if (lambda < 1e-3) {
+            return 1;
+        }
+        double sum = 0;
+        double sign = 1;
+        double previousTerm = 0;
+        for (int k = 1; k <= 100; k++) {
+            double term = sign * 2 * Math.exp(-2 * lambda * lambda * k * k);
+            sum += term;
+            if (Math.abs(term) <= 1e-3 * previousTerm || Math.abs(term) <= 1e-8 * sum) {
+                return Math.min(1, Math.max(0, sum));
+            }
+            sign = -sign;
+            previousTerm = Math.abs(term);
+        }
+        return 1; // the series doesn't converge for small lambda, where the samples are very close.
+    }
+
+    /**
+     * @return The number of values that are not NaN, the size of the sample that kolmogorovSmirnovStatistic() tests.
+     */
+    private static int countNumbers(double[] values) {
+        int count = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        int count = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                sum += value;
+                count++;
+            }
+        }
+        return sum / count;
+    }
+}
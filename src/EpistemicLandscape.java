@@ -0,0 +1,61 @@
+import sim.field.grid.DoubleGrid2D;
+
+/**
+ * The epistemic landscape holds the base rate of every topic. Labs read and write it when doing research
+ * and applying for funding, LandscapeUtils disperses changes over it, and Globals summarizes it.
+ * Two backends are available, selected by ScienceFunding.sparseEpistemicLandscape:
+ * DenseEpistemicLandscape stores every topic in a MASON DoubleGrid2D, while SparseEpistemicLandscape only
+ * stores the topics whose base rate differs from the initial base rate.
+ */
+interface EpistemicLandscape {
+
+    /**
+     * @param x X dimension of the topic.
+     * @param y Y dimension of the topic.
+     * @return The base rate of the topic.
+     */
+    double get(int x, int y);
+
+    /**
+     * @param x        X dimension of the topic.
+     * @param y        Y dimension of the topic.
+     * @param baseRate The new base rate of the topic.
+     */
+    void set(int x, int y, double baseRate);
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @return The base rates of every topic, in the same order as DoubleGrid2D.toArray().
+     */
+    double[] toArray();
+
+    /**
+     * @return The mean base rate of all topics in the landscape.
+     */
+    double mean();
+
+    /**
+     * @param mean The mean base rate, as returned by mean().
+     * @return The population standard deviation of the base rates of all topics.
+     */
+    double standardDeviation(double mean);
+
+    /**
+     * Used to measure the landscape away from the simulation thread.
+     *
+     * @return A landscape with the same base rates that shares no storage with this one.
+     */
+    EpistemicLandscape copy();
+
+    /**
+     * Used by the visualization, which needs a MASON grid to portray.
+     * The dense landscape returns its live grid. The sparse landscape copies itself into a grid
+     * it keeps around, so this has to be called again to refresh the copy.
+     *
+     * @return A DoubleGrid2D with the base rates of every topic.
+     */
+    DoubleGrid2D toGrid();
+}
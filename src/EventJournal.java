@@ -0,0 +1,145 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only binary journal of the individual events of a run, so that new measures can be computed afterwards
+ * without running the simulation again. It records every publication and every grant awarded.
+ * The file, resources/eventsJOB.dat, starts with a header of HEADER_LENGTH bytes (MAGIC, FORMAT_VERSION, RECORD_LENGTH,
+ * the size of the landscape and the seed) followed by fixed-width records of RECORD_LENGTH bytes, all little endian:
+ * offset 0  long   step
+ * offset 8  int    labId
+ * offset 12 byte   type (PUBLICATION or GRANT)
+ * offset 13 byte   flags (REPLICATION, POSITIVE, CORRECT for publications; BIG, LOTTERY for grants)
+ * offset 14 short  unused, 0
+ * offset 16 int    x of the topic of the lab
+ * offset 20 int    y of the topic of the lab
+ * offset 24 double score of the lab when evaluated for a grant, NaN for publications
+ * Record i therefore starts at HEADER_LENGTH + i * RECORD_LENGTH, so the file can be read with a mapped buffer and
+ * indexed directly. Records are written into a preallocated direct buffer, which is written to the file when full
+ * and when the journal is closed, so recording an event costs a few puts and no allocation.
+ * A run that dies before close() loses at most the last BUFFERED_RECORDS records; the tail of the file is always whole.
+ */
+class EventJournal {
+
+    //region Format
+    static final int MAGIC = 0x4A454653; // "SFEJ" in little endian
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_LENGTH = 32;
+    static final int RECORD_LENGTH = 32;
+
+    static final byte PUBLICATION = 0;
+    static final byte GRANT = 1;
+
+    static final byte REPLICATION = 1;
+    static final byte POSITIVE = 2;
+    static final byte CORRECT = 4;
+    static final byte BIG = 1;
+    static final byte LOTTERY = 2;
+    //endregion
+
+    //region Fields
+    private static final int BUFFERED_RECORDS = 4096;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFERED_RECORDS * RECORD_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private long recordsWritten;
+    //endregion
+
+    /**
+     * Creates the journal of a run, replacing any journal of the same job.
+     *
+     * @param job             The MASON job of the run.
+     * @param sizeOfLandscape The width and height of the epistemic landscape.
+     * @param seed            The seed of the run.
+     * @throws IOException If the file cannot be created.
+     */
+    EventJournal(long job, int sizeOfLandscape, long seed) throws IOException {
+        this(new File("resources", "events" + job + ".dat"), sizeOfLandscape, seed);
+    }
+
+    EventJournal(File file, int sizeOfLandscape, long seed) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(RECORD_LENGTH).putInt(sizeOfLandscape).putLong(seed).putLong(0);
+        writeBuffer();
+    }
+
+    /**
+     * Records a publication of a lab.
+     *
+     * @param step        Step of the publication.
+     * @param lab         The lab publishing.
+     * @param replication True if the study was a replication.
+     * @param positive    True if the publication claims a positive effect.
+     * @param correct     True if the claim is right.
+     */
+    void recordPublication(long step, Lab lab, boolean replication, boolean positive, boolean correct) {
+        byte flags = (byte) ((replication ? REPLICATION : 0) | (positive ? POSITIVE : 0) | (correct ? CORRECT : 0));
+        record(step, lab, PUBLICATION, flags, Double.NaN);
+    }
+
+    /**
+     * Records a grant awarded to a lab.
+     *
+     * @param step    Step of the award.
+     * @param lab     The lab funded.
+     * @param big     True for a big grant (5 years), false for a small one (1 year).
+     * @param lottery True if the applicants were drawn by lottery instead of ranked by score.
+     */
+    void recordGrant(long step, Lab lab, boolean big, boolean lottery) {
+        byte flags = (byte) ((big ? BIG : 0) | (lottery ? LOTTERY : 0));
+        record(step, lab, GRANT, flags, lab.getScoreForApplying());
+    }
+
+    private void record(long step, Lab lab, byte type, byte flags, double score) {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.putLong(step).putInt(lab.getLabId()).put(type).put(flags).putShort((short) 0)
+                .putInt(lab.xLocationInLandscape).putInt(lab.yLocationInLandscape).putDouble(score);
+        recordsWritten++;
+    }
+
+    /**
+     * Writes the buffered records to the file.
+     */
+    void flush() {
+        try {
+            writeBuffer();
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return The number of events recorded so far.
+     */
+    long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    /**
+     * Writes the buffered records and closes the file.
+     */
+    void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Two dimensional Fenwick (binary indexed) tree of counts over a grid, so that the count in any rectangle of cells
+ * can be read in O(log(width) * log(height)) however big the rectangle, and a cell can be changed in the same time.
+ * A static summed-area table would answer in O(1), but would have to be rebuilt in O(width * height) after every
+ * publication, while the tree is updated with each one.
+ * Used to keep the publications per topic within a neighbourhood of every topic: with a radius r, a scan of the
+ * IntGrid2D would cost O(r^2) per lab per step.
+ * Coordinates are those of the grid, from 0; rectangles are clipped to the grid, which doesn't wrap around.
+ */
+class FenwickGrid2D {
+
+    //region Fields
+    private final int width;
+    private final int height;
+    private final long[][] tree;
+    //endregion
+
+    /**
+     * Creates a tree of a grid with every cell at 0.
+     */
+    FenwickGrid2D(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tree = new long[width + 1][height + 1];
+    }
+
+    /**
+     * Sets every cell to the value of the same cell of a field, in O(width * height).
+     *
+     * @param field The field of an IntGrid2D of the same width and height.
+     * @return This tree.
+     */
+    FenwickGrid2D setTo(int[][] field) {
+        for (int x = 1; x <= width; x++) {
+            for (int y = 1; y <= height; y++) {
+                tree[x][y] = field[x - 1][y - 1];
+            }
+        }
+        /*
+        Push every node into its parent along y and then along x, which builds both dimensions in linear time.
+         */
+        for (int x = 1; x <= width; x++) {
+            for (int y = 1; y <= height; y++) {
+                int parentY = y + (y & -y);
+                if (parentY <= height) {
+                    tree[x][parentY] += tree[x][y];
+                }
+            }
+        }
+        for (int x = 1; x <= width; x++) {
+            int parentX = x + (x & -x);
+            if (parentX <= width) {
+                for (int y = 1; y <= height; y++) {
+                    tree[parentX][y] += tree[x][y];
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a value to a cell.
+     */
+    void add(int x, int y, long value) {
+        for (int i = x + 1; i <= width; i += i & -i) {
+            long[] column = tree[i];
+            for (int j = y + 1; j <= height; j += j & -j) {
+                column[j] += value;
+            }
+        }
+    }
+
+    /**
+     * @return The sum of the cells from (0, 0) to (x, y), inclusive. 0 if x or y is negative.
+     */
+    private long prefixSum(int x, int y) {
+        long sum = 0;
+        for (int i = Math.min(x, width - 1) + 1; i > 0; i -= i & -i) {
+            long[] column = tree[i];
+            for (int j = Math.min(y, height - 1) + 1; j > 0; j -= j & -j) {
+                sum += column[j];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return The sum of the cells from (fromX, fromY) to (toX, toY), inclusive, clipped to the grid.
+     */
+    long sum(int fromX, int fromY, int toX, int toY) {
+        fromX = Math.max(fromX, 0);
+        fromY = Math.max(fromY, 0);
+        if (fromX > toX || fromY > toY) {
+            return 0;
+        }
+        return prefixSum(toX, toY) - prefixSum(fromX - 1, toY) - prefixSum(toX, fromY - 1) + prefixSum(fromX - 1, fromY - 1);
+    }
+
+    /**
+     * @return The sum of the cells at most radius away from (x, y) in both dimensions, clipped to the grid.
+     */
+    long sumAround(int x, int y, int radius) {
+        return sum(x - radius, y - radius, x + radius, y + radius);
+    }
+
+    /**
+     * @return The number of cells of the grid at most radius away from (x, y) in both dimensions.
+     */
+    int cellsAround(int x, int y, int radius) {
+        int columns = Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1;
+        int rows = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+        return columns * rows;
+    }
+
+    /**
+     * @return The value of a cell.
+     */
+    long get(int x, int y) {
+        return sum(x, y, x, y);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compares the TrajectoryFingerprint files of two runs, to check that a faster way of running the model follows the
+ * same trajectory as the original one. Run both with the same seed and fingerprintInterval (e.g. with
+ * -fingerprint 10 on the command line of ScienceFunding), and then:
+ * java FingerprintVerifier resources/fingerprint0.dat other/resources/fingerprint0.dat
+ * It prints the first step at which the fingerprints differ and the components of the state that differ there.
+ * The exit status is 0 if every fingerprint of both runs is the same, and 1 if they diverge, were taken at different
+ * steps or one run has fingerprints the other doesn't.
+ * Runs meant to be only statistically equivalent, such as aggregateResearchSampling or parallelInitialization,
+ * draw different random numbers and diverge at once; compare them with DistributionComparison instead.
+ */
+class FingerprintVerifier {
+
+    private FingerprintVerifier() {
+    }
+
+    /**
+     * @param args The two fingerprint files.
+     * @throws IOException If a file cannot be read or is not a fingerprint file.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Expected two fingerprint files");
+        }
+        String report = compare(new File(args[0]), new File(args[1]));
+        System.out.println(report);
+        System.exit(report.startsWith("Identical") ? 0 : 1);
+    }
+
+    /**
+     * @return A line starting with "Identical" if both files have the same fingerprints, or describing the first difference.
+     */
+    static String compare(File first, File second) throws IOException {
+        ByteBuffer a = read(first);
+        ByteBuffer b = read(second);
+        int intervalA = a.getInt(12);
+        int intervalB = b.getInt(12);
+        long seedA = a.getLong(16);
+        long seedB = b.getLong(16);
+        String warning = seedA != seedB ? " (the runs have different seeds, " + seedA + " and " + seedB + ")" : "";
+        if (intervalA != intervalB) {
+            return "Fingerprints taken every " + intervalA + " and every " + intervalB + " steps cannot be compared";
+        }
+        int recordsA = (a.limit() - TrajectoryFingerprint.HEADER_LENGTH) / TrajectoryFingerprint.RECORD_LENGTH;
+        int recordsB = (b.limit() - TrajectoryFingerprint.HEADER_LENGTH) / TrajectoryFingerprint.RECORD_LENGTH;
+        int common = Math.min(recordsA, recordsB);
+        long lastStep = -1;
+        for (int i = 0; i < common; i++) {
+            int offset = TrajectoryFingerprint.HEADER_LENGTH + i * TrajectoryFingerprint.RECORD_LENGTH;
+            long stepA = a.getLong(offset);
+            long stepB = b.getLong(offset);
+            if (stepA != stepB) {
+                return "Fingerprint " + i + " was taken at step " + stepA + " in " + first + " and at step " + stepB + " in " + second;
+            }
+            StringBuilder diverged = new StringBuilder();
+            for (int component = 0; component < TrajectoryFingerprint.COMPONENTS.length; component++) {
+                int position = offset + 8 * (1 + component);
+                if (a.getLong(position) != b.getLong(position)) {
+                    diverged.append(diverged.length() == 0 ? "" : ", ").append(TrajectoryFingerprint.COMPONENTS[component]);
+                }
+            }
+            if (diverged.length() > 0) {
+                String since = lastStep < 0 ? "" : ", after being identical up to step " + lastStep;
+                return "Diverged at step " + stepA + " in " + diverged + since + warning;
+            }
+            lastStep = stepA;
+        }
+        if (recordsA != recordsB) {
+            File longer = recordsA > recordsB ? first : second;
+            return "Same " + common + " fingerprints up to step " + lastStep + ", but " + longer + " has "
+                    + Math.abs(recordsA - recordsB) + " more" + warning;
+        }
+        return "Identical " + common + " fingerprints up to step " + lastStep + warning;
+    }
+
+    /**
+     * Reads a whole fingerprint file and checks its header.
+     */
+    private static ByteBuffer read(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"); FileChannel channel = randomAccessFile.getChannel()) {
+            if (channel.size() < TrajectoryFingerprint.HEADER_LENGTH || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a fingerprint file");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            if (buffer.getInt(0) != TrajectoryFingerprint.MAGIC || buffer.getInt(4) != TrajectoryFingerprint.FORMAT_VERSION
+                    || buffer.getInt(8) != TrajectoryFingerprint.COMPONENTS.length) {
+                throw new IOException(file + " is not a fingerprint file of version " + TrajectoryFingerprint.FORMAT_VERSION);
+            }
+            return buffer;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 import sim.engine.SimState;
 import sim.engine.Steppable;
+import sim.field.grid.IntGrid2D;
 import sim.util.DoubleBag;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 //TODO: globals working is wonky. Think better aggregation and all that. ScienceMaster seems to delete everything and aggregation feels pointless. This class smells weird.
 
@@ -18,6 +24,21 @@ class Globals implements Steppable {
     private final int frequencyOfGlobalsAggregation = 10;
     private final double aggregationWindow = 10;
 
+    /*
+    Number of bins of the histograms of total funds and number of postdocs per lab. Bin i counts labs with value i,
+    and the last bin counts every lab from numberOfHistogramBins - 1 up.
+     */
+    private final int numberOfHistogramBins = 20;
+
+    /*
+    Distributions of effort, prestige and age of the labs. Every turn, the value of every lab is added to a
+    QuantileSketch of sketchAccuracy (see there), and each aggregation publishes the sketches of the turns since the
+    last one and starts new ones. The quantiles in outputQuantiles are written to the output after convergenceStep,
+    and the sketches of the last aggregation to resources/sketchesJOB.dat when the run finishes (see writeSketches()).
+     */
+    private final int sketchAccuracy = 200;
+    private final double[] outputQuantiles = {0.1, 0.25, 0.5, 0.75, 0.9};
+
     private DoubleBag allFDRLastWindow;
     private DoubleBag allMeanTotalFundsLastWindow;
     private DoubleBag allTotalFundsGiniLastWindow;
@@ -26,26 +47,107 @@ class Globals implements Steppable {
 
     private double numberOfPublicationsThisTurn;
     private double falseDiscoveriesThisTurn;
-    private double FDRThisTurn;
-
-    private double[] baseRateDistribution;
-    private int[] publicationsPerTopicDistribution;
-    private double[] totalFundsDistribution;
-    private double[] postdocNumberDistribution;
-
-    private double meanBaseRate;
-    private double baseRateSDev;
-    private double proportionOfTopicsExplored;
-    private double meanPublicationsPerTopic;
-    private double publicationsPerTopicSDev;
-
-    private double falseDiscoveryRateLastWindow;
-    private double meanTotalFundsLastWindow;
-    private double totalFundsGiniLastWindow;
-    private double postdocNumberMeanLastWindow;
-    private double postdocNumberGiniLastWindow;
+
+    private IntegerHistogram totalFundsHistogram;
+    private IntegerHistogram postdocNumberHistogram;
+
+    private QuantileSketch effortSketchThisWindow;
+    private QuantileSketch prestigeSketchThisWindow;
+    private QuantileSketch ageSketchThisWindow;
+
+    /*
+    The measures being computed, and the measures that the getters and the output read. Until the first step,
+    published is an empty Measures of its own. From then on they are the same object, updated in the step, unless
+    ScienceFunding.backgroundGlobals is true. Then every step hands a Turn to metricsThread, which owns working and
+    the bags above, and each aggregation is published as a copy of working by the next aggregation step (or by
+    finish()), one aggregation interval later; published stays empty until then. The sketches of this window
+    belong to whichever thread measures, like the bags.
+     */
+    private final Measures working;
+    private volatile Measures published;
+    private ExecutorService metricsThread;
+    private Future<Measures> pendingAggregation;
     //endregion
 
+    /**
+     * What Globals reads from the simulation in a step. In the background, the grids, the landscape and the
+     * histograms are copies, and the lab arrays are new each step, so the simulation can go on while they are measured.
+     * Only aggregations are published from the background, so the grids and the landscape are only copied on
+     * aggregation steps, and are null in the other turns.
+     */
+    static final class Turn {
+        long step;
+        boolean aggregationStep;
+        double publications;
+        double falseDiscoveries;
+        EpistemicLandscape epistemicLandscape;
+        IntGrid2D publicationRecordOfTopics;
+        double[] totalFundsDistribution;
+        double[] postdocNumberDistribution;
+        double[] effortDistribution;
+        double[] prestigeDistribution;
+        double[] ageDistribution;
+        IntegerHistogram totalFundsHistogram;
+        IntegerHistogram postdocNumberHistogram;
+    }
+
+    /**
+     * The global measures, as of the turn of step (for the per-turn ones) and of the last aggregation (for the
+     * windowed ones).
+     */
+    static final class Measures {
+        long step;
+        EpistemicLandscape epistemicLandscape;
+        IntGrid2D publicationRecordOfTopics;
+        double[] totalFundsDistribution = new double[0];
+        double[] postdocNumberDistribution = new double[0];
+        IntegerHistogram totalFundsHistogram;
+        IntegerHistogram postdocNumberHistogram;
+        QuantileSketch effortSketch;
+        QuantileSketch prestigeSketch;
+        QuantileSketch ageSketch;
+
+        double meanBaseRate;
+        double baseRateSDev;
+        double proportionOfTopicsExplored;
+        double meanPublicationsPerTopic;
+        double publicationsPerTopicSDev;
+
+        double falseDiscoveryRateLastWindow;
+        double meanTotalFundsLastWindow;
+        double totalFundsGiniLastWindow;
+        double postdocNumberMeanLastWindow;
+        double postdocNumberGiniLastWindow;
+
+        /**
+         * @return A copy to publish. Everything it references belongs to a Turn and is not changed afterwards.
+         */
+        Measures copy() {
+            Measures copy = new Measures();
+            copy.step = step;
+            copy.epistemicLandscape = epistemicLandscape;
+            copy.publicationRecordOfTopics = publicationRecordOfTopics;
+            copy.totalFundsDistribution = totalFundsDistribution;
+            copy.postdocNumberDistribution = postdocNumberDistribution;
+            copy.totalFundsHistogram = totalFundsHistogram;
+            copy.postdocNumberHistogram = postdocNumberHistogram;
+            copy.effortSketch = effortSketch;
+            copy.prestigeSketch = prestigeSketch;
+            copy.ageSketch = ageSketch;
+            copy.meanBaseRate = meanBaseRate;
+            copy.baseRateSDev = baseRateSDev;
+            copy.proportionOfTopicsExplored = proportionOfTopicsExplored;
+            copy.meanPublicationsPerTopic = meanPublicationsPerTopic;
+            copy.publicationsPerTopicSDev = publicationsPerTopicSDev;
+            copy.falseDiscoveryRateLastWindow = falseDiscoveryRateLastWindow;
+            copy.meanTotalFundsLastWindow = meanTotalFundsLastWindow;
+            copy.totalFundsGiniLastWindow = totalFundsGiniLastWindow;
+            copy.postdocNumberMeanLastWindow = postdocNumberMeanLastWindow;
+            copy.postdocNumberGiniLastWindow = postdocNumberGiniLastWindow;
+            return copy;
+        }
+    }
+
     /**
      * Constructor sets all global fields to 0 to initiate data collection.
      */
@@ -53,24 +155,28 @@ class Globals implements Steppable {
         this.falseDiscoveriesThisTurn = 0;
         this.allFDRLastWindow = new DoubleBag();
         this.numberOfPublicationsThisTurn = 0;
-        this.falseDiscoveryRateLastWindow = 0;
-        this.proportionOfTopicsExplored = 0;
-        this.meanBaseRate = 0;
-        this.baseRateSDev = 0;
-        this.baseRateDistribution = new double[0];
-        this.meanPublicationsPerTopic = 0;
-        this.publicationsPerTopicSDev = 0;
-        this.publicationsPerTopicDistribution = new int[0];
-        this.meanTotalFundsLastWindow = 0;
         this.allMeanTotalFundsLastWindow = new DoubleBag();
-        this.totalFundsDistribution = new double[0];
-        this.totalFundsGiniLastWindow = 0;
         this.allTotalFundsGiniLastWindow = new DoubleBag();
-        this.postdocNumberMeanLastWindow = 0;
         this.allPostdocNumberMeanLastWindow = new DoubleBag();
-        this.postdocNumberGiniLastWindow = 0;
         this.allPostdocNumberGiniLastWindow = new DoubleBag();
-        this.postdocNumberDistribution = new double[0];
+        this.totalFundsHistogram = new IntegerHistogram(numberOfHistogramBins);
+        this.postdocNumberHistogram = new IntegerHistogram(numberOfHistogramBins);
+        this.working = new Measures();
+        this.working.totalFundsHistogram = totalFundsHistogram;
+        this.working.postdocNumberHistogram = postdocNumberHistogram;
+        this.effortSketchThisWindow = new QuantileSketch(sketchAccuracy);
+        this.prestigeSketchThisWindow = new QuantileSketch(sketchAccuracy);
+        this.ageSketchThisWindow = new QuantileSketch(sketchAccuracy);
+        this.working.effortSketch = new QuantileSketch(sketchAccuracy);
+        this.working.prestigeSketch = new QuantileSketch(sketchAccuracy);
+        this.working.ageSketch = new QuantileSketch(sketchAccuracy);
+        Measures nothingMeasured = new Measures();
+        nothingMeasured.totalFundsHistogram = new IntegerHistogram(numberOfHistogramBins);
+        nothingMeasured.postdocNumberHistogram = new IntegerHistogram(numberOfHistogramBins);
+        nothingMeasured.effortSketch = new QuantileSketch(sketchAccuracy);
+        nothingMeasured.prestigeSketch = new QuantileSketch(sketchAccuracy);
+        nothingMeasured.ageSketch = new QuantileSketch(sketchAccuracy);
+        this.published = nothingMeasured;
     }
 
     /**
@@ -78,135 +184,288 @@ class Globals implements Steppable {
      * Every X turns, determined by ScienceFunding.frequencyOfGlobalsAggregation, the measures for each turn
      * are aggregated through averaging of the last Y turns, determined by aggregationWindow.
      * They are then written to a file by constructing an Outputter object.
+     * If ScienceFunding.backgroundGlobals is true, the step only takes the Turn and hands it to the metrics thread.
+     * An aggregation step first publishes, and writes, the previous aggregation, which the metrics thread has
+     * normally finished long before, so the schedule only waits for it if measuring falls a whole interval behind.
      *
      * @param state The simulation state. Not necessary to cast as (ScienceFunding) here.
      */
     @Override
     public void step(SimState state) {
         ScienceFunding simulation = (ScienceFunding) state;
-        if (state.schedule.getSteps() % frequencyOfGlobalsAggregation == 0) {
-            updateGlobalsAggregationAndWrite((ScienceFunding) state);
+        SimulationMetrics metrics = simulation.getSimulationMetrics();
+        metrics.startPhase(SimulationMetrics.GLOBALS);
+        metrics.countPublications((int) numberOfPublicationsThisTurn);
+        GlobalsAggregationEvent aggregationEvent = new GlobalsAggregationEvent();
+        aggregationEvent.begin();
+        int publicationsThisTurn = (int) numberOfPublicationsThisTurn;
+        int falseDiscoveriesBeforeReset = (int) falseDiscoveriesThisTurn;
+        boolean aggregationStep = state.schedule.getSteps() % frequencyOfGlobalsAggregation == 0;
+        if (!simulation.getBackgroundGlobals()) {
+            published = working;
+            Turn turn = takeTurn(simulation, aggregationStep, false);
+            updateGlobalsThisTurn(turn);
+            if (aggregationStep) {
+                updateGlobalsAggregation(turn);
+                publishAndWrite(simulation);
+            }
         } else {
-            updateGlobalsThisTurn(simulation);
+            if (aggregationStep && pendingAggregation != null) {
+                published = awaitPendingAggregation();
+                publishAndWrite(simulation);
+            }
+            Turn turn = takeTurn(simulation, aggregationStep, true);
+            Future<Measures> measuring = measureInBackground(simulation, turn);
+            if (aggregationStep) {
+                pendingAggregation = measuring;
+            }
         }
+        aggregationEvent.end();
+        if (aggregationEvent.shouldCommit()) {
+            aggregationEvent.step = state.schedule.getSteps();
+            aggregationEvent.aggregationStep = aggregationStep;
+            aggregationEvent.publications = publicationsThisTurn;
+            aggregationEvent.falseDiscoveries = falseDiscoveriesBeforeReset;
+            aggregationEvent.numberOfLabs = simulation.getBagOfAllLabs().size();
+            aggregationEvent.commit();
+        }
+        metrics.endPhase(SimulationMetrics.GLOBALS);
     }
 
     /**
-     * Generates global measures for this turn.
-     * FDR, mean and gini total funds, mean and gini postdoc number are then stored for aggregation later through
-     * updateGLobalsAggregation.
-     * After measuring these and adding them to the bags that hold all measures in the last X turns (determined by
-     * aggregationWindow), the temporary measure fields for this turn's false discovery rate are reset.
-     * Distributions and statistics in base rate and publications per topic are updated every turn, so they are not reset.
+     * Reads what Globals measures this turn from the simulation, and resets the counters of this turn.
+     * The arrays of total funds, number of postdocs, effort, prestige and age per lab are built here, as they need the labs.
      *
-     * @param state The simulation state cast as ScienceFunding.
+     * @param state           The simulation state cast as ScienceFunding.
+     * @param aggregationStep True if the measures are aggregated this turn.
+     * @param copy            True to copy the grids, the landscape and the histograms, which are then only taken on
+     *                        aggregation steps.
+     * @return The turn.
      */
-    private void updateGlobalsThisTurn(ScienceFunding state) {
-        FDRThisTurn = falseDiscoveriesThisTurn / numberOfPublicationsThisTurn;
-        if (numberOfPublicationsThisTurn == 0 || falseDiscoveriesThisTurn == 0) { // avoid dividing by 0
-            falseDiscoveriesThisTurn = 0;
+    private Turn takeTurn(ScienceFunding state, boolean aggregationStep, boolean copy) {
+        Turn turn = new Turn();
+        turn.step = state.schedule.getSteps();
+        turn.aggregationStep = aggregationStep;
+        turn.publications = numberOfPublicationsThisTurn;
+        turn.falseDiscoveries = falseDiscoveriesThisTurn;
+        if (!copy) {
+            turn.epistemicLandscape = state.getEpistemicLandscape();
+            turn.publicationRecordOfTopics = state.getPublicationRecordOfTopics();
+        } else if (aggregationStep) {
+            turn.epistemicLandscape = state.getEpistemicLandscape().copy();
+            turn.publicationRecordOfTopics = new IntGrid2D(state.getPublicationRecordOfTopics());
         }
-        allFDRLastWindow.add(FDRThisTurn);
-
-        baseRateDistribution = state.getEpistemicLandscape().toArray();
-        meanBaseRate = calculateMean(baseRateDistribution);
-        baseRateSDev = calculateStandardDev(baseRateDistribution, meanBaseRate);
-        publicationsPerTopicDistribution = state.getPublicationRecordOfTopics().toArray();
-        int numberOfExploredTopics = 0;
-        for (int numberOfPubsThisTopic : publicationsPerTopicDistribution) {
-            if (numberOfPubsThisTopic > 0) {
-                numberOfExploredTopics++;
-            }
+        if (aggregationStep) {
+            turn.totalFundsHistogram = copy ? totalFundsHistogram.copy() : totalFundsHistogram;
+            turn.postdocNumberHistogram = copy ? postdocNumberHistogram.copy() : postdocNumberHistogram;
         }
-        proportionOfTopicsExplored = (double) numberOfExploredTopics / publicationsPerTopicDistribution.length;
-        meanPublicationsPerTopic = calculateMean(publicationsPerTopicDistribution);
-        publicationsPerTopicSDev = calculateStandardDev(publicationsPerTopicDistribution, meanPublicationsPerTopic);
-
 
-        totalFundsDistribution = new double[state.getBagOfAllLabs().size()]; // Allocate arrays for total funds, total number of postdocs.
-        postdocNumberDistribution = new double[state.getBagOfAllLabs().size()];
-        /*
-        Loop through labs and populate the arrays. Save the measures for this turn in the all...LastWindow array.
-        After that, remove oldest measures until array has size specified by aggregationWindow using removeNonDestructively
-        to preserve the order of the bag.
-        Use method meanAndGini to obtain those measures.
-         */
+        turn.totalFundsDistribution = new double[state.getBagOfAllLabs().size()]; // Allocate arrays for total funds, total number of postdocs.
+        turn.postdocNumberDistribution = new double[state.getBagOfAllLabs().size()];
+        turn.effortDistribution = new double[state.getBagOfAllLabs().size()];
+        turn.prestigeDistribution = new double[state.getBagOfAllLabs().size()];
+        turn.ageDistribution = new double[state.getBagOfAllLabs().size()];
         for (int i = 0; i < state.getBagOfAllLabs().size(); i++) {
             Lab thisLab = (Lab) state.getBagOfAllLabs().get(i);
             double thisLabTotalFunds = 0;
             for (int n = 0; n < thisLab.grants.size(); n++) {
                 thisLabTotalFunds += thisLab.grants.get(n);
             }
-            totalFundsDistribution[i] = thisLabTotalFunds;
-            postdocNumberDistribution[i] = thisLab.grants.size();
+            turn.totalFundsDistribution[i] = thisLabTotalFunds;
+            turn.postdocNumberDistribution[i] = thisLab.grants.size();
+            turn.effortDistribution[i] = thisLab.effort;
+            turn.prestigeDistribution[i] = thisLab.prestige;
+            turn.ageDistribution[i] = thisLab.getAge();
+        }
+        resetThisTurnGlobals();
+        return turn;
+    }
+
+    /**
+     * Generates global measures for this turn.
+     * FDR, mean and gini total funds, mean and gini postdoc number are then stored for aggregation later through
+     * updateGlobalsAggregation.
+     * The measures are added to the bags that hold all measures in the last X turns (determined by aggregationWindow).
+     * Distributions and statistics in base rate and publications per topic are updated every turn that took the grids.
+     * The effort, prestige and age of every lab are added to the sketches of this window.
+     *
+     * @param turn What was read from the simulation this turn.
+     */
+    private void updateGlobalsThisTurn(Turn turn) {
+        double FDRThisTurn = turn.falseDiscoveries / turn.publications;
+        allFDRLastWindow.add(FDRThisTurn);
+
+        working.step = turn.step;
+        if (turn.epistemicLandscape != null) {
+            working.epistemicLandscape = turn.epistemicLandscape; // the base rate distribution is only copied when requested.
+            working.meanBaseRate = turn.epistemicLandscape.mean();
+            working.baseRateSDev = turn.epistemicLandscape.standardDeviation(working.meanBaseRate);
+            working.publicationRecordOfTopics = turn.publicationRecordOfTopics; // also only copied when requested.
+            int[][] publicationsPerTopic = turn.publicationRecordOfTopics.field;
+            working.proportionOfTopicsExplored = (double) GridStatistics.countPositive(publicationsPerTopic)
+                    / ((double) turn.publicationRecordOfTopics.getWidth() * turn.publicationRecordOfTopics.getHeight());
+            working.meanPublicationsPerTopic = GridStatistics.mean(publicationsPerTopic);
+            working.publicationsPerTopicSDev = GridStatistics.standardDeviation(publicationsPerTopic, working.meanPublicationsPerTopic);
         }
 
-        double[] totalFundsMeanAndGini = meanAndGini(totalFundsDistribution);
+        /*
+        Save the measures for this turn in the all...LastWindow array.
+        Use method meanAndGini to obtain those measures. It sorts the arrays, which belong to this turn.
+         */
+        working.totalFundsDistribution = turn.totalFundsDistribution;
+        working.postdocNumberDistribution = turn.postdocNumberDistribution;
+        double[] totalFundsMeanAndGini = meanAndGini(turn.totalFundsDistribution);
         double totalFundsMeanThisTurn = totalFundsMeanAndGini[0];
         double totalFundsGiniThisTurn = totalFundsMeanAndGini[1];
         allMeanTotalFundsLastWindow.add(totalFundsMeanThisTurn);
         allTotalFundsGiniLastWindow.add(totalFundsGiniThisTurn);
 
-        double[] postdocNumberMeanAndGini = meanAndGini(postdocNumberDistribution);
+        double[] postdocNumberMeanAndGini = meanAndGini(turn.postdocNumberDistribution);
         double postdocNumberMeanThisTurn = postdocNumberMeanAndGini[0];
         double postdocNumberGiniThisTurn = postdocNumberMeanAndGini[1];
         allPostdocNumberMeanLastWindow.add(postdocNumberMeanThisTurn);
         allPostdocNumberGiniLastWindow.add(postdocNumberGiniThisTurn);
-        resetThisTurnGlobals();
+
+        for (int i = 0; i < turn.effortDistribution.length; i++) {
+            effortSketchThisWindow.add(turn.effortDistribution[i]);
+            prestigeSketchThisWindow.add(turn.prestigeDistribution[i]);
+            ageSketchThisWindow.add(turn.ageDistribution[i]);
+        }
     }
 
     /**
      * This function updates all of the global measures that aggregate over the determined window.
      * Size of window is determined by aggregationWindow.
-     * The aggregation is performed through different bags associated with the measures.
-     * After measures are collected and aggregated, write to file using Outputter.
+     * After removing the oldest measures until the bags have the size specified by aggregationWindow,
+     * the aggregation is performed through the bags associated with the measures.
+     * The sketches of this window are handed to the measures, and new ones started for the next window.
+     *
+     * @param turn What was read from the simulation this turn.
+     */
+    private void updateGlobalsAggregation(Turn turn) {
+        working.falseDiscoveryRateLastWindow = aggregateGlobal(allFDRLastWindow, aggregationWindow);
+        working.meanTotalFundsLastWindow = aggregateGlobal(allMeanTotalFundsLastWindow, aggregationWindow);
+        working.totalFundsGiniLastWindow = aggregateGlobal(allTotalFundsGiniLastWindow, aggregationWindow);
+        working.postdocNumberMeanLastWindow = aggregateGlobal(allPostdocNumberMeanLastWindow, aggregationWindow);
+        working.postdocNumberGiniLastWindow = aggregateGlobal(allPostdocNumberGiniLastWindow, aggregationWindow);
+        working.totalFundsHistogram = turn.totalFundsHistogram;
+        working.postdocNumberHistogram = turn.postdocNumberHistogram;
+        working.effortSketch = effortSketchThisWindow;
+        working.prestigeSketch = prestigeSketchThisWindow;
+        working.ageSketch = ageSketchThisWindow;
+        effortSketchThisWindow = new QuantileSketch(sketchAccuracy);
+        prestigeSketchThisWindow = new QuantileSketch(sketchAccuracy);
+        ageSketchThisWindow = new QuantileSketch(sketchAccuracy);
+    }
+
+    /**
+     * Passes the aggregated FDR and Gini indices of the published measures to the ConvergenceDetector of the
+     * simulation, hands the measures to its TrajectoryFingerprint, if any, and writes them to file using Outputter.
      *
      * @param state The simulation state, casted as ScienceFunding.
      */
-    private void updateGlobalsAggregationAndWrite(ScienceFunding state) {
-        updateGlobalsThisTurn(state);
-        falseDiscoveryRateLastWindow = aggregateGlobal(allFDRLastWindow, aggregationWindow);
-        meanTotalFundsLastWindow = aggregateGlobal(allMeanTotalFundsLastWindow, aggregationWindow);
-        totalFundsGiniLastWindow = aggregateGlobal(allTotalFundsGiniLastWindow, aggregationWindow);
-        postdocNumberMeanLastWindow = aggregateGlobal(allPostdocNumberMeanLastWindow, aggregationWindow);
-        postdocNumberGiniLastWindow = aggregateGlobal(allPostdocNumberGiniLastWindow, aggregationWindow);
+    private void publishAndWrite(ScienceFunding state) {
+        Measures measures = published;
+        state.getConvergenceDetector().observe(measures.step,
+                measures.falseDiscoveryRateLastWindow, measures.totalFundsGiniLastWindow, measures.postdocNumberGiniLastWindow);
+        if (state.getTrajectoryFingerprint() != null) {
+            state.getTrajectoryFingerprint().measured(measures);
+        }
 
         /*
         Construct an Outputter object. This writes globals to file through Outputter's construction method.
+        Drivers that only read the final measures of many runs can turn the file off.
          */
+        if (!state.getWriteOutputFile()) {
+            return;
+        }
+        state.getSimulationMetrics().startPhase(SimulationMetrics.OUTPUT);
         try {
             Outputter fileWriter = new Outputter(state);
             fileWriter = null;
         } catch (IOException io) {
             io.printStackTrace();
         }
+        state.getSimulationMetrics().endPhase(SimulationMetrics.OUTPUT);
     }
 
     /**
-     * Calculates the mean of the values in an array of doubles.
+     * Measures a turn on the metrics thread, which is started with the first turn. Turns are measured one at a time,
+     * in the order of the steps.
      *
-     * @param array An array of doubles.
-     * @return The mean of the values of the array as a double.
+     * @return For an aggregation step, the measures to publish. Otherwise, null.
      */
-    private double calculateMean(double[] array) {
-        double mean = 0;
-        for (double thisDouble : array) {
-            mean += thisDouble;
+    private Future<Measures> measureInBackground(ScienceFunding state, Turn turn) {
+        if (metricsThread == null) {
+            metricsThread = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "globals of job " + state.job());
+                thread.setDaemon(true);
+                return thread;
+            });
         }
-        return mean / array.length;
+        return metricsThread.submit(() -> {
+            updateGlobalsThisTurn(turn);
+            if (!turn.aggregationStep) {
+                return null;
+            }
+            updateGlobalsAggregation(turn);
+            return working.copy();
+        });
+    }
+
+    private Measures awaitPendingAggregation() {
+        try {
+            return pendingAggregation.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exception) {
+            exception.getCause().printStackTrace();
+        } finally {
+            pendingAggregation = null;
+        }
+        return published;
+    }
+
+    /**
+     * Publishes and writes the last aggregation if it is still being measured in the background,
+     * and stops the metrics thread. Called when the simulation finishes.
+     *
+     * @param state The simulation state, casted as ScienceFunding.
+     */
+    void finish(ScienceFunding state) {
+        if (pendingAggregation != null) {
+            published = awaitPendingAggregation();
+            publishAndWrite(state);
+        }
+        if (metricsThread != null) {
+            metricsThread.shutdown();
+            metricsThread = null;
+        }
+    }
+
+    /**
+     * Writes the sketches of the effort, prestige and age of the labs of the published aggregation to a file
+     * with QuantileSketch.writeFile(), named effort, prestige and age, to be merged with those of other runs.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeSketches(File file) throws IOException {
+        Measures measures = published;
+        QuantileSketch.writeFile(file, new String[]{"effort", "prestige", "age"},
+                new QuantileSketch[]{measures.effortSketch, measures.prestigeSketch, measures.ageSketch});
     }
 
     /**
-     * Calculates the mean of the values in an array of integers. Difference with version for doubles
-     * is that it casts them as values to avoid truncating all decimal places.
+     * Calculates the mean of the values in an array of doubles.
      *
-     * @param array An array of integers.
+     * @param array An array of doubles.
      * @return The mean of the values of the array as a double.
      */
-    private double calculateMean(int[] array) {
+    private double calculateMean(double[] array) {
         double mean = 0;
-        for (int thisInt : array) {
-            mean += (double) thisInt;
+        for (double thisDouble : array) {
+            mean += thisDouble;
         }
         return mean / array.length;
     }
@@ -264,25 +523,6 @@ class Globals implements Steppable {
         return Math.sqrt(sumOfSquaredDeviations);
     }
 
-    /**
-     * Calculates the standard deviation of the values in an array of ints. Uses Math.sqrt.
-     * The difference with method for doubles is that this version casts values as doubles.
-     *
-     * @param array An array of integers.
-     * @param mean  The mean of the array as a double.
-     * @return The standard deviation of the supplied array as a double.
-     */
-    private double calculateStandardDev(int[] array, double mean) {
-        double sumSquaredDeviations = 0;
-        for (int thisInt : array) {
-            double deviation = ((double) thisInt) - mean;
-            double squaredDeviation = deviation * deviation;
-            sumSquaredDeviations += squaredDeviation;
-        }
-        sumSquaredDeviations /= array.length;
-        return Math.sqrt(sumSquaredDeviations);
-    }
-
     /**
      * Sets every measure that updates each turn to 0.
      */
@@ -330,63 +570,185 @@ class Globals implements Steppable {
         this.falseDiscoveriesThisTurn++;
     }
 
+    /**
+     * Adds several publications at once. Used by labs that sample their research in bulk.
+     *
+     * @param numberOfPublications The number of publications to add.
+     */
+    public void addPublications(int numberOfPublications) {
+        this.numberOfPublicationsThisTurn += numberOfPublications;
+    }
+
+    /**
+     * Adds several false discoveries at once. Used by labs that sample their research in bulk.
+     *
+     * @param numberOfFalseDiscoveries The number of false discoveries to add.
+     */
+    public void addFalseDiscoveries(int numberOfFalseDiscoveries) {
+        this.falseDiscoveriesThisTurn += numberOfFalseDiscoveries;
+    }
+
+
+    /**
+     * Counts a lab that joins the simulation in the histograms of total funds and number of postdocs.
+     *
+     * @param lab The new lab.
+     */
+    public void addLabToHistograms(Lab lab) {
+        lab.countedTotalFunds = lab.getTotalFunds();
+        lab.countedNumberOfGrants = lab.grants.size();
+        totalFundsHistogram.add(lab.countedTotalFunds);
+        postdocNumberHistogram.add(lab.countedNumberOfGrants);
+    }
+
+    /**
+     * Removes a lab that leaves the simulation from the histograms, with the values it was last counted with.
+     *
+     * @param lab The lab being removed.
+     */
+    public void removeLabFromHistograms(Lab lab) {
+        totalFundsHistogram.remove(lab.countedTotalFunds);
+        postdocNumberHistogram.remove(lab.countedNumberOfGrants);
+    }
+
+    /**
+     * Moves a lab to the right bins after its grants changed. Called when grants are awarded and when they run down.
+     * The histograms count the same values as totalFundsDistribution and postdocNumberDistribution
+     * (the sum and the number of entries of the lab's grants), without rebuilding them.
+     *
+     * @param lab The lab whose grants changed.
+     */
+    public void updateLabInHistograms(Lab lab) {
+        int totalFunds = lab.getTotalFunds();
+        int numberOfGrants = lab.grants.size();
+        totalFundsHistogram.move(lab.countedTotalFunds, totalFunds);
+        postdocNumberHistogram.move(lab.countedNumberOfGrants, numberOfGrants);
+        lab.countedTotalFunds = totalFunds;
+        lab.countedNumberOfGrants = numberOfGrants;
+    }
 
     //region Getters
 
     public double getFalseDiscoveryRateLastWindow() {
-        return falseDiscoveryRateLastWindow;
+        return published.falseDiscoveryRateLastWindow;
     }
 
     public double getProportionOfTopicsExplored() {
-        return proportionOfTopicsExplored;
+        return published.proportionOfTopicsExplored;
     }
 
     public double getMeanBaseRate() {
-        return meanBaseRate;
+        return published.meanBaseRate;
     }
 
     public double getBaseRateSDev() {
-        return baseRateSDev;
+        return published.baseRateSDev;
     }
 
     public double[] getBaseRateDistribution() {
-        return baseRateDistribution;
+        EpistemicLandscape epistemicLandscape = published.epistemicLandscape;
+        if (epistemicLandscape == null) {
+            return new double[0];
+        }
+        return epistemicLandscape.toArray();
     }
 
     public double getMeanPublicationsPerTopic() {
-        return meanPublicationsPerTopic;
+        return published.meanPublicationsPerTopic;
     }
 
     public double getPublicationsPerTopicSDev() {
-        return publicationsPerTopicSDev;
+        return published.publicationsPerTopicSDev;
     }
 
     public int[] getPublicationsPerTopicDistribution() {
-        return publicationsPerTopicDistribution;
+        IntGrid2D publicationRecordOfTopics = published.publicationRecordOfTopics;
+        if (publicationRecordOfTopics == null) {
+            return new int[0];
+        }
+        return publicationRecordOfTopics.toArray();
     }
 
     public double getMeanTotalFundsLastWindow() {
-        return meanTotalFundsLastWindow;
+        return published.meanTotalFundsLastWindow;
     }
 
     public double[] getTotalFundsDistribution() {
-        return totalFundsDistribution;
+        return published.totalFundsDistribution;
     }
 
     public double getTotalFundsGiniLastWindow() {
-        return totalFundsGiniLastWindow;
+        return published.totalFundsGiniLastWindow;
     }
 
     public double getPostdocNumberMeanLastWindow() {
-        return postdocNumberMeanLastWindow;
+        return published.postdocNumberMeanLastWindow;
     }
 
     public double getPostdocNumberGiniLastWindow() {
-        return postdocNumberGiniLastWindow;
+        return published.postdocNumberGiniLastWindow;
     }
 
     public double[] getPostdocNumberDistribution() {
-        return postdocNumberDistribution;
+        return published.postdocNumberDistribution;
+    }
+
+    public IntegerHistogram getTotalFundsHistogram() {
+        return totalFundsHistogram;
+    }
+
+    public IntegerHistogram getPostdocNumberHistogram() {
+        return postdocNumberHistogram;
+    }
+
+    /**
+     * @return The step of the published measures. The current step, unless they are measured in the background.
+     */
+    long getMeasuredStep() {
+        return published.step;
+    }
+
+    /**
+     * @return The histogram of total funds as of the published aggregation.
+     */
+    IntegerHistogram getMeasuredTotalFundsHistogram() {
+        return published.totalFundsHistogram;
+    }
+
+    /**
+     * @return The histogram of number of postdocs as of the published aggregation.
+     */
+    IntegerHistogram getMeasuredPostdocNumberHistogram() {
+        return published.postdocNumberHistogram;
+    }
+
+    /**
+     * @return The sketch of the effort of the labs over the turns of the published aggregation window.
+     * Not changed afterwards, so it can be merged into the sketches of other replicates.
+     */
+    QuantileSketch getEffortSketch() {
+        return published.effortSketch;
+    }
+
+    /**
+     * @return The sketch of the prestige of the labs over the turns of the published aggregation window.
+     */
+    QuantileSketch getPrestigeSketch() {
+        return published.prestigeSketch;
+    }
+
+    /**
+     * @return The sketch of the age of the labs over the turns of the published aggregation window.
+     */
+    QuantileSketch getAgeSketch() {
+        return published.ageSketch;
+    }
+
+    /**
+     * @return The fractions whose quantiles are written to the output, for each sketch.
+     */
+    double[] getOutputQuantiles() {
+        return outputQuantiles.clone();
     }
     //endregion
 }
\ No newline at end of file
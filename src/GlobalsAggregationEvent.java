@@ -0,0 +1,32 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one step of Globals, including the window aggregation and output on aggregation steps.
+ * Emitted by Globals.
+ */
+@Name("ScienceFunding.GlobalsAggregation")
+@Label("Globals Aggregation")
+@Category("Science Funding")
+@Description("Global measures computed for a step")
+class GlobalsAggregationEvent extends Event {
+
+    @Label("Step")
+    long step;
+
+    @Label("Aggregation Step")
+    @Description("True if the window was aggregated and written to file on this step")
+    boolean aggregationStep;
+
+    @Label("Publications")
+    int publications;
+
+    @Label("False Discoveries")
+    int falseDiscoveries;
+
+    @Label("Labs")
+    int numberOfLabs;
+}
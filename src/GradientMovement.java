@@ -0,0 +1,47 @@
+/**
+ * Moves a lab one topic towards the best topic around it: the one with the highest base rate, or the one with the
+ * fewest publications, within a radius. The best topic is found with the NeighbourhoodIndex of the run, so a move
+ * scans a few dozen topics at most. A lab moves diagonally, as in the random walk, or straight if the best topic is
+ * in its row or column. If no topic around is strictly better than the lab's own, it does a random walk instead,
+ * so labs still spread over flat regions of the landscape instead of all drifting the same way.
+ */
+class GradientMovement implements MovementStrategy {
+
+    //region Fields
+    private final int grid;
+    private final boolean towardsMaximum;
+    private final int radius;
+    private final MovementStrategy fallback = new RandomWalkMovement();
+    //endregion
+
+    /**
+     * @param grid           NeighbourhoodIndex.BASE_RATE or NeighbourhoodIndex.PUBLICATIONS.
+     * @param towardsMaximum True to move towards the highest value of the grid, false towards the lowest.
+     * @param radius         How far, in both dimensions, the lab looks for a better topic.
+     */
+    GradientMovement(int grid, boolean towardsMaximum, int radius) {
+        this.grid = grid;
+        this.towardsMaximum = towardsMaximum;
+        this.radius = radius;
+    }
+
+    @Override
+    public void move(Lab lab, ScienceFunding state) {
+        NeighbourhoodIndex neighbourhoodIndex = state.getNeighbourhoodIndex();
+        int x = lab.xLocationInLandscape;
+        int y = lab.yLocationInLandscape;
+        int best = towardsMaximum
+                ? neighbourhoodIndex.locationOfMaximum(grid, x, y, radius)
+                : neighbourhoodIndex.locationOfMinimum(grid, x, y, radius);
+        int bestX = neighbourhoodIndex.xOf(best);
+        int bestY = neighbourhoodIndex.yOf(best);
+        double current = neighbourhoodIndex.get(grid, x, y);
+        double bestValue = neighbourhoodIndex.get(grid, bestX, bestY);
+        if (towardsMaximum ? bestValue > current : bestValue < current) {
+            lab.xLocationInLandscape += Integer.signum(bestX - x);
+            lab.yLocationInLandscape += Integer.signum(bestY - y);
+        } else {
+            fallback.move(lab, state);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Statistics over the backing field arrays of MASON grids (DoubleGrid2D.field, IntGrid2D.field), computed in place
+ * instead of on a toArray() copy.
+ * Grids with fewer than 2 * PARALLEL_THRESHOLD cells are summed on the calling thread in the order of toArray()
+ * (column by column), so their results are bit for bit those of the array loops in Globals. Larger grids are split
+ * into blocks of columns that are added in column order. The blocks and the order in which they are added depend only
+ * on the size of the grid: they are summed on the common fork-join pool when it has more than one thread, and one
+ * after the other on the calling thread otherwise, with the same result. Compared with the sequential loop, this
+ * changes the order of the floating point additions, so a mean or standard deviation of a large grid of doubles can
+ * differ from it by the rounding error of the summation: a relative difference of at most
+ * n * 2^-53 * sum(|x|) / |sum(x)|, which for the non-negative values of the model is below 1e-9 for 10^7 cells.
+ * On a 2000 x 2000 grid the differences measured were about 1e-14 for means and 1e-11 for standard deviations.
+ * Sums of ints are exact in both cases, so means and counts of int grids never differ.
+ * The loops are plain scalar code: the JDK 17 Vector API is still an incubator module that has to be added to every
+ * compilation and launch, and reductions of doubles are not vectorized by the JIT without changing their order.
+ */
+class GridStatistics {
+
+    //region Fields
+    /*
+    Grids of at least twice this many cells are split in blocks of at least this many cells.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 18;
+    //endregion
+
+    private GridStatistics() {
+    }
+
+    /**
+     * @param field The field of a DoubleGrid2D.
+     * @return The mean of all cells.
+     */
+    static double mean(double[][] field) {
+        return sum(field, 0, field.length, false, 0) / numberOfCells(field);
+    }
+
+    /**
+     * @param field The field of a DoubleGrid2D.
+     * @param mean  The mean of the cells, as returned by mean().
+     * @return The population standard deviation of all cells.
+     */
+    static double standardDeviation(double[][] field, double mean) {
+        return Math.sqrt(sum(field, 0, field.length, true, mean) / numberOfCells(field));
+    }
+
+    /**
+     * @param field The field of an IntGrid2D.
+     * @return The mean of all cells.
+     */
+    static double mean(int[][] field) {
+        return (double) sum(field, 0, field.length, false) / numberOfCells(field);
+    }
+
+    /**
+     * @param field The field of an IntGrid2D.
+     * @param mean  The mean of the cells, as returned by mean().
+     * @return The population standard deviation of all cells.
+     */
+    static double standardDeviation(int[][] field, double mean) {
+        return Math.sqrt(sumOfSquaredDeviations(field, 0, field.length, mean) / numberOfCells(field));
+    }
+
+    /**
+     * @param field The field of an IntGrid2D.
+     * @return The number of cells greater than 0.
+     */
+    static long countPositive(int[][] field) {
+        return sum(field, 0, field.length, true);
+    }
+
+    private static double numberOfCells(double[][] field) {
+        return field.length == 0 ? 0 : (double) field.length * field[0].length;
+    }
+
+    private static double numberOfCells(int[][] field) {
+        return field.length == 0 ? 0 : (double) field.length * field[0].length;
+    }
+
+    private static int height(double[][] field) {
+        return field.length == 0 ? 0 : field[0].length;
+    }
+
+    private static int height(int[][] field) {
+        return field.length == 0 ? 0 : field[0].length;
+    }
+
+    /**
+     * Sums the cells, or their squared deviations from a mean, of columns from to to (exclusive).
+     */
+    private static double sum(double[][] field, int from, int to, boolean squaredDeviations, double mean) {
+        return reduce(from, to, height(field),
+                (blockFrom, blockTo) -> sumBlock(field, blockFrom, blockTo, squaredDeviations, mean), Double::sum);
+    }
+
+    private static double sumBlock(double[][] field, int from, int to, boolean squaredDeviations, double mean) {
+        double sum = 0;
+        for (int x = from; x < to; x++) {
+            double[] column = field[x];
+            if (squaredDeviations) {
+                for (double value : column) {
+                    double deviation = value - mean;
+                    sum += deviation * deviation;
+                }
+            } else {
+                for (double value : column) {
+                    sum += value;
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the cells, or counts the positive cells, of columns from to to (exclusive).
+     */
+    private static long sum(int[][] field, int from, int to, boolean countPositive) {
+        return reduce(from, to, height(field),
+                (blockFrom, blockTo) -> sumBlock(field, blockFrom, blockTo, countPositive), Long::sum);
+    }
+
+    private static long sumBlock(int[][] field, int from, int to, boolean countPositive) {
+        long sum = 0;
+        for (int x = from; x < to; x++) {
+            int[] column = field[x];
+            if (countPositive) {
+                for (int value : column) {
+                    if (value > 0) {
+                        sum++;
+                    }
+                }
+            } else {
+                for (int value : column) {
+                    sum += value;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static double sumOfSquaredDeviations(int[][] field, int from, int to, double mean) {
+        return reduce(from, to, height(field),
+                (blockFrom, blockTo) -> sumOfSquaredDeviationsBlock(field, blockFrom, blockTo, mean), Double::sum);
+    }
+
+    private static double sumOfSquaredDeviationsBlock(int[][] field, int from, int to, double mean) {
+        double sum = 0;
+        for (int x = from; x < to; x++) {
+            for (int value : field[x]) {
+                double deviation = ((double) value) - mean;
+                sum += deviation * deviation;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Applies a block function to the blocks of columns of ColumnTask and combines their results in column order,
+     * in parallel if the common pool has more than one thread and this is not already inside a ColumnTask.
+     * The result does not depend on which: only the execution of the blocks changes, not the blocks or the order.
+     */
+    private static <T> T reduce(int from, int to, int height, BlockFunction<T> block, BinaryOperator<T> combine) {
+        if (ColumnTask.isBlock(from, to, height)) {
+            return block.apply(from, to);
+        }
+        boolean parallel = ForkJoinPool.getCommonPoolParallelism() > 1 && !ForkJoinTask.inForkJoinPool();
+        ColumnTask<T> task = new ColumnTask<>(from, to, height, block, combine, parallel);
+        return parallel ? ForkJoinPool.commonPool().invoke(task) : task.compute();
+    }
+
+    /**
+     * A function of a block of columns, from (inclusive) to to (exclusive).
+     */
+    private interface BlockFunction<T> {
+        T apply(int from, int to);
+    }
+
+    /**
+     * Splits a range of columns in halves until blocks have about PARALLEL_THRESHOLD cells, applies the
+     * block function to each block and combines the results of the left and right halves, in that order.
+     * The left half is forked if parallel, and computed before the right half on the same thread otherwise.
+     */
+    private static class ColumnTask<T> extends RecursiveTask<T> {
+        private final int from;
+        private final int to;
+        private final int height;
+        private final BlockFunction<T> block;
+        private final BinaryOperator<T> combine;
+        private final boolean parallel;
+
+        ColumnTask(int from, int to, int height, BlockFunction<T> block, BinaryOperator<T> combine, boolean parallel) {
+            this.from = from;
+            this.to = to;
+            this.height = height;
+            this.block = block;
+            this.combine = combine;
+            this.parallel = parallel;
+        }
+
+        /**
+         * @return True if the columns are a single block: one column, or fewer than twice PARALLEL_THRESHOLD cells.
+         */
+        static boolean isBlock(int from, int to, int height) {
+            return to - from < 2 || (long) (to - from) * height < 2L * PARALLEL_THRESHOLD;
+        }
+
+        @Override
+        protected T compute() {
+            if (isBlock(from, to, height)) {
+                return block.apply(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            ColumnTask<T> left = new ColumnTask<>(from, middle, height, block, combine, parallel);
+            ColumnTask<T> right = new ColumnTask<>(middle, to, height, block, combine, parallel);
+            if (!parallel) {
+                T leftResult = left.compute();
+                return combine.apply(leftResult, right.compute());
+            }
+            left.fork();
+            T rightResult = right.compute();
+            return combine.apply(left.join(), rightResult);
+        }
+    }
+}
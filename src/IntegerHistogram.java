@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative integer values with a fixed number of bins of width 1, where the last bin also counts
+ * every value above it. Counts are maintained incrementally: callers add, remove, or move one value at a time,
+ * so reading the histogram is O(bins) however many values it holds.
+ */
+class IntegerHistogram {
+
+    //region Fields
+    private final int[] counts;
+    //endregion
+
+    /**
+     * @param numberOfBins Number of bins. Bin i counts value i, and the last bin counts every value from numberOfBins - 1 up.
+     */
+    IntegerHistogram(int numberOfBins) {
+        this.counts = new int[numberOfBins];
+    }
+
+    void add(int value) {
+        counts[binOf(value)]++;
+    }
+
+    void remove(int value) {
+        counts[binOf(value)]--;
+    }
+
+    /**
+     * Moves one value from the bin of oldValue to the bin of newValue.
+     */
+    void move(int oldValue, int newValue) {
+        int oldBin = binOf(oldValue);
+        int newBin = binOf(newValue);
+        if (oldBin != newBin) {
+            counts[oldBin]--;
+            counts[newBin]++;
+        }
+    }
+
+    /**
+     * @return A histogram with the same counts, sharing nothing with this one.
+     */
+    IntegerHistogram copy() {
+        IntegerHistogram copy = new IntegerHistogram(counts.length);
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        return copy;
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+    }
+
+    private int binOf(int value) {
+        if (value <= 0) {
+            return 0;
+        }
+        return Math.min(value, counts.length - 1);
+    }
+
+    int getNumberOfBins() {
+        return counts.length;
+    }
+
+    int getCount(int bin) {
+        return counts[bin];
+    }
+
+    /**
+     * @return The counts as doubles, as the bar charts of the visualization expect them.
+     */
+    double[] getCountsAsDoubles() {
+        double[] countsAsDoubles = new double[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            countsAsDoubles[i] = counts[i];
+        }
+        return countsAsDoubles;
+    }
+
+    /**
+     * @return A label per bin, "i" for the bins of a single value and "i+" for the last one.
+     */
+    String[] getBinLabels() {
+        String[] labels = new String[counts.length];
+        for (int i = 0; i < counts.length - 1; i++) {
+            labels[i] = Integer.toString(i);
+        }
+        labels[counts.length - 1] = (counts.length - 1) + "+";
+        return labels;
+    }
+}
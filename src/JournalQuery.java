@@ -0,0 +1,326 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Queries over the event journals written by EventJournal. Journals are memory-mapped in chunks of at most
+ * CHUNK_RECORDS records, and each chunk is scanned by its own task on a pool of threads into a partial table of
+ * counts per group, so the journals are never read onto the heap and files much larger than memory are streamed
+ * through the page cache. The partial tables are merged once every chunk has been scanned.
+ * Queries:
+ * FDR_PER_CELL         publications, false discoveries and false discovery rate of every topic cell.
+ * REPLICATION_OVER_TIME publications, replications and replication rate of every bucket of -bucket steps.
+ * FUNDING_PER_LAB      grants, big grants, grant years (5 per big grant, 1 per small grant) and share of the grant
+ *                      years of the journal of every funded lab, per journal, since lab ids are only unique in a run.
+ *                      With -byLineage, the grants of every lab are counted for the founder of its lineage instead,
+ *                      read from the LabLineage file of the run next to the journal (lineageN.csv for eventsN.dat),
+ *                      so the rows are the funding concentration per lineage.
+ * Counts are summed over all the journals given, except for FUNDING_PER_LAB. Only events between steps -from and
+ * -to (inclusive) are counted.
+ * Usage:
+ * java JournalQuery -query fdrPerCell|replicationOverTime|fundingPerLab -journals FILE,FILE,...|DIRECTORY
+ * [-from 0] [-to MAX] [-bucket 100] [-threads N] [-output resources/journalQuery.csv] [-byLineage]
+ * A directory stands for all the eventsN.dat files in it.
+ */
+class JournalQuery {
+
+    //region Queries
+    static final String FDR_PER_CELL = "fdrPerCell";
+    static final String REPLICATION_OVER_TIME = "replicationOverTime";
+    static final String FUNDING_PER_LAB = "fundingPerLab";
+    //endregion
+
+    //region Fields
+    private static final long CHUNK_RECORDS = 1L << 23; // 256 MB of records per mapping
+
+    private final String query;
+    private final List<File> journals;
+    private final long fromStep;
+    private final long toStep;
+    private final long bucket;
+    private final int threads;
+    private final boolean byLineage;
+    private int sizeOfLandscape;
+    private int[][] founderIds; // per journal, by labId. Only read with byLineage.
+    //endregion
+
+    /**
+     * A range of records of a journal, scanned by one task.
+     */
+    private static class Chunk {
+        final int journal;
+        final long firstRecord;
+        final long numberOfRecords;
+
+        Chunk(int journal, long firstRecord, long numberOfRecords) {
+            this.journal = journal;
+            this.firstRecord = firstRecord;
+            this.numberOfRecords = numberOfRecords;
+        }
+    }
+
+    JournalQuery(String query, List<File> journals, long fromStep, long toStep, long bucket, int threads, boolean byLineage) {
+        this.query = query;
+        this.journals = journals;
+        this.fromStep = fromStep;
+        this.toStep = toStep;
+        this.bucket = bucket;
+        this.threads = threads;
+        this.byLineage = byLineage;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        String query = null;
+        String journalsArgument = null;
+        long fromStep = 0;
+        long toStep = Long.MAX_VALUE;
+        long bucket = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String outputFile = "resources" + File.separator + "journalQuery.csv";
+        boolean byLineage = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-query": query = args[++i]; break;
+                case "-journals": journalsArgument = args[++i]; break;
+                case "-from": fromStep = Long.parseLong(args[++i]); break;
+                case "-to": toStep = Long.parseLong(args[++i]); break;
+                case "-bucket": bucket = Long.parseLong(args[++i]); break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                case "-output": outputFile = args[++i]; break;
+                case "-byLineage": byLineage = true; break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (query == null || !(query.equals(FDR_PER_CELL) || query.equals(REPLICATION_OVER_TIME) || query.equals(FUNDING_PER_LAB))) {
+            throw new IllegalArgumentException("Expected -query fdrPerCell, replicationOverTime or fundingPerLab");
+        }
+        if (journalsArgument == null) {
+            throw new IllegalArgumentException("Journals are required: -journals FILE,FILE,... or DIRECTORY");
+        }
+        if (bucket <= 0) {
+            throw new IllegalArgumentException("The bucket must be positive");
+        }
+        if (byLineage && !query.equals(FUNDING_PER_LAB)) {
+            throw new IllegalArgumentException("-byLineage only applies to -query fundingPerLab");
+        }
+        List<File> journals = new ArrayList<>();
+        for (String name : journalsArgument.split(",")) {
+            File file = new File(name);
+            File[] journalsInDirectory = file.listFiles((directory, fileName) -> fileName.matches("events\\d+\\.dat"));
+            if (journalsInDirectory != null) {
+                Arrays.sort(journalsInDirectory);
+                journals.addAll(Arrays.asList(journalsInDirectory));
+            } else {
+                journals.add(file);
+            }
+        }
+        JournalQuery journalQuery = new JournalQuery(query, journals, fromStep, toStep, bucket, threads, byLineage);
+        Map<Long, long[]> table = journalQuery.run();
+        File parent = new File(outputFile).getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        journalQuery.write(table, outputFile);
+    }
+
+    /**
+     * Checks the header of every journal, reads the lineages if grouping by lineage, splits the journals into chunks
+     * and scans the chunks in parallel.
+     *
+     * @return The counts of every group, merged over all chunks, by group key.
+     */
+    Map<Long, long[]> run() throws IOException, InterruptedException, ExecutionException {
+        if (byLineage) {
+            founderIds = new int[journals.size()][];
+            for (int i = 0; i < journals.size(); i++) {
+                founderIds[i] = LabLineage.readFounderIds(lineageFile(journals.get(i)));
+            }
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < journals.size(); i++) {
+            long numberOfRecords = readHeader(journals.get(i));
+            for (long first = 0; first < numberOfRecords; first += CHUNK_RECORDS) {
+                chunks.add(new Chunk(i, first, Math.min(CHUNK_RECORDS, numberOfRecords - first)));
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Map<Long, long[]>>> tasks = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                tasks.add(() -> scan(chunk));
+            }
+            Map<Long, long[]> table = new HashMap<>();
+            for (Future<Map<Long, long[]>> partial : executor.invokeAll(tasks)) {
+                partial.get().forEach((key, counts) -> table.merge(key, counts, (merged, more) -> {
+                    for (int i = 0; i < merged.length; i++) {
+                        merged[i] += more[i];
+                    }
+                    return merged;
+                }));
+            }
+            return table;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return The lineage file written by the run of a journal: lineageN.csv, next to eventsN.dat.
+     */
+    static File lineageFile(File journal) throws IOException {
+        String name = journal.getName();
+        if (!name.matches("events\\d+\\.dat")) {
+            throw new IOException("Cannot tell the lineage file of " + journal + ", which is not named eventsN.dat");
+        }
+        return new File(journal.getAbsoluteFile().getParentFile(),
+                "lineage" + name.substring("events".length(), name.length() - ".dat".length()) + ".csv");
+    }
+
+    /**
+     * Validates the header of a journal and records the size of its landscape, which must be the same for all.
+     *
+     * @return The number of whole records in the journal.
+     */
+    private long readHeader(File journal) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(journal, "r"); FileChannel channel = file.getChannel()) {
+            if (channel.size() < EventJournal.HEADER_LENGTH) {
+                throw new IOException(journal + " is not an event journal");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, EventJournal.HEADER_LENGTH);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != EventJournal.MAGIC || header.getInt(4) != EventJournal.FORMAT_VERSION
+                    || header.getInt(8) != EventJournal.RECORD_LENGTH) {
+                throw new IOException(journal + " is not an event journal of format " + EventJournal.FORMAT_VERSION);
+            }
+            int size = header.getInt(12);
+            if (sizeOfLandscape != 0 && size != sizeOfLandscape) {
+                throw new IOException(journal + " has a landscape of " + size + " instead of " + sizeOfLandscape);
+            }
+            sizeOfLandscape = size;
+            return (channel.size() - EventJournal.HEADER_LENGTH) / EventJournal.RECORD_LENGTH;
+        }
+    }
+
+    /**
+     * Maps a chunk of a journal and counts its events into a table of its own.
+     */
+    private Map<Long, long[]> scan(Chunk chunk) throws IOException {
+        Map<Long, long[]> table = new HashMap<>();
+        try (RandomAccessFile file = new RandomAccessFile(journals.get(chunk.journal), "r"); FileChannel channel = file.getChannel()) {
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY,
+                    EventJournal.HEADER_LENGTH + chunk.firstRecord * EventJournal.RECORD_LENGTH,
+                    chunk.numberOfRecords * EventJournal.RECORD_LENGTH);
+            records.order(ByteOrder.LITTLE_ENDIAN);
+            for (int offset = 0; offset < records.limit(); offset += EventJournal.RECORD_LENGTH) {
+                long step = records.getLong(offset);
+                if (step < fromStep || step > toStep) {
+                    continue;
+                }
+                byte type = records.get(offset + 12);
+                byte flags = records.get(offset + 13);
+                switch (query) {
+                    case FDR_PER_CELL:
+                        if (type == EventJournal.PUBLICATION) {
+                            long cell = (long) records.getInt(offset + 16) * sizeOfLandscape + records.getInt(offset + 20);
+                            long[] counts = table.computeIfAbsent(cell, key -> new long[2]);
+                            counts[0]++;
+                            if ((flags & EventJournal.CORRECT) == 0) {
+                                counts[1]++;
+                            }
+                        }
+                        break;
+                    case REPLICATION_OVER_TIME:
+                        if (type == EventJournal.PUBLICATION) {
+                            long[] counts = table.computeIfAbsent(step / bucket, key -> new long[2]);
+                            counts[0]++;
+                            if ((flags & EventJournal.REPLICATION) != 0) {
+                                counts[1]++;
+                            }
+                        }
+                        break;
+                    case FUNDING_PER_LAB:
+                        if (type == EventJournal.GRANT) {
+                            int labId = records.getInt(offset + 8);
+                            if (byLineage) {
+                                if (labId < 0 || labId >= founderIds[chunk.journal].length) {
+                                    throw new IOException("Lab " + labId + " of " + journals.get(chunk.journal)
+                                            + " is not in the lineage of its run");
+                                }
+                                labId = founderIds[chunk.journal][labId];
+                            }
+                            long lab = ((long) chunk.journal << 32) | (labId & 0xFFFFFFFFL);
+                            long[] counts = table.computeIfAbsent(lab, key -> new long[3]);
+                            boolean big = (flags & EventJournal.BIG) != 0;
+                            counts[0]++;
+                            counts[1] += big ? 1 : 0;
+                            counts[2] += big ? 5 : 1;
+                        }
+                        break;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Writes the table as CSV, sorted by group.
+     */
+    void write(Map<Long, long[]> table, String outputFile) throws IOException {
+        TreeMap<Long, long[]> sorted = new TreeMap<>(table);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+            switch (query) {
+                case FDR_PER_CELL:
+                    writer.write("x,y,publications,falseDiscoveries,falseDiscoveryRate");
+                    writer.newLine();
+                    for (Map.Entry<Long, long[]> entry : sorted.entrySet()) {
+                        long[] counts = entry.getValue();
+                        writer.write((entry.getKey() / sizeOfLandscape) + "," + (entry.getKey() % sizeOfLandscape) + ","
+                                + counts[0] + "," + counts[1] + "," + ((double) counts[1] / counts[0]));
+                        writer.newLine();
+                    }
+                    break;
+                case REPLICATION_OVER_TIME:
+                    writer.write("fromStep,toStep,publications,replications,replicationRate");
+                    writer.newLine();
+                    for (Map.Entry<Long, long[]> entry : sorted.entrySet()) {
+                        long[] counts = entry.getValue();
+                        writer.write((entry.getKey() * bucket) + "," + ((entry.getKey() + 1) * bucket - 1) + ","
+                                + counts[0] + "," + counts[1] + "," + ((double) counts[1] / counts[0]));
+                        writer.newLine();
+                    }
+                    break;
+                case FUNDING_PER_LAB:
+                    long[] grantYearsOfJournal = new long[journals.size()];
+                    sorted.forEach((key, counts) -> grantYearsOfJournal[(int) (key >>> 32)] += counts[2]);
+                    writer.write(byLineage ? "journal,founderId,grants,bigGrants,grantYears,shareOfGrantYears"
+                            : "journal,labId,grants,bigGrants,grantYears,shareOfGrantYears");
+                    writer.newLine();
+                    for (Map.Entry<Long, long[]> entry : sorted.entrySet()) {
+                        int journal = (int) (entry.getKey() >>> 32);
+                        long[] counts = entry.getValue();
+                        writer.write(journals.get(journal).getName() + "," + (int) (long) entry.getKey() + ","
+                                + counts[0] + "," + counts[1] + "," + counts[2] + ","
+                                + ((double) counts[2] / grantYearsOfJournal[journal]));
+                        writer.newLine();
+                    }
+                    break;
+            }
+        }
+    }
+}
@@ -1,9 +1,7 @@
 import sim.engine.SimState;
 import sim.engine.Steppable;
-import sim.engine.Stoppable;
-import sim.field.grid.DoubleGrid2D;
 import sim.field.grid.IntGrid2D;
-import sim.field.grid.SparseGrid2D;
+import sim.util.Bag;
 import sim.util.Double2D;
 import sim.util.IntBag;
 
@@ -14,7 +12,7 @@ import sim.util.IntBag;
  * When applying for funding, labs calculate their score according to the parameters.
  * They have a location on the epistemic landscape.
  * They store grants at a bag that measures how many years each postdoc of the lab has left.
- * Stoppable stores the switch to kill them from the simulation when dying.
+ * They are stepped by the LabPopulationStepper, which stores their position in its array in populationIndex.
  */
 class Lab implements Steppable {
 
@@ -37,7 +35,9 @@ class Lab implements Steppable {
     int yLocationInLandscape;
     IntBag grants;
     int numberOfPostdocs;
-    Stoppable stoppable;
+    int populationIndex;
+    int countedTotalFunds; // total funds and number of grants as last counted in the Globals histograms.
+    int countedNumberOfGrants;
     private int age;
     private double scoreForApplying;
     private double relativePrestige;
@@ -77,9 +77,10 @@ class Lab implements Steppable {
             clearFunding();
             checkFunding();
         }
-        updateTopic(simulation, simulation.getLocationOfLaboratories());
+        updateTopic(simulation);
         doResearch(simulation, simulation.getPublicationRecordOfTopics(), simulation.getEpistemicLandscape());
         updateFunding();
+        simulation.getGlobalsObject().updateLabInHistograms(this);
     }
 
     /**
@@ -107,30 +108,24 @@ class Lab implements Steppable {
     }
 
     /**
-     * Changes the lab topic with some probability. At this point, this is a random walk.
+     * Changes the lab topic with some probability.
      * There are two parameters that control this method: the probability of moving at all, probabilityOfMoving,
-     * and the probability that instead of doing a random walk around the current location, lab will move to a random topic.
+     * and the probability that instead of moving around the current location, lab will move to a random topic.
+     * How it moves around the current location is decided by the MovementStrategy of the simulation,
+     * a random walk unless ScienceFunding.movementStrategy says otherwise.
      *
-     * @param state              The simulation state.
-     * @param epistemicLandscape The epistemic landscape where labs are situated.
+     * The new location is passed on to the simulation's grid of lab locations, which ignores it in headless mode.
+     *
+     * @param state The simulation state.
      */
-    private void updateTopic(ScienceFunding state, SparseGrid2D epistemicLandscape) {
+    private void updateTopic(ScienceFunding state) {
 
         if (state.random.nextDouble() < probabilityOfMoving) {
             if (state.random.nextDouble() < this.probabilityOfRandomMove) {
                 xLocationInLandscape = state.random.nextInt(state.getSizeOfLandscape());
                 yLocationInLandscape = state.random.nextInt(state.getSizeOfLandscape());
             } else {
-                if (state.random.nextBoolean()) {
-                    xLocationInLandscape++;
-                } else {
-                    xLocationInLandscape--;
-                }
-                if (state.random.nextBoolean()) {
-                    yLocationInLandscape++;
-                } else {
-                    yLocationInLandscape--;
-                }
+                state.getMovementStrategyObject().move(this, state);
             }
             if (xLocationInLandscape >= state.getSizeOfLandscape()) { // after movement, cap location at 0 - 199.
                 xLocationInLandscape = 199;
@@ -144,7 +139,7 @@ class Lab implements Steppable {
             if (yLocationInLandscape < 0) {
                 yLocationInLandscape = 0;
             }
-            epistemicLandscape.setObjectLocation(this, this.xLocationInLandscape, this.yLocationInLandscape);
+            state.updateLocationOfLab(this);
         }
     }
 
@@ -156,9 +151,13 @@ class Lab implements Steppable {
      * @param publicationSpace   The grid that stores the publications per topic
      * @param epistemicLandscape The epistemic landscape grid.
      */
-    private void doResearch(ScienceFunding state, IntGrid2D publicationSpace, DoubleGrid2D epistemicLandscape) {
+    private void doResearch(ScienceFunding state, IntGrid2D publicationSpace, EpistemicLandscape epistemicLandscape) {
 
         boolean appliedToGrant = applyToGrant(state, epistemicLandscape);
+        if (state.getAggregateResearchSampling()) {
+            doResearchInBulk(state, publicationSpace, epistemicLandscape, appliedToGrant);
+            return;
+        }
         int numberOfResearchers = 1 + this.numberOfPostdocs;
         for (int i = 0; i < numberOfResearchers; i++) {
 
@@ -247,9 +246,9 @@ class Lab implements Steppable {
                          In the study was a replication, the lab obtains 0.5 of prestige. else, it receives 1.0.
                           */
                         globalsObject.addPublications(); // add one to publication counter
-                        int currentPublicationsTopic = publicationSpace.get(this.xLocationInLandscape, this.yLocationInLandscape);
-                        publicationSpace.set(this.xLocationInLandscape, this.yLocationInLandscape, currentPublicationsTopic + 1);
-                        LandscapeUtils.increaseAndDisperse(epistemicLandscape, this.xLocationInLandscape, this.yLocationInLandscape, state.getIncreaseInBaseRate());
+                        recordPublication(state, researchIsReplication, true, labIsRight);
+                        addPublicationsToTopic(state, publicationSpace, 1);
+                        increaseBaseRateOfTopic(state, epistemicLandscape);
                         if (!labIsRight) {
                             globalsObject.addFalseDiscoveries();
                         }
@@ -262,12 +261,12 @@ class Lab implements Steppable {
                     }
                     if (!publishingPositiveEffect && (state.random.nextDouble() < state.getProbabilityOfPublishingNegative())) {
                         globalsObject.addPublications();
+                        recordPublication(state, researchIsReplication, false, labIsRight);
                         if (!labIsRight) {
                             globalsObject.addFalseDiscoveries();
                         }
-                        int currentPublicationsTopic = publicationSpace.get(this.xLocationInLandscape, this.yLocationInLandscape);
-                        publicationSpace.set(this.xLocationInLandscape, this.yLocationInLandscape, currentPublicationsTopic + 1);
-                        LandscapeUtils.increaseAndDisperse(epistemicLandscape, this.xLocationInLandscape, this.yLocationInLandscape, state.getIncreaseInBaseRate());
+                        addPublicationsToTopic(state, publicationSpace, 1);
+                        increaseBaseRateOfTopic(state, epistemicLandscape);
                         if (researchIsReplication) {
                             this.prestige += 0.5;
                         } else {
@@ -279,21 +278,242 @@ class Lab implements Steppable {
         }
     }
 
+    /**
+     * Adds publications to the topic of this lab in the publication record, and in the publication density of the
+     * run if there is one. Tells the neighbourhood index and the landscape tile versions, if there are, that it changed.
+     */
+    private void addPublicationsToTopic(ScienceFunding state, IntGrid2D publicationSpace, int numberOfPublications) {
+        int currentPublicationsTopic = publicationSpace.get(this.xLocationInLandscape, this.yLocationInLandscape);
+        publicationSpace.set(this.xLocationInLandscape, this.yLocationInLandscape, currentPublicationsTopic + numberOfPublications);
+        FenwickGrid2D publicationDensity = state.getPublicationDensity();
+        if (publicationDensity != null) {
+            publicationDensity.add(this.xLocationInLandscape, this.yLocationInLandscape, numberOfPublications);
+        }
+        NeighbourhoodIndex neighbourhoodIndex = state.getNeighbourhoodIndex();
+        if (neighbourhoodIndex != null) {
+            neighbourhoodIndex.topicChanged(NeighbourhoodIndex.PUBLICATIONS, this.xLocationInLandscape, this.yLocationInLandscape);
+        }
+        LandscapeTileVersions landscapeTileVersions = state.getLandscapeTileVersions();
+        if (landscapeTileVersions != null) {
+            landscapeTileVersions.topicChanged(NeighbourhoodIndex.PUBLICATIONS, this.xLocationInLandscape, this.yLocationInLandscape);
+        }
+    }
+
+    /**
+     * Increases the base rate of the topic of this lab and disperses the change, telling the neighbourhood index and
+     * the landscape tile versions of the run, if there are, about every topic that changed.
+     */
+    private void increaseBaseRateOfTopic(ScienceFunding state, EpistemicLandscape epistemicLandscape) {
+        Bag changedTopics = LandscapeUtils.increaseAndDisperse(epistemicLandscape, this.xLocationInLandscape, this.yLocationInLandscape, state.getIncreaseInBaseRate());
+        NeighbourhoodIndex neighbourhoodIndex = state.getNeighbourhoodIndex();
+        LandscapeTileVersions landscapeTileVersions = state.getLandscapeTileVersions();
+        if (neighbourhoodIndex == null && landscapeTileVersions == null) {
+            return;
+        }
+        for (int i = 0; i < changedTopics.size(); i++) {
+            Double2D topic = (Double2D) changedTopics.get(i);
+            if (neighbourhoodIndex != null) {
+                neighbourhoodIndex.topicChanged(NeighbourhoodIndex.BASE_RATE, (int) topic.x, (int) topic.y);
+            }
+            if (landscapeTileVersions != null) {
+                landscapeTileVersions.topicChanged(NeighbourhoodIndex.BASE_RATE, (int) topic.x, (int) topic.y);
+            }
+        }
+    }
+
+    /**
+     * Records a publication of this lab in the event journal of the run, if there is one.
+     */
+    private void recordPublication(ScienceFunding state, boolean replication, boolean positive, boolean correct) {
+        EventJournal eventJournal = state.getEventJournal();
+        if (eventJournal != null) {
+            eventJournal.recordPublication(state.schedule.getSteps(), this, replication, positive, correct);
+        }
+    }
+
+    /**
+     * Samples the same process as the per-member loop of doResearch, but in bulk.
+     * First, the number of members that do research is drawn: a Bernoulli for the PI, whose probability is reduced if
+     * the lab applied for funding, plus a binomial for the postdocs. Each research attempt then ends in one of five
+     * outcomes: a published true positive, false negative, false positive or true negative, or no publication.
+     * The probability of each outcome follows from the base rate of the topic, the power, the lab's false positive
+     * rate, the effectiveness of peer reviewers and the probability of publishing negative results.
+     * <p>
+     * If ScienceFunding.increaseInBaseRate is 0, publishing doesn't change the base rate, so the outcomes of all
+     * attempts are drawn at once as a multinomial (a chain of binomials) and applied in bulk. This takes O(1) draws.
+     * Otherwise, the base rate changes after every publication. The attempts are then walked publication by
+     * publication: the number of unpublished attempts before the next publication is drawn as a geometric,
+     * and the outcome of the publication is drawn with the base rate at that moment.
+     * <p>
+     * In the loop, a study is a replication with probability ScienceFunding.probabilityOfReplication only if the topic
+     * already had a publication when it was attempted. So if the topic had no publications, the first publication of
+     * the lab can't be a replication, and every later one can.
+     *
+     * @param state              The simulation state
+     * @param publicationSpace   The grid that stores the publications per topic
+     * @param epistemicLandscape The epistemic landscape.
+     * @param appliedToGrant     True if the lab applied for funding this turn.
+     */
+    private void doResearchInBulk(ScienceFunding state, IntGrid2D publicationSpace, EpistemicLandscape epistemicLandscape, boolean appliedToGrant) {
+        double probabilityOfResearch = 1 - (state.getCostOfEffortConstant() * Math.log10(effort));
+        double probabilityOfResearchOfPI = probabilityOfResearch;
+        if (appliedToGrant) {
+            probabilityOfResearchOfPI = probabilityOfResearch * state.getCostOfApplyingForFunding();
+        }
+        int researchAttempts = drawBinomial(state, this.numberOfPostdocs, probabilityOfResearch);
+        if (state.random.nextDouble() < probabilityOfResearchOfPI) {
+            researchAttempts++;
+        }
+        if (researchAttempts == 0) {
+            return;
+        }
+
+        double power = state.getPowerLevel();
+        double labFalsePositiveRate = power / (1 + (1 - power) * this.effort);
+        double passesPeerReview = 1 - state.getEffectivenessOfPeerReviewers();
+        double negativeIsPublished = state.getProbabilityOfPublishingNegative();
+        boolean topicHadPublications = publicationSpace.get(xLocationInLandscape, yLocationInLandscape) > 0;
+        Globals globalsObject = state.getGlobalsObject();
+
+        if (state.getIncreaseInBaseRate() == 0) {
+            double baseRate = Math.min(epistemicLandscape.get(xLocationInLandscape, yLocationInLandscape), 1); // the center of a dispersal isn't capped, so it can exceed 1.
+            double[] outcomeProbabilities = {
+                    baseRate * power, // true positive
+                    baseRate * (1 - power) * passesPeerReview * negativeIsPublished, // false negative
+                    (1 - baseRate) * labFalsePositiveRate * passesPeerReview, // false positive
+                    (1 - baseRate) * (1 - labFalsePositiveRate) * negativeIsPublished // true negative
+            };
+            int[] outcomeCounts = new int[outcomeProbabilities.length];
+            int remainingAttempts = researchAttempts;
+            double remainingProbability = 1;
+            for (int i = 0; i < outcomeProbabilities.length && remainingAttempts > 0; i++) { // multinomial as a chain of conditional binomials.
+                outcomeCounts[i] = drawBinomial(state, remainingAttempts, outcomeProbabilities[i] / remainingProbability);
+                remainingAttempts -= outcomeCounts[i];
+                remainingProbability -= outcomeProbabilities[i];
+            }
+            int numberOfPublications = outcomeCounts[0] + outcomeCounts[1] + outcomeCounts[2] + outcomeCounts[3];
+            if (numberOfPublications == 0) {
+                return;
+            }
+            int publicationsThatCanBeReplications = topicHadPublications ? numberOfPublications : numberOfPublications - 1;
+            int numberOfReplications = drawBinomial(state, publicationsThatCanBeReplications, state.getProbabilityOfReplication());
+
+            globalsObject.addPublications(numberOfPublications);
+            globalsObject.addFalseDiscoveries(outcomeCounts[1] + outcomeCounts[2]);
+            if (state.getEventJournal() != null) { // replications are exchangeable here, so the last ones are flagged.
+                int publication = 0;
+                for (int i = 0; i < outcomeCounts.length; i++) {
+                    for (int n = 0; n < outcomeCounts[i]; n++, publication++) {
+                        recordPublication(state, publication >= numberOfPublications - numberOfReplications,
+                                i == 0 || i == 2, i == 0 || i == 3);
+                    }
+                }
+            }
+            addPublicationsToTopic(state, publicationSpace, numberOfPublications);
+            this.prestige += (numberOfPublications - numberOfReplications) + 0.5 * numberOfReplications;
+            return; // dispersing an increase of 0 leaves the landscape unchanged.
+        }
+
+        int remainingAttempts = researchAttempts;
+        while (remainingAttempts > 0) {
+            double baseRate = Math.min(epistemicLandscape.get(xLocationInLandscape, yLocationInLandscape), 1);
+            double truePositive = baseRate * power;
+            double falseNegative = baseRate * (1 - power) * passesPeerReview * negativeIsPublished;
+            double falsePositive = (1 - baseRate) * labFalsePositiveRate * passesPeerReview;
+            double trueNegative = (1 - baseRate) * (1 - labFalsePositiveRate) * negativeIsPublished;
+            double probabilityOfPublishing = truePositive + falseNegative + falsePositive + trueNegative;
+            if (probabilityOfPublishing <= 0) {
+                return;
+            }
+            if (probabilityOfPublishing < 1) { // geometric number of unpublished attempts before the next publication.
+                double unpublishedAttempts = Math.floor(Math.log(1 - state.random.nextDouble()) / Math.log(1 - probabilityOfPublishing));
+                if (unpublishedAttempts >= remainingAttempts) {
+                    return;
+                }
+                remainingAttempts -= (int) unpublishedAttempts;
+            }
+            remainingAttempts--;
+
+            double outcome = state.random.nextDouble() * probabilityOfPublishing;
+            boolean labIsRight = outcome < truePositive || outcome >= truePositive + falseNegative + falsePositive;
+            boolean researchIsReplication = topicHadPublications && state.random.nextDouble() < state.getProbabilityOfReplication();
+
+            globalsObject.addPublications();
+            boolean publishingPositiveEffect = outcome < truePositive || (!labIsRight && outcome >= truePositive + falseNegative);
+            recordPublication(state, researchIsReplication, publishingPositiveEffect, labIsRight);
+            if (!labIsRight) {
+                globalsObject.addFalseDiscoveries();
+            }
+            addPublicationsToTopic(state, publicationSpace, 1);
+            increaseBaseRateOfTopic(state, epistemicLandscape);
+            if (researchIsReplication) {
+                this.prestige += 0.5;
+            } else {
+                this.prestige += 1;
+            }
+            topicHadPublications = true;
+        }
+    }
+
+    /**
+     * Draws from a binomial distribution with the simulation's Binomial, handling the degenerate cases it rejects.
+     * The Binomial returns 0 successes (or failures) whenever the expected number of them is below 0.01, which would
+     * drop rare outcomes such as published false negatives, so small expected counts are drawn here by inversion
+     * of the distribution function instead, with a single number and O(expected count) work.
+     *
+     * @param state       The simulation state.
+     * @param trials      Number of trials.
+     * @param probability Probability of success of each trial. Values outside [0, 1] are clamped.
+     * @return The number of successes.
+     */
+    private int drawBinomial(ScienceFunding state, int trials, double probability) {
+        if (trials <= 0 || probability <= 0) {
+            return 0;
+        }
+        if (probability >= 1) {
+            return trials;
+        }
+        double rarerProbability = Math.min(probability, 1 - probability);
+        if (trials * rarerProbability >= 10) {
+            return state.getBinomialDistribution().nextInt(trials, probability);
+        }
+        double oddsOfRarer = rarerProbability / (1 - rarerProbability);
+        double probabilityOfCount = Math.pow(1 - rarerProbability, trials);
+        double cumulativeProbability = probabilityOfCount;
+        double uniform = state.random.nextDouble();
+        int rarerCount = 0;
+        while (uniform >= cumulativeProbability && rarerCount < trials) {
+            probabilityOfCount *= oddsOfRarer * (trials - rarerCount) / (rarerCount + 1);
+            rarerCount++;
+            cumulativeProbability += probabilityOfCount;
+        }
+        return rarerProbability == probability ? rarerCount : trials - rarerCount;
+    }
+
     /**
      * When applying to funding, lab calculates its score for the process based on the parameters set in ScienceFunding,
      * weightOfInnovationInFunding and weightOfPrestigeInFunding. See model description for the difference in both.
+     * If innovationNeighbourhoodRadius is greater than 0, the innovativeness of the topic is divided by 1 plus the mean
+     * number of publications of the topics within that radius, counted in O(log^2) by the publication density.
      * After calculating its score, the lab adds itself to the funding agency's list of applicant with a probability.
      *
      * @param state              The Simulation State casted as ScienceFunding
      * @param epistemicLandscape The epistemic landscape grid
      * @return A boolean value. True if the lab applied for funding, false if it didn't.
      */
-    private boolean applyToGrant(ScienceFunding state, DoubleGrid2D epistemicLandscape) {
+    private boolean applyToGrant(ScienceFunding state, EpistemicLandscape epistemicLandscape) {
         Agency fundingAgency = state.getAgency();
         ScienceMaster scienceMaster = state.getScienceMaster();
 
         double baseRateOfTopic = epistemicLandscape.get(xLocationInLandscape, yLocationInLandscape);
         innovativenessOfTopic = 1 - ((Math.log10(baseRateOfTopic / state.getInitialBaseRate())) / (Math.log10(0.5 / state.getInitialBaseRate())));
+        FenwickGrid2D publicationDensity = state.getPublicationDensity();
+        if (publicationDensity != null) { // innovationNeighbourhoodRadius > 0: crowded neighbourhoods are less innovative.
+            int radius = state.getInnovationNeighbourhoodRadius();
+            double publicationsPerNeighbouringTopic = (double) publicationDensity.sumAround(xLocationInLandscape, yLocationInLandscape, radius)
+                    / publicationDensity.cellsAround(xLocationInLandscape, yLocationInLandscape, radius);
+            innovativenessOfTopic /= 1 + publicationsPerNeighbouringTopic;
+        }
         relativePrestige = prestige / scienceMaster.getHighestPrestigeLastTurn();
 
         scoreForApplying = state.getWeightOfInnovationInFunding() * innovativenessOfTopic + state.getWeightOfPrestigeInFunding() * relativePrestige;
@@ -355,6 +575,17 @@ class Lab implements Steppable {
         return new Double2D(xLocationInLandscape, yLocationInLandscape);
     }
 
+    /**
+     * @return The sum of the years left in every grant of the lab.
+     */
+    int getTotalFunds() {
+        int totalFunds = 0;
+        for (int n = 0; n < grants.size(); n++) {
+            totalFunds += grants.get(n);
+        }
+        return totalFunds;
+    }
+
     public int[] getGrants() {
         return grants.toArray();
     }
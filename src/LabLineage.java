@@ -0,0 +1,243 @@
+import sim.util.IntBag;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Genealogy of every lab of a run: its parent, the founder of its lineage, its birth and death steps, and the effort
+ * it inherited from its parent. Lab ids are assigned in order of birth, so every record is a slot of a set of
+ * primitive arrays indexed by labId, grown by doubling. A parent always has a lower id than its children.
+ * The children of a lab are kept as a linked list inside two more arrays (firstChild, nextSibling), so recording a
+ * birth is O(1), and a lab costs 40 bytes however many births a run has.
+ * Queries:
+ * getAncestors walks up the parents: O(generations).
+ * getDescendants walks down the child lists: O(descendants).
+ * getSurvivingLineages checks the founder of every lab alive at a step: O(labs ever born).
+ * Founders, the labs created when the run starts, have parent NO_LAB and are their own founder.
+ * A lab is alive from its birth step until the step it is chosen to die, exclusive.
+ */
+class LabLineage {
+
+    //region Fields
+    static final int NO_LAB = -1;
+    static final long ALIVE = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] parentIds = new int[INITIAL_CAPACITY];
+    private int[] founderIds = new int[INITIAL_CAPACITY];
+    private long[] birthSteps = new long[INITIAL_CAPACITY];
+    private long[] deathSteps = new long[INITIAL_CAPACITY];
+    private double[] inheritedEfforts = new double[INITIAL_CAPACITY];
+    private int[] firstChild = new int[INITIAL_CAPACITY];
+    private int[] nextSibling = new int[INITIAL_CAPACITY];
+    private int size;
+    //endregion
+
+    /**
+     * Records a lab created when the run starts.
+     *
+     * @param labId     Id of the lab.
+     * @param birthStep Step of creation.
+     * @param effort    Effort the lab starts with.
+     */
+    void addFounder(int labId, long birthStep, double effort) {
+        add(labId, NO_LAB, labId, birthStep, effort);
+    }
+
+    /**
+     * Records a lab founded by a postdoc of another lab.
+     *
+     * @param labId     Id of the new lab.
+     * @param parentId  Id of the lab the postdoc came from.
+     * @param birthStep Step of creation.
+     * @param effort    Effort inherited from the parent.
+     */
+    void addBirth(int labId, int parentId, long birthStep, double effort) {
+        add(labId, parentId, founderIds[parentId], birthStep, effort);
+        nextSibling[labId] = firstChild[parentId];
+        firstChild[parentId] = labId;
+    }
+
+    private void add(int labId, int parentId, int founderId, long birthStep, double effort) {
+        if (labId != size) {
+            throw new IllegalArgumentException("Labs must be added in order of id: expected " + size + ", got " + labId);
+        }
+        if (size == parentIds.length) {
+            grow();
+        }
+        parentIds[labId] = parentId;
+        founderIds[labId] = founderId;
+        birthSteps[labId] = birthStep;
+        deathSteps[labId] = ALIVE;
+        inheritedEfforts[labId] = effort;
+        firstChild[labId] = NO_LAB;
+        nextSibling[labId] = NO_LAB;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = parentIds.length * 2;
+        parentIds = Arrays.copyOf(parentIds, capacity);
+        founderIds = Arrays.copyOf(founderIds, capacity);
+        birthSteps = Arrays.copyOf(birthSteps, capacity);
+        deathSteps = Arrays.copyOf(deathSteps, capacity);
+        inheritedEfforts = Arrays.copyOf(inheritedEfforts, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+    }
+
+    /**
+     * Records the first time a lab is chosen to die. A lab chosen when no lab can reproduce stays in the bag of all
+     * labs without being stepped, and may be chosen again.
+     *
+     * @param labId     Id of the lab that dies.
+     * @param deathStep Step in which it is chosen to die.
+     */
+    void recordDeath(int labId, long deathStep) {
+        if (deathSteps[labId] == ALIVE) {
+            deathSteps[labId] = deathStep;
+        }
+    }
+
+    /**
+     * @return The ids of the parent, grandparent and so on up to the founder, in that order. Empty for a founder.
+     */
+    int[] getAncestors(int labId) {
+        IntBag ancestors = new IntBag();
+        for (int ancestor = parentIds[labId]; ancestor != NO_LAB; ancestor = parentIds[ancestor]) {
+            ancestors.add(ancestor);
+        }
+        return ancestors.toArray();
+    }
+
+    /**
+     * @return The ids of every lab descending from the lab, excluding itself, in increasing order.
+     */
+    int[] getDescendants(int labId) {
+        IntBag descendants = new IntBag();
+        IntBag toVisit = new IntBag();
+        toVisit.add(labId);
+        while (toVisit.size() > 0) {
+            int lab = toVisit.pop();
+            for (int child = firstChild[lab]; child != NO_LAB; child = nextSibling[child]) {
+                descendants.add(child);
+                toVisit.add(child);
+            }
+        }
+        int[] sorted = descendants.toArray();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return The ids of the founders with at least one lab of their lineage alive at the step, in increasing order.
+     */
+    int[] getSurvivingLineages(long step) {
+        boolean[] surviving = new boolean[size];
+        int numberOfSurviving = 0;
+        for (int lab = 0; lab < size; lab++) {
+            if (isAlive(lab, step) && !surviving[founderIds[lab]]) {
+                surviving[founderIds[lab]] = true;
+                numberOfSurviving++;
+            }
+        }
+        int[] founders = new int[numberOfSurviving];
+        for (int lab = 0, i = 0; i < numberOfSurviving; lab++) {
+            if (surviving[lab]) {
+                founders[i++] = lab;
+            }
+        }
+        return founders;
+    }
+
+    /**
+     * @return True if the lab was born at or before the step and had not died by then.
+     */
+    boolean isAlive(int labId, long step) {
+        return birthSteps[labId] <= step && (deathSteps[labId] == ALIVE || deathSteps[labId] > step);
+    }
+
+    int getParentId(int labId) {
+        return parentIds[labId];
+    }
+
+    int getFounderId(int labId) {
+        return founderIds[labId];
+    }
+
+    long getBirthStep(int labId) {
+        return birthSteps[labId];
+    }
+
+    /**
+     * @return The step in which the lab was chosen to die, or ALIVE.
+     */
+    long getDeathStep(int labId) {
+        return deathSteps[labId];
+    }
+
+    double getInheritedEffort(int labId) {
+        return inheritedEfforts[labId];
+    }
+
+    /**
+     * @return The number of labs recorded, which is one more than the highest id.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Writes a row per lab: labId, parentId, founderId, birthStep, deathStep (-1 if alive) and inheritedEffort.
+     *
+     * @param fileName Name of the file, which is replaced.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(String fileName) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+            writer.write("labId,parentId,founderId,birthStep,deathStep,inheritedEffort");
+            writer.newLine();
+            for (int lab = 0; lab < size; lab++) {
+                writer.write(lab + "," + parentIds[lab] + "," + founderIds[lab] + "," + birthSteps[lab] + ","
+                        + deathSteps[lab] + "," + inheritedEfforts[lab]);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Reads the founder of every lab from a file written by write().
+     *
+     * @param file The lineage file of a run.
+     * @return The founderId of every lab, indexed by labId.
+     * @throws IOException If the file cannot be read or is not a lineage file.
+     */
+    static int[] readFounderIds(File file) throws IOException {
+        int[] founders = new int[INITIAL_CAPACITY];
+        int numberOfLabs = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith("labId,parentId,founderId,")) {
+                throw new IOException(file + " is not a lineage file");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                int labId = Integer.parseInt(fields[0]);
+                if (labId != numberOfLabs) {
+                    throw new IOException(file + " has lab " + labId + " where lab " + numberOfLabs + " was expected");
+                }
+                if (numberOfLabs == founders.length) {
+                    founders = Arrays.copyOf(founders, 2 * founders.length);
+                }
+                founders[numberOfLabs++] = Integer.parseInt(fields[2]);
+            }
+        }
+        return Arrays.copyOf(founders, numberOfLabs);
+    }
+}
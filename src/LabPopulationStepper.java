@@ -0,0 +1,123 @@
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+ * Steps the whole population of labs. It is scheduled once, at ordering 1, instead of scheduling every lab
+ * separately, so there is one schedule entry for the population instead of one entry and one Stoppable per lab.
+ * Labs live in a plain array. Death swaps the last lab into the dead lab's slot, and birth appends to the array.
+ * As MASON does with agents that share a time and ordering, labs are stepped in a new random order every step.
+ * Labs born during a step (by the ScienceMaster) are only stepped from the next step on, as if they had
+ * been scheduled with schedule.scheduleRepeating(lab, 1, 1).
+ */
+class LabPopulationStepper implements Steppable {
+
+    //region Fields
+    private Lab[] population;
+    private int populationSize;
+    private Lab[] labsBornThisStep;
+    private int numberOfLabsBornThisStep;
+    //endregion
+
+    /**
+     * @param expectedPopulationSize Initial capacity of the population array. It grows if needed.
+     */
+    LabPopulationStepper(int expectedPopulationSize) {
+        this.population = new Lab[Math.max(expectedPopulationSize, 1)];
+        this.populationSize = 0;
+        this.labsBornThisStep = new Lab[1];
+        this.numberOfLabsBornThisStep = 0;
+    }
+
+    /**
+     * Shuffles the population with the simulation's random number generator and steps every lab in that order.
+     * After that, labs born during this step join the population.
+     *
+     * @param state The simulation state.
+     */
+    @Override
+    public void step(SimState state) {
+        SimulationMetrics metrics = ((ScienceFunding) state).getSimulationMetrics();
+        metrics.startPhase(SimulationMetrics.LABS);
+        for (int i = populationSize - 1; i > 0; i--) { // Fisher-Yates shuffle, as in Bag.shuffle().
+            int j = state.random.nextInt(i + 1);
+            Lab swappedLab = population[i];
+            population[i] = population[j];
+            population[j] = swappedLab;
+        }
+        for (int i = 0; i < populationSize; i++) {
+            Lab thisLab = population[i];
+            thisLab.populationIndex = i;
+            thisLab.step(state);
+        }
+        for (int i = 0; i < numberOfLabsBornThisStep; i++) {
+            addLab(labsBornThisStep[i]);
+            labsBornThisStep[i] = null;
+        }
+        numberOfLabsBornThisStep = 0;
+        metrics.endPhase(SimulationMetrics.LABS);
+    }
+
+    /**
+     * Adds a lab that will be stepped from the current step on. Used when populating the simulation at start.
+     *
+     * @param lab The lab to add.
+     */
+    void addLab(Lab lab) {
+        if (populationSize == population.length) {
+            Lab[] grownPopulation = new Lab[population.length * 2];
+            System.arraycopy(population, 0, grownPopulation, 0, populationSize);
+            population = grownPopulation;
+        }
+        lab.populationIndex = populationSize;
+        population[populationSize] = lab;
+        populationSize++;
+    }
+
+    /**
+     * Adds a lab that was born during this step. It will be stepped from the next step on.
+     *
+     * @param lab The new lab.
+     */
+    void addNewLab(Lab lab) {
+        if (numberOfLabsBornThisStep == labsBornThisStep.length) {
+            Lab[] grownBuffer = new Lab[labsBornThisStep.length * 2];
+            System.arraycopy(labsBornThisStep, 0, grownBuffer, 0, numberOfLabsBornThisStep);
+            labsBornThisStep = grownBuffer;
+        }
+        lab.populationIndex = -1;
+        labsBornThisStep[numberOfLabsBornThisStep] = lab;
+        numberOfLabsBornThisStep++;
+    }
+
+    /**
+     * Removes a lab from the population so it is no longer stepped. The last lab of the array takes its place.
+     *
+     * @param lab The dying lab.
+     */
+    void removeLab(Lab lab) {
+        int index = lab.populationIndex;
+        if (index < 0) { // the lab was born this step and hasn't joined the population yet.
+            for (int i = 0; i < numberOfLabsBornThisStep; i++) {
+                if (labsBornThisStep[i] == lab) {
+                    numberOfLabsBornThisStep--;
+                    labsBornThisStep[i] = labsBornThisStep[numberOfLabsBornThisStep];
+                    labsBornThisStep[numberOfLabsBornThisStep] = null;
+                    return;
+                }
+            }
+            return;
+        }
+        populationSize--;
+        Lab lastLab = population[populationSize];
+        population[index] = lastLab;
+        lastLab.populationIndex = index;
+        population[populationSize] = null;
+        lab.populationIndex = -1;
+    }
+
+    //region Getters
+    public int getPopulationSize() {
+        return populationSize;
+    }
+    //endregion
+}
@@ -0,0 +1,31 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one call to LandscapeUtils.increaseAndDisperse.
+ * Dispersals happen once per publication, so this event is disabled by default and only recorded
+ * if enabled explicitly in the recording settings.
+ */
+@Name("ScienceFunding.LandscapeDispersal")
+@Label("Landscape Dispersal")
+@Category("Science Funding")
+@Description("An increase in base rate dispersed over neighboring topics")
+@Enabled(false)
+class LandscapeDispersalEvent extends Event {
+
+    @Label("Topic X")
+    int x;
+
+    @Label("Topic Y")
+    int y;
+
+    @Label("Change In Base Rate")
+    double changeInBaseRate;
+
+    @Label("Cells Touched")
+    int cellsTouched;
+}
@@ -0,0 +1,274 @@
+import sim.field.grid.DoubleGrid2D;
+import sim.field.grid.IntGrid2D;
+
+import java.util.Arrays;
+
+/**
+ * A pyramid of downsampled copies of a landscape grid, used to draw big landscapes without visiting every cell.
+ * Level 0 holds every cell. Each cell of level k summarizes a 2x2 block of level k - 1, keeping both the maximum and
+ * the mean of the cells it covers, so level k has ceil(width / 2^k) x ceil(height / 2^k) cells.
+ * Values are stored as floats in arrays indexed by x * levelHeight + y, as in DoubleGrid2D.toArray().
+ * <p>
+ * The base is divided in tiles of TILE_SIZE x TILE_SIZE cells. When the mipmap is updated from a grid, only the tiles
+ * that LandscapeTileVersions stamped after the last update are copied and rebuilt up to the level where a tile becomes
+ * a single cell, so an update costs O(changed tiles * TILE_SIZE^2) however big the grid.
+ * The levels above that are small, and are rebuilt completely whenever any tile changed.
+ */
+class LandscapeMipmap {
+
+    //region Fields
+    static final int TILE_SIZE = 64;
+    private static final int TILE_LEVELS = 6; // log2(TILE_SIZE)
+
+    private final int width;
+    private final int height;
+    private final int numberOfLevels;
+    private final int[] levelWidth;
+    private final int[] levelHeight;
+    private final float[][] maxima;
+    private final float[][] means;
+    private final int tilesX;
+    private final int tilesY;
+    private final boolean[] dirtyTiles;
+    private long updatedVersion; // the LandscapeTileVersions version of the last update.
+    //endregion
+
+    /**
+     * @param width        Width of the grid that will be mipmapped.
+     * @param height       Height of the grid that will be mipmapped.
+     * @param initialValue Value of every cell until the first update.
+     */
+    LandscapeMipmap(int width, int height, double initialValue) {
+        this.width = width;
+        this.height = height;
+        int levels = 1;
+        while ((1 << (levels - 1)) < Math.max(width, height)) {
+            levels++;
+        }
+        this.numberOfLevels = levels;
+        this.levelWidth = new int[levels];
+        this.levelHeight = new int[levels];
+        this.maxima = new float[levels][];
+        this.means = new float[levels][];
+        for (int level = 0; level < levels; level++) {
+            levelWidth[level] = ceilShift(width, level);
+            levelHeight[level] = ceilShift(height, level);
+            maxima[level] = new float[levelWidth[level] * levelHeight[level]];
+            Arrays.fill(maxima[level], (float) initialValue);
+            means[level] = level == 0 ? maxima[0] : maxima[level].clone(); // at level 0, max and mean are the cell itself.
+        }
+        this.tilesX = ceilShift(width, TILE_LEVELS);
+        this.tilesY = ceilShift(height, TILE_LEVELS);
+        this.dirtyTiles = new boolean[tilesX * tilesY];
+    }
+
+    /**
+     * Copies every cell of a grid of doubles and rebuilds every level, in O(cells). For the first copy of a grid.
+     *
+     * @param grid A grid with the same dimensions as the mipmap.
+     */
+    void setTo(DoubleGrid2D grid) {
+        Arrays.fill(dirtyTiles, true);
+        copyDirtyTiles(grid);
+    }
+
+    /**
+     * Copies every cell of a grid of integers and rebuilds every level, in O(cells). For the first copy of a grid.
+     *
+     * @param grid A grid with the same dimensions as the mipmap.
+     */
+    void setTo(IntGrid2D grid) {
+        Arrays.fill(dirtyTiles, true);
+        copyDirtyTiles(grid);
+    }
+
+    /**
+     * Copies the tiles of a grid of doubles that changed since the last update and rebuilds the levels over them.
+     *
+     * @param grid         A grid with the same dimensions as the mipmap.
+     * @param tileVersions The LandscapeTileVersions stamps of the tiles of the grid.
+     * @param version      The version the grid is up to. Tiles stamped after the version of the last update are copied.
+     * @return True if any tile was copied.
+     */
+    boolean update(DoubleGrid2D grid, long[] tileVersions, long version) {
+        for (int tile = 0; tile < dirtyTiles.length; tile++) {
+            dirtyTiles[tile] = tileVersions[tile] > updatedVersion;
+        }
+        updatedVersion = Math.max(updatedVersion, version);
+        return copyDirtyTiles(grid);
+    }
+
+    /**
+     * Copies the dirty tiles of a grid of doubles and rebuilds the levels over them.
+     *
+     * @return True if any tile was dirty.
+     */
+    private boolean copyDirtyTiles(DoubleGrid2D grid) {
+        boolean anyTileChanged = false;
+        float[] base = maxima[0];
+        for (int tile = 0; tile < dirtyTiles.length; tile++) {
+            if (!dirtyTiles[tile]) {
+                continue;
+            }
+            int yStart = (tile % tilesY) * TILE_SIZE;
+            int yEnd = Math.min(yStart + TILE_SIZE, height);
+            for (int x = (tile / tilesY) * TILE_SIZE; x < Math.min((tile / tilesY + 1) * TILE_SIZE, width); x++) {
+                double[] column = grid.field[x];
+                int offset = x * height;
+                for (int y = yStart; y < yEnd; y++) {
+                    base[offset + y] = (float) column[y];
+                }
+            }
+            anyTileChanged = true;
+        }
+        if (anyTileChanged) {
+            rebuildDirtyTiles();
+        }
+        return anyTileChanged;
+    }
+
+    /**
+     * Copies the tiles of a grid of integers that changed since the last update and rebuilds the levels over them.
+     *
+     * @param grid         A grid with the same dimensions as the mipmap.
+     * @param tileVersions The LandscapeTileVersions stamps of the tiles of the grid.
+     * @param version      The version the grid is up to. Tiles stamped after the version of the last update are copied.
+     * @return True if any tile was copied.
+     */
+    boolean update(IntGrid2D grid, long[] tileVersions, long version) {
+        for (int tile = 0; tile < dirtyTiles.length; tile++) {
+            dirtyTiles[tile] = tileVersions[tile] > updatedVersion;
+        }
+        updatedVersion = Math.max(updatedVersion, version);
+        return copyDirtyTiles(grid);
+    }
+
+    /**
+     * Copies the dirty tiles of a grid of integers and rebuilds the levels over them.
+     *
+     * @return True if any tile was dirty.
+     */
+    private boolean copyDirtyTiles(IntGrid2D grid) {
+        boolean anyTileChanged = false;
+        float[] base = maxima[0];
+        for (int tile = 0; tile < dirtyTiles.length; tile++) {
+            if (!dirtyTiles[tile]) {
+                continue;
+            }
+            int yStart = (tile % tilesY) * TILE_SIZE;
+            int yEnd = Math.min(yStart + TILE_SIZE, height);
+            for (int x = (tile / tilesY) * TILE_SIZE; x < Math.min((tile / tilesY + 1) * TILE_SIZE, width); x++) {
+                int[] column = grid.field[x];
+                int offset = x * height;
+                for (int y = yStart; y < yEnd; y++) {
+                    base[offset + y] = column[y];
+                }
+            }
+            anyTileChanged = true;
+        }
+        if (anyTileChanged) {
+            rebuildDirtyTiles();
+        }
+        return anyTileChanged;
+    }
+
+    /**
+     * Rebuilds the levels inside the dirty tiles, then every level above the tile size.
+     */
+    private void rebuildDirtyTiles() {
+        int lastTileLevel = Math.min(TILE_LEVELS, numberOfLevels - 1);
+        for (int tileX = 0; tileX < tilesX; tileX++) {
+            for (int tileY = 0; tileY < tilesY; tileY++) {
+                if (!dirtyTiles[tileX * tilesY + tileY]) {
+                    continue;
+                }
+                for (int level = 1; level <= lastTileLevel; level++) {
+                    int cellsPerTile = TILE_SIZE >> level;
+                    rebuildRegion(level, tileX * cellsPerTile, tileY * cellsPerTile,
+                            Math.min((tileX + 1) * cellsPerTile, levelWidth[level]),
+                            Math.min((tileY + 1) * cellsPerTile, levelHeight[level]));
+                }
+            }
+        }
+        for (int level = lastTileLevel + 1; level < numberOfLevels; level++) {
+            rebuildRegion(level, 0, 0, levelWidth[level], levelHeight[level]);
+        }
+        Arrays.fill(dirtyTiles, false);
+    }
+
+    /**
+     * Recomputes the maximum and the mean of a rectangle of cells of a level from the 2x2 blocks of the level below.
+     * The mean is weighted by the number of base cells each child covers, so blocks cut by the border average correctly.
+     */
+    private void rebuildRegion(int level, int xStart, int yStart, int xEnd, int yEnd) {
+        int childLevel = level - 1;
+        int childHeight = levelHeight[childLevel];
+        int childWidth = levelWidth[childLevel];
+        float[] childMaxima = maxima[childLevel];
+        float[] childMeans = means[childLevel];
+        float[] levelMaxima = maxima[level];
+        float[] levelMeans = means[level];
+        int thisHeight = levelHeight[level];
+        for (int x = xStart; x < xEnd; x++) {
+            for (int y = yStart; y < yEnd; y++) {
+                float maximum = Float.NEGATIVE_INFINITY;
+                double weightedSum = 0;
+                double totalWeight = 0;
+                for (int childX = 2 * x; childX < Math.min(2 * x + 2, childWidth); childX++) {
+                    for (int childY = 2 * y; childY < Math.min(2 * y + 2, childHeight); childY++) {
+                        int childIndex = childX * childHeight + childY;
+                        double weight = (double) coveredCells(childX, childLevel, width) * coveredCells(childY, childLevel, height);
+                        maximum = Math.max(maximum, childMaxima[childIndex]);
+                        weightedSum += childMeans[childIndex] * weight;
+                        totalWeight += weight;
+                    }
+                }
+                levelMaxima[x * thisHeight + y] = maximum;
+                levelMeans[x * thisHeight + y] = (float) (weightedSum / totalWeight);
+            }
+        }
+    }
+
+    /**
+     * @return Number of base cells along one dimension covered by a cell of a level.
+     */
+    private static int coveredCells(int index, int level, int size) {
+        return Math.min((index + 1) << level, size) - (index << level);
+    }
+
+    private static int ceilShift(int value, int shift) {
+        return (value + (1 << shift) - 1) >> shift;
+    }
+
+    /**
+     * @param level   The level, 0 being the full resolution.
+     * @param x       X index of the cell in that level.
+     * @param y       Y index of the cell in that level.
+     * @param maximum If true, returns the maximum of the covered cells; if false, their mean.
+     * @return The value of the cell.
+     */
+    double get(int level, int x, int y, boolean maximum) {
+        float[] values = maximum ? maxima[level] : means[level];
+        return values[x * levelHeight[level] + y];
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getNumberOfLevels() {
+        return numberOfLevels;
+    }
+
+    int getLevelWidth(int level) {
+        return levelWidth[level];
+    }
+
+    int getLevelHeight(int level) {
+        return levelHeight[level];
+    }
+}
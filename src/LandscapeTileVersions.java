@@ -0,0 +1,65 @@
+/**
+ * Remembers when each tile of the epistemic landscape and of the publications per topic last changed, so that copies
+ * of the grids (the UI snapshots and the mipmaps drawn from them) are refreshed by copying the tiles that changed since
+ * the copy was made, instead of comparing every cell every step.
+ * Tiles are TILE_SIZE x TILE_SIZE topics, the tiles of LandscapeMipmap, indexed by tileX * tilesY + tileY.
+ * Whoever changes a topic tells the versions with topicChanged(), as for the NeighbourhoodIndex, which stamps its tile
+ * with the current version in O(1). Whoever copies the grids calls advance() first: the copy then holds every change
+ * stamped up to the version returned, and the next copy only needs the tiles stamped after it.
+ * Used on the simulation thread only; copies handed to other threads carry their own copy of the stamps.
+ */
+class LandscapeTileVersions {
+
+    //region Fields
+    static final int TILE_SIZE = LandscapeMipmap.TILE_SIZE;
+
+    private final int tilesX;
+    private final int tilesY;
+    private final long[][] tileVersions; // per grid, BASE_RATE or PUBLICATIONS of NeighbourhoodIndex.
+    private long version = 1; // tiles start at 0, older than any copy.
+    //endregion
+
+    /**
+     * @param width  Width of the landscape.
+     * @param height Height of the landscape.
+     */
+    LandscapeTileVersions(int width, int height) {
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileVersions = new long[2][tilesX * tilesY];
+    }
+
+    /**
+     * Stamps the tile of a topic with the current version, after its value changed in one of the grids.
+     *
+     * @param grid NeighbourhoodIndex.BASE_RATE or NeighbourhoodIndex.PUBLICATIONS.
+     */
+    void topicChanged(int grid, int x, int y) {
+        tileVersions[grid][(x / TILE_SIZE) * tilesY + y / TILE_SIZE] = version;
+    }
+
+    /**
+     * Closes the current version, before copying the grids.
+     *
+     * @return The version closed. Tiles stamped with it or before hold no change newer than the copy.
+     */
+    long advance() {
+        return version++;
+    }
+
+    /**
+     * @param grid NeighbourhoodIndex.BASE_RATE or NeighbourhoodIndex.PUBLICATIONS.
+     * @return The version of every tile of a grid. The array is live; copy it to hand it to another thread.
+     */
+    long[] getTileVersions(int grid) {
+        return tileVersions[grid];
+    }
+
+    int getTilesX() {
+        return tilesX;
+    }
+
+    int getTilesY() {
+        return tilesY;
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from non-negative long keys to double values.
+ * Keys and values live in two primitive arrays, so there is no boxing and no entry objects.
+ * Collisions are resolved with linear probing, and removal uses backward-shift deletion so no tombstones are left.
+ * Capacity is always a power of two and the table grows when it is more than half full.
+ */
+class LongDoubleHashMap {
+
+    //region Fields
+    private static final long EMPTY_KEY = -1L;
+    private static final int MINIMUM_CAPACITY = 16;
+
+    long[] keys;
+    double[] values;
+    private int size;
+    private int mask;
+    //endregion
+
+    LongDoubleHashMap() {
+        this(MINIMUM_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Number of entries the map should hold without growing.
+     */
+    LongDoubleHashMap(int expectedSize) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @param key          A non-negative key.
+     * @param defaultValue The value returned if the key is not in the map.
+     * @return The value stored for the key, or defaultValue.
+     */
+    double get(long key, double defaultValue) {
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY_KEY) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Stores a value for a key, replacing the previous value if there was one.
+     *
+     * @param key   A non-negative key.
+     * @param value The value to store.
+     */
+    void put(long key, double value) {
+        int slot = slotOf(key);
+        while (keys[slot] != EMPTY_KEY) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Removes a key from the map. The entries that follow it in the probe sequence are shifted back
+     * so that lookups never need to skip deleted slots.
+     *
+     * @param key A non-negative key.
+     */
+    void remove(long key) {
+        int slot = slotOf(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY_KEY) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        size--;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY_KEY) {
+            int home = slotOf(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) { // the entry at next can be moved back into the gap.
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY_KEY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The length of the internal arrays. Slots whose key is negative are empty.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return A map with the same entries, sharing nothing with this one.
+     */
+    LongDoubleHashMap copy() {
+        LongDoubleHashMap copy = new LongDoubleHashMap();
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.size = size;
+        copy.mask = mask;
+        return copy;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY_KEY);
+        size = 0;
+    }
+
+    private int slotOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads consecutive keys over the table.
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY_KEY);
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(newCapacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
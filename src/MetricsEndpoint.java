@@ -0,0 +1,256 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded HTTP endpoint that serves the metrics of every run in this JVM in the Prometheus text format, at /metrics.
+ * It uses the JDK's com.sun.net.httpserver and only listens on the loopback interface.
+ * There is one endpoint per JVM, shared by the runs of a -parallel or -repeat loop. Each run attaches its
+ * SimulationMetrics, which publishes an immutable sample at the end of every step. Requests are answered on the
+ * server's own thread from those samples, so scraping never touches the simulation state or the filesystem.
+ * Series are labelled with the MASON job and the seed of the run.
+ * Drivers that launch many runs (AdaptiveSweep, SensitivityAnalysis, SweepCoordinator) attach a SweepProgress, served
+ * as runs total, done and failed, labelled with the name of the sweep. Started with -metrics PORT, a driver starts the
+ * endpoint itself, and the runs it launches in the JVM attach to it too.
+ */
+class MetricsEndpoint {
+
+    //region Fields
+    private static MetricsEndpoint sharedEndpoint;
+
+    private final HttpServer server;
+    private final List<SimulationMetrics> attachedRuns = new CopyOnWriteArrayList<>();
+    private final List<SweepProgress> attachedSweeps = new CopyOnWriteArrayList<>();
+    //endregion
+
+    /**
+     * The progress of a sweep, updated by its driver from any thread. For sweeps whose number of runs depends on their
+     * results (AdaptiveSweep), runsTotal is the most runs the sweep can take.
+     */
+    static final class SweepProgress {
+        final String sweep;
+        private final AtomicLong runsTotal = new AtomicLong();
+        private final AtomicLong runsDone = new AtomicLong();
+        private final AtomicLong runsFailed = new AtomicLong();
+
+        SweepProgress(String sweep) {
+            this.sweep = sweep;
+        }
+
+        void setRunsTotal(long runs) {
+            runsTotal.set(runs);
+        }
+
+        /**
+         * Counts runs with a result, including runs done before the sweep was resumed.
+         */
+        void addRunsDone(long runs) {
+            runsDone.addAndGet(runs);
+        }
+
+        void runFailed() {
+            runsFailed.incrementAndGet();
+        }
+
+        long getRunsTotal() {
+            return runsTotal.get();
+        }
+
+        long getRunsDone() {
+            return runsDone.get();
+        }
+
+        long getRunsFailed() {
+            return runsFailed.get();
+        }
+    }
+
+    private MetricsEndpoint(HttpServer server) {
+        this.server = server;
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    /**
+     * Returns the endpoint of this JVM, starting it the first time. If the requested port is taken
+     * (e.g. by another simulation JVM on the same machine), the endpoint falls back to a free port and prints it.
+     *
+     * @param port The loopback port to listen on.
+     * @return The shared endpoint.
+     * @throws IOException If the server cannot be started.
+     */
+    static synchronized MetricsEndpoint getSharedEndpoint(int port) throws IOException {
+        if (sharedEndpoint == null) {
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            HttpServer server;
+            try {
+                server = HttpServer.create(new InetSocketAddress(loopback, port), 0);
+            } catch (BindException exception) {
+                server = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+            }
+            sharedEndpoint = new MetricsEndpoint(server);
+            System.err.println("Metrics endpoint at http://" + loopback.getHostAddress() + ":"
+                    + server.getAddress().getPort() + "/metrics");
+        }
+        return sharedEndpoint;
+    }
+
+    /**
+     * @return The endpoint of this JVM, or null if nothing started it.
+     */
+    static synchronized MetricsEndpoint getRunningEndpoint() {
+        return sharedEndpoint;
+    }
+
+    void attach(SimulationMetrics runMetrics) {
+        attachedRuns.add(runMetrics);
+    }
+
+    void attach(SweepProgress sweepProgress) {
+        attachedSweeps.add(sweepProgress);
+    }
+
+    void detach(SimulationMetrics runMetrics) {
+        attachedRuns.remove(runMetrics);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        boolean isGet = "GET".equals(exchange.getRequestMethod());
+        byte[] body = isGet ? render().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(isGet ? 200 : 405, isGet ? body.length : -1);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    /**
+     * Writes every metric once, with a sample line per attached run that has completed a step.
+     *
+     * @return The scrape in the Prometheus text exposition format.
+     */
+    String render() {
+        SimulationMetrics.Sample[] samples = attachedRuns.stream()
+                .map(SimulationMetrics::getPublishedSample)
+                .filter(sample -> sample != null)
+                .toArray(SimulationMetrics.Sample[]::new);
+        StringBuilder text = new StringBuilder();
+
+        header(text, "sciencefunding_false_discovery_rate", "gauge", "False discovery rate over the last aggregation window.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_false_discovery_rate", sample, null, sample.falseDiscoveryRate);
+        }
+        header(text, "sciencefunding_funds_gini", "gauge", "Gini coefficient of total funds per lab over the last aggregation window.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_funds_gini", sample, null, sample.fundsGini);
+        }
+        header(text, "sciencefunding_postdoc_number_gini", "gauge", "Gini coefficient of the number of postdocs per lab over the last aggregation window.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_postdoc_number_gini", sample, null, sample.postdocNumberGini);
+        }
+        header(text, "sciencefunding_proportion_of_topics_explored", "gauge", "Proportion of topics with at least one publication.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_proportion_of_topics_explored", sample, null, sample.proportionOfTopicsExplored);
+        }
+        header(text, "sciencefunding_mean_base_rate", "gauge", "Mean base rate of the epistemic landscape.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_mean_base_rate", sample, null, sample.meanBaseRate);
+        }
+
+        header(text, "sciencefunding_phase_seconds_total", "counter", "Time spent in each scheduled phase since the start of the run.");
+        for (SimulationMetrics.Sample sample : samples) {
+            for (int i = 0; i < sample.phaseNames.length; i++) {
+                line(text, "sciencefunding_phase_seconds_total", sample, sample.phaseNames[i], sample.phaseTotalNanos[i] / 1e9);
+            }
+        }
+        header(text, "sciencefunding_phase_last_step_seconds", "gauge", "Time spent in each scheduled phase during the last step.");
+        for (SimulationMetrics.Sample sample : samples) {
+            for (int i = 0; i < sample.phaseNames.length; i++) {
+                line(text, "sciencefunding_phase_last_step_seconds", sample, sample.phaseNames[i], sample.phaseLastStepNanos[i] / 1e9);
+            }
+        }
+
+        header(text, "sciencefunding_step", "gauge", "Current step of the run's schedule.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_step", sample, null, sample.step);
+        }
+        header(text, "sciencefunding_target_steps", "gauge", "Steps requested with -for. 0 if unknown.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_target_steps", sample, null, sample.targetSteps);
+        }
+        header(text, "sciencefunding_progress_ratio", "gauge", "Fraction of the requested steps completed. NaN if unknown.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_progress_ratio", sample, null,
+                    sample.targetSteps > 0 ? Math.min((double) sample.stepsCompleted / sample.targetSteps, 1) : Double.NaN);
+        }
+        header(text, "sciencefunding_steps_per_second", "gauge", "Average steps per second since the start of the run.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_steps_per_second", sample, null, sample.stepsPerSecond);
+        }
+        header(text, "sciencefunding_estimated_seconds_remaining", "gauge", "Estimated time until the requested steps are completed.");
+        for (SimulationMetrics.Sample sample : samples) {
+            line(text, "sciencefunding_estimated_seconds_remaining", sample, null, sample.estimatedSecondsRemaining);
+        }
+        header(text, "sciencefunding_runs_attached", "gauge", "Runs in this JVM currently reporting to the endpoint.");
+        text.append("sciencefunding_runs_attached ").append(attachedRuns.size()).append('\n');
+
+        header(text, "sciencefunding_sweep_runs_total", "gauge", "Runs of the sweep, or the most it can take if it depends on the results.");
+        for (SweepProgress sweepProgress : attachedSweeps) {
+            sweepLine(text, "sciencefunding_sweep_runs_total", sweepProgress, sweepProgress.getRunsTotal());
+        }
+        header(text, "sciencefunding_sweep_runs_done", "gauge", "Runs of the sweep with a result.");
+        for (SweepProgress sweepProgress : attachedSweeps) {
+            sweepLine(text, "sciencefunding_sweep_runs_done", sweepProgress, sweepProgress.getRunsDone());
+        }
+        header(text, "sciencefunding_sweep_runs_failed", "gauge", "Runs of the sweep given up after failing.");
+        for (SweepProgress sweepProgress : attachedSweeps) {
+            sweepLine(text, "sciencefunding_sweep_runs_failed", sweepProgress, sweepProgress.getRunsFailed());
+        }
+        header(text, "sciencefunding_sweep_progress_ratio", "gauge", "Fraction of the runs of the sweep done or failed. NaN if unknown.");
+        for (SweepProgress sweepProgress : attachedSweeps) {
+            long total = sweepProgress.getRunsTotal();
+            sweepLine(text, "sciencefunding_sweep_progress_ratio", sweepProgress, total > 0
+                    ? Math.min((double) (sweepProgress.getRunsDone() + sweepProgress.getRunsFailed()) / total, 1) : Double.NaN);
+        }
+        return text.toString();
+    }
+
+    private static void header(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /*
+    The labels are called mason_job and seed, because Prometheus reserves the job label for the scrape target.
+     */
+    private static void line(StringBuilder text, String name, SimulationMetrics.Sample sample, String phase, double value) {
+        text.append(name).append("{mason_job=\"").append(sample.job).append("\",seed=\"").append(sample.seed).append('"');
+        if (phase != null) {
+            text.append(",phase=\"").append(phase).append('"');
+        }
+        text.append("} ").append(format(value)).append('\n');
+    }
+
+    private static void sweepLine(StringBuilder text, String name, SweepProgress sweepProgress, double value) {
+        text.append(name).append("{sweep=\"").append(sweepProgress.sweep).append("\"} ").append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,93 @@
+import sim.portrayal.DrawInfo2D;
+import sim.portrayal.FieldPortrayal2D;
+import sim.portrayal.Portrayal;
+import sim.portrayal.simple.RectanglePortrayal2D;
+import sim.util.Bag;
+import sim.util.gui.ColorMap;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Portrays a LandscapeMipmap. Instead of drawing every cell like ValueGridPortrayal2D, it picks the coarsest level
+ * of the mipmap whose cells are still at least one pixel wide at the current zoom, and only draws the cells of that
+ * level that fall inside the visible clip. Those cells are written one pixel each into an image that is scaled onto
+ * the display, so drawing cost depends on the size of the display, not of the landscape.
+ * Cells are colored by either the maximum or the mean of the topics they cover.
+ */
+class MipmapGridPortrayal2D extends FieldPortrayal2D {
+
+    //region Fields
+    private ColorMap colorMap;
+    private boolean drawMaximum = true;
+    private BufferedImage image;
+    //endregion
+
+    void setMap(ColorMap colorMap) {
+        this.colorMap = colorMap;
+    }
+
+    /**
+     * @param drawMaximum If true, coarse cells show the maximum of the topics they cover; if false, the mean.
+     */
+    void setDrawMaximum(boolean drawMaximum) {
+        this.drawMaximum = drawMaximum;
+    }
+
+    @Override
+    public Portrayal getDefaultPortrayal() {
+        return new RectanglePortrayal2D();
+    }
+
+    /**
+     * Draws the visible cells of the chosen level. Hit testing (inspection of single topics) is not supported.
+     */
+    @Override
+    protected void hitOrDraw(Graphics2D graphics, DrawInfo2D info, Bag putInHere) {
+        LandscapeMipmap mipmap = (LandscapeMipmap) getField();
+        if (graphics == null || mipmap == null || colorMap == null) {
+            return;
+        }
+        double pixelsPerCell = Math.min(info.draw.width / mipmap.getWidth(), info.draw.height / mipmap.getHeight());
+        int level = 0;
+        while (level < mipmap.getNumberOfLevels() - 1 && (1 << level) * pixelsPerCell < 1) {
+            level++;
+        }
+        int levelWidth = mipmap.getLevelWidth(level);
+        int levelHeight = mipmap.getLevelHeight(level);
+        double cellWidth = info.draw.width / mipmap.getWidth() * (1 << level);
+        double cellHeight = info.draw.height / mipmap.getHeight() * (1 << level);
+
+        int xStart = Math.max(0, (int) Math.floor((info.clip.x - info.draw.x) / cellWidth));
+        int yStart = Math.max(0, (int) Math.floor((info.clip.y - info.draw.y) / cellHeight));
+        int xEnd = Math.min(levelWidth, (int) Math.ceil((info.clip.x + info.clip.width - info.draw.x) / cellWidth));
+        int yEnd = Math.min(levelHeight, (int) Math.ceil((info.clip.y + info.clip.height - info.draw.y) / cellHeight));
+        int visibleWidth = xEnd - xStart;
+        int visibleHeight = yEnd - yStart;
+        if (visibleWidth <= 0 || visibleHeight <= 0) {
+            return;
+        }
+
+        /*
+        The visible cells are written one pixel per cell into an image, which is then scaled onto the display
+        in a single drawImage call.
+         */
+        if (image == null || image.getWidth() < visibleWidth || image.getHeight() < visibleHeight) {
+            image = new BufferedImage(Math.max(visibleWidth, image == null ? 0 : image.getWidth()),
+                    Math.max(visibleHeight, image == null ? 0 : image.getHeight()), BufferedImage.TYPE_INT_ARGB);
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int imageWidth = image.getWidth();
+        for (int x = xStart; x < xEnd; x++) {
+            for (int y = yStart; y < yEnd; y++) {
+                pixels[(y - yStart) * imageWidth + (x - xStart)] = colorMap.getRGB(mipmap.get(level, x, y, drawMaximum));
+            }
+        }
+        int left = (int) Math.floor(info.draw.x + xStart * cellWidth);
+        int top = (int) Math.floor(info.draw.y + yStart * cellHeight);
+        int right = (int) Math.ceil(info.draw.x + xEnd * cellWidth);
+        int bottom = (int) Math.ceil(info.draw.y + yEnd * cellHeight);
+        graphics.drawImage(image, left, top, right, bottom, 0, 0, visibleWidth, visibleHeight, null);
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * How a lab moves to a neighbouring topic when it changes topic without jumping to a random one (see Lab.updateTopic).
+ * Lab.updateTopic keeps the new location within the landscape afterwards.
+ * The strategy of a run is selected by ScienceFunding.movementStrategy, one of the constants below:
+ * RANDOM_WALK moves one topic in a random diagonal direction (RandomWalkMovement).
+ * TOWARDS_HIGHER_BASE_RATE and TOWARDS_FEWER_PUBLICATIONS move one topic towards the topic with the highest base rate,
+ * or the fewest publications, within ScienceFunding.movementRadius (GradientMovement).
+ */
+interface MovementStrategy {
+
+    int RANDOM_WALK = 0;
+    int TOWARDS_HIGHER_BASE_RATE = 1;
+    int TOWARDS_FEWER_PUBLICATIONS = 2;
+
+    /**
+     * Changes the location of the lab in the landscape. May leave it outside the landscape.
+     *
+     * @param lab   The lab that moves.
+     * @param state The simulation state.
+     */
+    void move(Lab lab, ScienceFunding state);
+}
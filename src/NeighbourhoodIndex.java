@@ -0,0 +1,187 @@
+import sim.field.grid.IntGrid2D;
+
+import java.util.Arrays;
+
+/**
+ * Answers which topic has the highest or lowest value within a square neighbourhood, for the two grids labs move over:
+ * the base rates of the epistemic landscape (BASE_RATE) and the publications per topic (PUBLICATIONS).
+ * The grids are divided in tiles of TILE_SIZE x TILE_SIZE topics, and the index keeps the maximum and minimum of every
+ * tile with their locations. A query scans the topics of the tiles the neighbourhood only partly covers and takes the
+ * extremes of the tiles it covers whole, so it costs O(radius * TILE_SIZE + (radius / TILE_SIZE)^2) instead of
+ * O(radius^2). For the small radii labs move within, a query is a scan of a few dozen topics.
+ * The grids are not copied. Whoever changes a topic tells the index with topicChanged(), which marks its tile, and the
+ * extremes of a marked tile are found again by the next query that needs them. Topics change a few at a time,
+ * so this is much cheaper than keeping them up to date on every change.
+ * Ties are broken towards the topic with the lowest x, and then the lowest y, however the query is split in tiles,
+ * so the index always gives the same answer as a scan of the neighbourhood.
+ * Locations are returned packed as x * height + y, as in DoubleGrid2D.toArray(), to avoid allocating in every query.
+ */
+class NeighbourhoodIndex {
+
+    //region Fields
+    static final int BASE_RATE = 0;
+    static final int PUBLICATIONS = 1;
+    static final int TILE_SIZE = 8;
+
+    private final EpistemicLandscape epistemicLandscape;
+    private final IntGrid2D publicationRecordOfTopics;
+    private final int width;
+    private final int height;
+    private final int tilesY;
+
+    /*
+    Per grid and tile: the extremes, their packed locations, and whether the tile changed since they were found.
+     */
+    private final double[][] tileMaxima;
+    private final int[][] tileMaximumLocations;
+    private final double[][] tileMinima;
+    private final int[][] tileMinimumLocations;
+    private final boolean[][] changedTiles;
+    //endregion
+
+    /**
+     * @param epistemicLandscape        The landscape of the simulation.
+     * @param publicationRecordOfTopics The publications per topic, with the same width and height.
+     */
+    NeighbourhoodIndex(EpistemicLandscape epistemicLandscape, IntGrid2D publicationRecordOfTopics) {
+        this.epistemicLandscape = epistemicLandscape;
+        this.publicationRecordOfTopics = publicationRecordOfTopics;
+        this.width = epistemicLandscape.getWidth();
+        this.height = epistemicLandscape.getHeight();
+        int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileMaxima = new double[2][tilesX * tilesY];
+        this.tileMaximumLocations = new int[2][tilesX * tilesY];
+        this.tileMinima = new double[2][tilesX * tilesY];
+        this.tileMinimumLocations = new int[2][tilesX * tilesY];
+        this.changedTiles = new boolean[2][tilesX * tilesY];
+        Arrays.fill(changedTiles[BASE_RATE], true);
+        Arrays.fill(changedTiles[PUBLICATIONS], true);
+    }
+
+    /**
+     * Marks the tile of a topic, after its value changed in one of the grids.
+     *
+     * @param grid BASE_RATE or PUBLICATIONS.
+     */
+    void topicChanged(int grid, int x, int y) {
+        changedTiles[grid][(x / TILE_SIZE) * tilesY + y / TILE_SIZE] = true;
+    }
+
+    /**
+     * @param grid   BASE_RATE or PUBLICATIONS.
+     * @param radius Topics at most this far from (x, y) in both dimensions are considered, within the grid.
+     * @return The packed location of the topic with the highest value.
+     */
+    int locationOfMaximum(int grid, int x, int y, int radius) {
+        return search(grid, x, y, radius, true);
+    }
+
+    /**
+     * @param grid   BASE_RATE or PUBLICATIONS.
+     * @param radius Topics at most this far from (x, y) in both dimensions are considered, within the grid.
+     * @return The packed location of the topic with the lowest value.
+     */
+    int locationOfMinimum(int grid, int x, int y, int radius) {
+        return search(grid, x, y, radius, false);
+    }
+
+    /**
+     * @return The value of a topic in a grid.
+     */
+    double get(int grid, int x, int y) {
+        return grid == BASE_RATE ? epistemicLandscape.get(x, y) : publicationRecordOfTopics.field[x][y];
+    }
+
+    /**
+     * @return The x of a packed location.
+     */
+    int xOf(int location) {
+        return location / height;
+    }
+
+    /**
+     * @return The y of a packed location.
+     */
+    int yOf(int location) {
+        return location % height;
+    }
+
+    private int search(int grid, int x, int y, int radius, boolean maximum) {
+        int fromX = Math.max(x - radius, 0);
+        int toX = Math.min(x + radius, width - 1);
+        int fromY = Math.max(y - radius, 0);
+        int toY = Math.min(y + radius, height - 1);
+        double best = maximum ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        int bestLocation = Integer.MAX_VALUE;
+        for (int tileX = fromX / TILE_SIZE; tileX <= toX / TILE_SIZE; tileX++) {
+            int tileFromX = tileX * TILE_SIZE;
+            int tileToX = Math.min(tileFromX + TILE_SIZE, width) - 1;
+            for (int tileY = fromY / TILE_SIZE; tileY <= toY / TILE_SIZE; tileY++) {
+                int tileFromY = tileY * TILE_SIZE;
+                int tileToY = Math.min(tileFromY + TILE_SIZE, height) - 1;
+                double value;
+                int location;
+                if (tileFromX >= fromX && tileToX <= toX && tileFromY >= fromY && tileToY <= toY) {
+                    int tile = tileX * tilesY + tileY;
+                    if (changedTiles[grid][tile]) {
+                        updateTile(grid, tile, tileFromX, tileToX, tileFromY, tileToY);
+                    }
+                    value = maximum ? tileMaxima[grid][tile] : tileMinima[grid][tile];
+                    location = maximum ? tileMaximumLocations[grid][tile] : tileMinimumLocations[grid][tile];
+                    if (isBetter(value, location, best, bestLocation, maximum)) {
+                        best = value;
+                        bestLocation = location;
+                    }
+                } else {
+                    for (int topicX = Math.max(tileFromX, fromX); topicX <= Math.min(tileToX, toX); topicX++) {
+                        for (int topicY = Math.max(tileFromY, fromY); topicY <= Math.min(tileToY, toY); topicY++) {
+                            value = get(grid, topicX, topicY);
+                            location = topicX * height + topicY;
+                            if (isBetter(value, location, best, bestLocation, maximum)) {
+                                best = value;
+                                bestLocation = location;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return bestLocation;
+    }
+
+    private static boolean isBetter(double value, int location, double best, int bestLocation, boolean maximum) {
+        if (value == best) {
+            return location < bestLocation;
+        }
+        return maximum ? value > best : value < best;
+    }
+
+    /**
+     * Finds the extremes of a tile again.
+     */
+    private void updateTile(int grid, int tile, int fromX, int toX, int fromY, int toY) {
+        double maximum = Double.NEGATIVE_INFINITY;
+        double minimum = Double.POSITIVE_INFINITY;
+        int maximumLocation = 0;
+        int minimumLocation = 0;
+        for (int x = fromX; x <= toX; x++) {
+            for (int y = fromY; y <= toY; y++) {
+                double value = get(grid, x, y);
+                if (value > maximum) { // strict, so ties keep the lowest location.
+                    maximum = value;
+                    maximumLocation = x * height + y;
+                }
+                if (value < minimum) {
+                    minimum = value;
+                    minimumLocation = x * height + y;
+                }
+            }
+        }
+        tileMaxima[grid][tile] = maximum;
+        tileMaximumLocations[grid][tile] = maximumLocation;
+        tileMinima[grid][tile] = minimum;
+        tileMinimumLocations[grid][tile] = minimumLocation;
+        changedTiles[grid][tile] = false;
+    }
+}
@@ -1,6 +1,7 @@
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
 
 /**
  * This class accesses the measures stored in the fields of the Globals agent and
@@ -33,8 +34,8 @@ public class Outputter {
         } catch (IOException exception) {
             exception.printStackTrace();
         }
-        if (state.schedule.getSteps() == 0) {
-            prepareFile();
+        if (state.getGlobalsObject().getMeasuredStep() == 0) {
+            prepareFile(state);
         }
         writeGlobals(fileWriter, state);
         closeFile(fileWriter);
@@ -44,16 +45,29 @@ public class Outputter {
      * Creates a file with filename stored in the field fileName writes column headers
      * specified below separated by commas.
      * This happens only when the time in simulation space is 0.
+     * The headers end with one column per bin of the histograms of total funds and number of postdocs,
+     * followed by the convergence step (-1 until the ConvergenceDetector finds the steady state)
+     * and by one column per output quantile of the effort, prestige and age of the labs, named by percentile
+     * (e.g. effortQuantile50 for the median).
      * After writing the headers, writes a line break and flushes the buffer of the filewriter.
      *
+     * @param state The simulation state cast as ScienceFunding.
      * @throws IOException Exception needed by the package being used.
      */
-    private void prepareFile() throws IOException {
+    private void prepareFile(ScienceFunding state) throws IOException {
         BufferedWriter fileWriter = new BufferedWriter(new FileWriter(this.fileName));
         fileWriter.write("stepNumber," + "falseDiscoveryRate," + "rateOfDiscovery," +
                 "discoveredMean," + "discoveredStandardDev," + "publicationMean," +
                 "fundsMean," + "fundsGini," + "postdocNumberMean," + "postdocNumberStandardDev," +
                 "postdocNumberGini");
+        Globals globalsObject = state.getGlobalsObject();
+        writeHistogramHeader(fileWriter, "fundsBin", globalsObject.getTotalFundsHistogram());
+        writeHistogramHeader(fileWriter, "postdocNumberBin", globalsObject.getPostdocNumberHistogram());
+        fileWriter.write(",convergenceStep");
+        double[] outputQuantiles = globalsObject.getOutputQuantiles();
+        writeQuantileHeader(fileWriter, "effortQuantile", outputQuantiles);
+        writeQuantileHeader(fileWriter, "prestigeQuantile", outputQuantiles);
+        writeQuantileHeader(fileWriter, "ageQuantile", outputQuantiles);
         fileWriter.newLine();
         fileWriter.flush();
     }
@@ -62,7 +76,7 @@ public class Outputter {
      * Writes the global measures to a file created by prepareFile() with file name stored in field fileName.
      * The VALUES of the global measures are obtained from the Globals object scheduled in the simulation state.
      * The order of the values being written has to be matched to the order of the column headers in prepareFile().
-     * Before the measures, the current time step is written.
+     * Before the measures, their time step is written: the current one, unless Globals measures in the background.
      * After writing the measures in this order, separated by commas, it inserts a line break.
      *
      * @param fileWriter A bufferedWriter object.
@@ -72,14 +86,76 @@ public class Outputter {
     private void writeGlobals(BufferedWriter fileWriter, ScienceFunding state) throws IOException {
         Globals globalsObject = state.getGlobalsObject();
 
-        fileWriter.write(state.schedule.getSteps() + "," + globalsObject.getFalseDiscoveryRateLastWindow() + "," + globalsObject.getProportionOfTopicsExplored() + "," +
+        fileWriter.write(globalsObject.getMeasuredStep() + "," + globalsObject.getFalseDiscoveryRateLastWindow() + "," + globalsObject.getProportionOfTopicsExplored() + "," +
                 globalsObject.getMeanBaseRate() + "," + globalsObject.getBaseRateSDev() +
                 "," + globalsObject.getMeanPublicationsPerTopic() + "," + globalsObject.getPublicationsPerTopicSDev() + "," + globalsObject.getMeanTotalFundsLastWindow() + "," +
                 +globalsObject.getTotalFundsGiniLastWindow() + "," + globalsObject.getPostdocNumberMeanLastWindow() + "," + globalsObject.getPostdocNumberGiniLastWindow());
+        writeHistogramCounts(fileWriter, globalsObject.getMeasuredTotalFundsHistogram());
+        writeHistogramCounts(fileWriter, globalsObject.getMeasuredPostdocNumberHistogram());
+        fileWriter.write("," + state.getConvergenceStep());
+        double[] outputQuantiles = globalsObject.getOutputQuantiles();
+        writeQuantiles(fileWriter, globalsObject.getEffortSketch(), outputQuantiles);
+        writeQuantiles(fileWriter, globalsObject.getPrestigeSketch(), outputQuantiles);
+        writeQuantiles(fileWriter, globalsObject.getAgeSketch(), outputQuantiles);
         fileWriter.newLine();
         fileWriter.flush();
     }
 
+    /**
+     * Writes a column header per bin of a histogram, named prefix followed by the bin number.
+     *
+     * @param fileWriter A bufferedWriter object.
+     * @param prefix     The name of the columns before the bin number.
+     * @param histogram  The histogram whose bins get a column.
+     * @throws IOException Exception needed by the package being used.
+     */
+    private void writeHistogramHeader(BufferedWriter fileWriter, String prefix, IntegerHistogram histogram) throws IOException {
+        for (int bin = 0; bin < histogram.getNumberOfBins(); bin++) {
+            fileWriter.write("," + prefix + bin);
+        }
+    }
+
+    /**
+     * Writes the count of every bin of a histogram, each preceded by a comma.
+     *
+     * @param fileWriter A bufferedWriter object.
+     * @param histogram  The histogram to write.
+     * @throws IOException Exception needed by the package being used.
+     */
+    private void writeHistogramCounts(BufferedWriter fileWriter, IntegerHistogram histogram) throws IOException {
+        for (int bin = 0; bin < histogram.getNumberOfBins(); bin++) {
+            fileWriter.write("," + histogram.getCount(bin));
+        }
+    }
+
+    /**
+     * Writes a column header per quantile, named prefix followed by the quantile as a percentile.
+     *
+     * @param fileWriter A bufferedWriter object.
+     * @param prefix     The name of the columns before the percentile.
+     * @param quantiles  The fractions of the quantiles, between 0 and 1.
+     * @throws IOException Exception needed by the package being used.
+     */
+    private void writeQuantileHeader(BufferedWriter fileWriter, String prefix, double[] quantiles) throws IOException {
+        for (double quantile : quantiles) {
+            fileWriter.write("," + prefix + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString());
+        }
+    }
+
+    /**
+     * Writes the quantiles of a sketch, each preceded by a comma.
+     *
+     * @param fileWriter A bufferedWriter object.
+     * @param sketch     The sketch of the distribution.
+     * @param quantiles  The fractions of the quantiles, between 0 and 1.
+     * @throws IOException Exception needed by the package being used.
+     */
+    private void writeQuantiles(BufferedWriter fileWriter, QuantileSketch sketch, double[] quantiles) throws IOException {
+        for (double value : sketch.quantiles(quantiles)) {
+            fileWriter.write("," + value);
+        }
+    }
+
     /**
      * Flushes the file writer, and then closes the file.
      * This happens after writing the data to it.
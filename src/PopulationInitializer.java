@@ -0,0 +1,59 @@
+import ec.util.MersenneTwisterFast;
+import sim.util.Bag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Creates the initial population of labs in parallel, for ScienceFunding.parallelInitialization.
+ * Labs are split in blocks of BLOCK_SIZE consecutive ids. Every block gets its own MersenneTwisterFast, seeded with
+ * a long drawn from the simulation's generator in the order of the blocks, and its labs are created with
+ * ScienceFunding.createFounder on the common fork-join pool. Which block runs on which thread doesn't change what it
+ * draws, so the population only depends on the seed. The caller then adds the labs to the simulation in one pass.
+ */
+class PopulationInitializer {
+
+    //region Fields
+    static final int BLOCK_SIZE = 1 << 16;
+    //endregion
+
+    private PopulationInitializer() {
+    }
+
+    /**
+     * @param state                The simulation state, after the established topics have been placed.
+     * @param allEstablishedTopics The established topics, as Double2D.
+     * @return The labs of the initial population, indexed by id.
+     */
+    static Lab[] createFounders(ScienceFunding state, Bag allEstablishedTopics) {
+        Lab[] founders = new Lab[state.getNumberOfLabs()];
+        List<Callable<Void>> blocks = new ArrayList<>();
+        for (int from = 0; from < founders.length; from += BLOCK_SIZE) {
+            int blockFrom = from;
+            int blockTo = Math.min(from + BLOCK_SIZE, founders.length);
+            long seed = state.random.nextLong();
+            blocks.add(() -> {
+                MersenneTwisterFast generator = new MersenneTwisterFast(seed);
+                for (int labId = blockFrom; labId < blockTo; labId++) {
+                    founders[labId] = state.createFounder(labId, generator, allEstablishedTopics);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> block : ForkJoinPool.commonPool().invokeAll(blocks)) {
+            try {
+                block.get();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while creating the initial labs", exception);
+            } catch (ExecutionException exception) {
+                throw new IllegalStateException("Could not create the initial labs", exception.getCause());
+            }
+        }
+        return founders;
+    }
+}
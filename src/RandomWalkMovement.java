@@ -0,0 +1,25 @@
+/**
+ * Moves a lab one topic along x and one along y, each in a random direction. The original movement of the model.
+ */
+class RandomWalkMovement implements MovementStrategy {
+
+    /**
+     * Draws two random booleans from the simulation's generator, the first for x and the second for y.
+     *
+     * @param lab   The lab that moves.
+     * @param state The simulation state.
+     */
+    @Override
+    public void move(Lab lab, ScienceFunding state) {
+        if (state.random.nextBoolean()) {
+            lab.xLocationInLandscape++;
+        } else {
+            lab.xLocationInLandscape--;
+        }
+        if (state.random.nextBoolean()) {
+            lab.yLocationInLandscape++;
+        } else {
+            lab.yLocationInLandscape--;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import sim.util.Properties;
+
+/**
+ * Runs single replicates of ScienceFunding inside the current JVM, for drivers that launch many runs
+ * (such as AdaptiveSweep) instead of going through doLoop.
+ * Parameters and measures are addressed by their MASON property names, the names of the getters and setters of
+ * ScienceFunding without get/set (e.g. lotteryOfFunding, effectivenessOfPeerReviewers, falseDiscoveryRate, fundsGini),
+ * matched ignoring case. Any read/write property can be set, and any numeric or boolean property can be measured.
+ * Replicates share nothing, so several can run at the same time on different threads.
+ */
+class ReplicateRunner {
+
+    private ReplicateRunner() {
+    }
+
+    /**
+     * Builds a simulation state with a given seed and job number, and applies the parameter values to it.
+     * Values are parsed by MASON as it does for the model inspector.
+     *
+     * @param parameterNames  Property names of the parameters to change.
+     * @param parameterValues The new values, as text, in the same order.
+     * @param seed            The random seed of the replicate.
+     * @param job             The job number, which names the output file of the replicate (resources/runJOB.csv).
+     * @return The configured simulation state, not yet started.
+     */
+    static ScienceFunding configure(String[] parameterNames, String[] parameterValues, long seed, long job) {
+        ScienceFunding model = new ScienceFunding(seed);
+        model.setJob(job);
+        Properties properties = Properties.getProperties(model);
+        for (int i = 0; i < parameterNames.length; i++) {
+            int index = findProperty(properties, parameterNames[i]);
+            if (!properties.isReadWrite(index)) {
+                throw new IllegalArgumentException("Parameter " + parameterNames[i] + " cannot be changed");
+            }
+            if (properties.setValue(index, parameterValues[i].trim()) == null) {
+                throw new IllegalArgumentException("Invalid value " + parameterValues[i] + " for " + parameterNames[i]);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Starts the model, steps it until the number of steps is reached or the run stops itself (e.g. at steady state),
+     * finishes it and reads the measures. They are read after finish(), which publishes the last aggregation of Globals
+     * when it is measured in the background, so both modes give the same measures.
+     *
+     * @param model        A state returned by configure().
+     * @param steps        Maximum number of steps to run.
+     * @param measureNames Property names of the measures to read at the end of the run.
+     * @return The value of every measure, in the same order as the names.
+     */
+    static double[] run(ScienceFunding model, long steps, String[] measureNames) {
+        model.start();
+        while (model.schedule.getSteps() < steps && model.schedule.step(model)) {
+        }
+        model.finish();
+        return measure(model, measureNames);
+    }
+
+    /**
+     * @param model        A simulation state.
+     * @param measureNames Property names of numeric or boolean properties of the model.
+     * @return The current value of every property, booleans as 0 or 1.
+     */
+    static double[] measure(ScienceFunding model, String[] measureNames) {
+        Properties properties = Properties.getProperties(model);
+        double[] measures = new double[measureNames.length];
+        for (int i = 0; i < measureNames.length; i++) {
+            Object value = properties.getValue(findProperty(properties, measureNames[i]));
+            if (value instanceof Number) {
+                measures[i] = ((Number) value).doubleValue();
+            } else if (value instanceof Boolean) {
+                measures[i] = (Boolean) value ? 1 : 0;
+            } else {
+                throw new IllegalArgumentException("Measure " + measureNames[i] + " is not a number");
+            }
+        }
+        return measures;
+    }
+
+    /**
+     * @param parameterName Property name of a parameter.
+     * @return Its type (e.g. Integer.TYPE, Double.TYPE or Boolean.TYPE).
+     */
+    static Class<?> parameterType(String parameterName) {
+        Properties properties = Properties.getProperties(new ScienceFunding(0));
+        return properties.getType(findProperty(properties, parameterName));
+    }
+
+    private static int findProperty(Properties properties, String name) {
+        for (int i = 0; i < properties.numProperties(); i++) {
+            if (properties.getName(i).equalsIgnoreCase(name.trim())) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("ScienceFunding has no property called " + name);
+    }
+}
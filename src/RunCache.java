@@ -0,0 +1,316 @@
+import sim.engine.SimState;
+import sim.util.Properties;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+
+/**
+ * Content-addressed store of the measures of finished replicates, so that drivers can skip runs they have already done.
+ * A replicate is identified by the SHA-256 of everything that determines its measures: every settable parameter of the
+ * model, the seed, the number of steps, the measures asked for, and the model version. The model version is a hash of
+ * the bytecode of every class of the code source RunCache was loaded from (the directory or the jar of the model),
+ * and of the MASON version, so any change to the code, including the fixed parameters and the way runs are measured,
+ * invalidates the cache without anyone having to remember to. Changes to classes that don't take part in runs, such as
+ * the UI, invalidate it too.
+ * The store is a single append-only file of records: key, number of measures, measures, CRC32. It is indexed by an
+ * in-memory hash map from key to measures, built by scanning the file when opened and kept current afterwards, so
+ * lookups cost a hash lookup however many runs are cached. Appends take an exclusive file lock and a lookup that misses
+ * first reads whatever other processes appended, so several workers on one machine can share a store.
+ * A record cut short by a crash ends the scan and is dropped by the next append.
+ */
+class RunCache {
+
+    //region Fields
+    /*
+    Settable properties that do not change the measures.
+     */
+    private static final String[] IGNORED_PROPERTIES = {"WriteOutputFile", "WriteEventJournal", "RecordLineage", "FingerprintInterval"};
+    private static final int KEY_LENGTH = 32;
+    private static final int RECORD_MAGIC = 0x52434331;
+    private static byte[] modelVersion;
+
+    private final FileChannel channel;
+    private final Map<ByteBuffer, double[]> index = new HashMap<>();
+    private long scannedLength;
+    //endregion
+
+    /**
+     * Opens, or creates, the store in a directory and indexes the records already in it.
+     *
+     * @param directory Directory of the store.
+     * @throws IOException If the store cannot be opened.
+     */
+    RunCache(String directory) throws IOException {
+        new File(directory).mkdirs();
+        channel = new RandomAccessFile(new File(directory, "runs.dat"), "rw").getChannel();
+        synchronized (this) {
+            catchUp();
+        }
+    }
+
+    /**
+     * Runs a replicate through the cache: returns the stored measures if the same run was done before,
+     * and otherwise runs it with ReplicateRunner and stores its measures.
+     *
+     * @param cache        The store, or null to always run.
+     * @param model        A state returned by ReplicateRunner.configure().
+     * @param steps        Maximum number of steps to run.
+     * @param measureNames Property names of the measures.
+     * @return The measures.
+     */
+    static double[] run(RunCache cache, ScienceFunding model, long steps, String[] measureNames) {
+        if (cache == null) {
+            return ReplicateRunner.run(model, steps, measureNames);
+        }
+        byte[] key = key(model, steps, measureNames);
+        double[] measures = cache.get(key);
+        if (measures == null) {
+            measures = ReplicateRunner.run(model, steps, measureNames);
+            cache.put(key, measures);
+        }
+        return measures;
+    }
+
+    /**
+     * @return The SHA-256 of the settable parameters of the model (by name, in alphabetical order), its seed,
+     * the steps, the measure names and the model version.
+     */
+    static byte[] key(ScienceFunding model, long steps, String[] measureNames) {
+        Properties properties = Properties.getProperties(model);
+        TreeMap<String, String> parameters = new TreeMap<>();
+        for (int i = 0; i < properties.numProperties(); i++) {
+            if (properties.isReadWrite(i) && !isIgnored(properties.getName(i))) {
+                parameters.put(properties.getName(i), String.valueOf(properties.getValue(i)));
+            }
+        }
+        StringBuilder description = new StringBuilder();
+        parameters.forEach((name, value) -> description.append(name).append('=').append(value).append('\n'));
+        description.append("seed=").append(model.seed()).append('\n');
+        description.append("steps=").append(steps).append('\n');
+        description.append("measures=").append(String.join(",", measureNames)).append('\n');
+        MessageDigest digest = sha256();
+        digest.update(getModelVersion());
+        digest.update(description.toString().getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    private static boolean isIgnored(String propertyName) {
+        for (String ignored : IGNORED_PROPERTIES) {
+            if (ignored.equalsIgnoreCase(propertyName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The SHA-256 of every class file of the code source of RunCache, by path and in order of path,
+     * and of the MASON version, computed once.
+     */
+    static synchronized byte[] getModelVersion() {
+        if (modelVersion == null) {
+            MessageDigest digest = sha256();
+            byte[] buffer = new byte[8192];
+            CodeSource code = RunCache.class.getProtectionDomain().getCodeSource();
+            if (code == null || code.getLocation() == null) {
+                throw new IllegalStateException("Cannot find the code source of the model");
+            }
+            try {
+                File codeSource = new File(code.getLocation().toURI());
+                if (codeSource.isDirectory()) {
+                    for (String classFileName : classFileNames(codeSource, "")) {
+                        try (InputStream classFile = new FileInputStream(new File(codeSource, classFileName))) {
+                            digestClassFile(digest, classFileName, classFile, buffer);
+                        }
+                    }
+                } else {
+                    try (JarFile jar = new JarFile(codeSource)) {
+                        List<String> classFileNames = new ArrayList<>();
+                        jar.stream().map(JarEntry::getName).filter(name -> name.endsWith(".class")).forEach(classFileNames::add);
+                        Collections.sort(classFileNames);
+                        for (String classFileName : classFileNames) {
+                            try (InputStream classFile = jar.getInputStream(jar.getEntry(classFileName))) {
+                                digestClassFile(digest, classFileName, classFile, buffer);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException | URISyntaxException exception) {
+                throw new IllegalStateException("Cannot read the bytecode of the model", exception);
+            }
+            digest.update(Double.toString(SimState.version()).getBytes(StandardCharsets.UTF_8));
+            modelVersion = digest.digest();
+        }
+        return modelVersion;
+    }
+
+    /**
+     * @param directory A directory of class files.
+     * @param prefix    The path of the directory within the code source, ending in / unless empty.
+     * @return The paths of the class files in the directory and its subdirectories, sorted.
+     */
+    private static List<String> classFileNames(File directory, String prefix) {
+        List<String> classFileNames = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    classFileNames.addAll(classFileNames(file, prefix + file.getName() + "/"));
+                } else if (file.getName().endsWith(".class")) {
+                    classFileNames.add(prefix + file.getName());
+                }
+            }
+        }
+        Collections.sort(classFileNames);
+        return classFileNames;
+    }
+
+    private static void digestClassFile(MessageDigest digest, String classFileName, InputStream classFile, byte[] buffer)
+            throws IOException {
+        digest.update(classFileName.getBytes(StandardCharsets.UTF_8));
+        int read;
+        while ((read = classFile.read(buffer)) > 0) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * @param key A key built by key().
+     * @return The stored measures, or null if the run is not in the store.
+     */
+    synchronized double[] get(byte[] key) {
+        double[] measures = index.get(ByteBuffer.wrap(key));
+        if (measures == null) {
+            try {
+                catchUp();
+            } catch (IOException io) {
+                io.printStackTrace();
+            }
+            measures = index.get(ByteBuffer.wrap(key));
+        }
+        return measures == null ? null : measures.clone();
+    }
+
+    /**
+     * Appends a record, unless another thread or process stored the same run in the meantime.
+     *
+     * @param key      A key built by key().
+     * @param measures The measures of the run.
+     */
+    synchronized void put(byte[] key, double[] measures) {
+        ByteBuffer record = ByteBuffer.allocate(4 + KEY_LENGTH + 4 + 8 * measures.length + 4);
+        record.putInt(RECORD_MAGIC).put(key).putInt(measures.length);
+        for (double measure : measures) {
+            record.putDouble(measure);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+        try {
+            FileLock lock = channel.lock();
+            try {
+                catchUp();
+                if (index.containsKey(ByteBuffer.wrap(key))) {
+                    return;
+                }
+                if (channel.size() > scannedLength) {
+                    channel.truncate(scannedLength); // drop a record cut short by a crash
+                }
+                long position = scannedLength;
+                while (record.hasRemaining()) {
+                    position += channel.write(record, position);
+                }
+                channel.force(false);
+                index.put(ByteBuffer.wrap(key.clone()), measures.clone());
+                scannedLength = position;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+    }
+
+    /**
+     * Indexes the records appended since the last scan, stopping at the first incomplete or corrupt record.
+     */
+    private void catchUp() throws IOException {
+        long length = channel.size();
+        if (length <= scannedLength) {
+            return;
+        }
+        ByteBuffer appended = ByteBuffer.allocate((int) (length - scannedLength));
+        long position = scannedLength;
+        while (appended.hasRemaining()) {
+            int read = channel.read(appended, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        appended.flip();
+        while (appended.remaining() >= 4 + KEY_LENGTH + 4) {
+            int start = appended.position();
+            if (appended.getInt() != RECORD_MAGIC) {
+                return;
+            }
+            byte[] key = new byte[KEY_LENGTH];
+            appended.get(key);
+            int numberOfMeasures = appended.getInt();
+            if (numberOfMeasures < 0 || appended.remaining() < 8L * numberOfMeasures + 4) {
+                return;
+            }
+            double[] measures = new double[numberOfMeasures];
+            for (int i = 0; i < numberOfMeasures; i++) {
+                measures[i] = appended.getDouble();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(appended.array(), start, appended.position() - start);
+            if (appended.getInt() != (int) crc.getValue()) {
+                return;
+            }
+            index.put(ByteBuffer.wrap(key), measures);
+            scannedLength += appended.position() - start;
+        }
+    }
+
+    /**
+     * @return The number of runs in the store.
+     */
+    synchronized int size() {
+        return index.size();
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,44 +1,195 @@
+import ec.util.MersenneTwisterFast;
 import sim.engine.SimState;
-import sim.field.grid.DoubleGrid2D;
 import sim.field.grid.IntGrid2D;
 import sim.field.grid.SparseGrid2D;
 import sim.util.Bag;
 import sim.util.Double2D;
+import sim.util.distribution.Binomial;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 public class ScienceFunding extends SimState {
 
     //region Parameters of Simulation
+    /*
+    Size of the landscape and initial base rate are fixed, because the grids are built with the simulation state.
+    The other model parameters can be changed through their setters before start(), e.g. by a sweep.
+     */
     private final int sizeOfLandscape = 200;
-    private final int numberOfLabs = 100;
     private final double initialBaseRate = 0.1;
-    private final int numberOfEstablishedTopics = 0;
-    private final double initialEffort = 75;
-    private final double powerLevel = 0.8;
-    private final double costOfEffortConstant = 0.2;
-    private final double probabilityOfReplication = 0.3;
-    private final double probabilityOfPublishingNegative = 0.5;
-    private final double increaseInBaseRate = 0;
-    private final double effectivenessOfPeerReviewers = 0.2;
-    private final double probabilityOfPostdocAtStart = 0.05;
-    private final double costOfApplyingForFunding = 0.2;
-    private final double probabilityOfApplyingForFunding = 1;
-    private final double weightOfInnovationInFunding = 0;
-    private final double weightOfPrestigeInFunding = 1;
-    private final boolean lotteryOfFunding = false;
-
-    private final double probabilityOfEffortMutation = 0.1;
-    private final double standardDeviationOfEffortMutation = 10;
-    private final int maximumTopicMutationDistance = 2;
+    private int numberOfLabs = 100;
+    private int numberOfEstablishedTopics = 0;
+    private double initialEffort = 75;
+    private double powerLevel = 0.8;
+    private double costOfEffortConstant = 0.2;
+    private double probabilityOfReplication = 0.3;
+    private double probabilityOfPublishingNegative = 0.5;
+    private double increaseInBaseRate = 0;
+    private double effectivenessOfPeerReviewers = 0.2;
+    private double probabilityOfPostdocAtStart = 0.05;
+    private double costOfApplyingForFunding = 0.2;
+    private double probabilityOfApplyingForFunding = 1;
+    private double weightOfInnovationInFunding = 0;
+    private double weightOfPrestigeInFunding = 1;
+    private boolean lotteryOfFunding = false;
+
+    /*
+    If innovationNeighbourhoodRadius is greater than 0, the innovativeness of a lab's topic also takes into account
+    the publications on the topics at most that far in both dimensions: it is divided by 1 plus their mean number of
+    publications per topic. The counts are read from a FenwickGrid2D kept up to date with publicationRecordOfTopics.
+    If 0, innovativeness only depends on the base rate of the topic itself.
+     */
+    private int innovationNeighbourhoodRadius = 0;
+
+    /*
+    Parameters of the Agency, described there.
+     */
+    private int budgetOfAgency = 10;
+    private double proportionOfBigGrants = 0.2;
+    private boolean includeNoiseInEvaluation = false;
+    private double evaluationNoise = 0.001;
+
+    private double probabilityOfEffortMutation = 0.1;
+    private double standardDeviationOfEffortMutation = 10;
+    private int maximumTopicMutationDistance = 2;
+
+    /*
+    How labs move to a neighbouring topic: one of the MovementStrategy constants. RANDOM_WALK is the original random walk.
+    TOWARDS_HIGHER_BASE_RATE and TOWARDS_FEWER_PUBLICATIONS follow the base rates or the publications per topic within
+    movementRadius, found with a NeighbourhoodIndex over both grids that is only built for them.
+     */
+    private int movementStrategy = MovementStrategy.RANDOM_WALK;
+    private int movementRadius = 2;
+
+    /*
+    If true, the epistemic landscape only stores the topics that differ from initialBaseRate.
+    Use for big landscapes that are only sparsely explored.
+     */
+    private final boolean sparseEpistemicLandscape = false;
+
+    /*
+    If true, lab positions are only kept in the labs' own x and y fields and locationOfLaboratories is not updated
+    when labs move, are born or die. The grid is built the first time it is requested (e.g. by the UI portrayal)
+    and kept up to date from then on. If false, the grid is always maintained.
+     */
+    private final boolean headlessMode = true;
+
+    /*
+    Phase instrumentation. If instrumentPhases is true, each scheduled phase is timed and its allocation measured by
+    SimulationMetrics, which is registered as a JMX MBean if registerMetricsMBean is true.
+    If writeProfileFile is true, a row per step is written to resources/profileN.csv.
+     */
+    private final boolean instrumentPhases = true;
+    private final boolean registerMetricsMBean = true;
+    private final boolean writeProfileFile = false;
+
+    /*
+    If true, the metrics of the run are served in the Prometheus text format at http://127.0.0.1:metricsEndpointPort/metrics.
+    All runs of the JVM share the endpoint. If the port is taken, a free one is used and printed to the standard error.
+    Runs also attach to the endpoint if a driver started it (-metrics PORT of AdaptiveSweep, SensitivityAnalysis...).
+     */
+    private final boolean serveMetricsEndpoint = false;
+    private final int metricsEndpointPort = 9464;
+
+    /*
+    If true, labs draw how many of their members do research and how those attempts turn out in bulk, with binomial
+    and multinomial draws, instead of rolling each member separately. Distributionally equivalent to the per-member loop:
+    DistributionComparison finds no difference in the output measures of 100 replicates of each at 500 steps (false
+    discovery rate p = 0.56), though a run draws different random numbers than the loop with the same seed.
+     */
+    private final boolean aggregateResearchSampling = false;
+
+    /*
+    If true, the labs of the initial population are created in parallel, in blocks of PopulationInitializer.BLOCK_SIZE
+    labs that each draw from their own generator, seeded in order from the simulation's. Runs are reproducible whatever
+    the number of cores, but differ from runs with the same seed and sequential initialization, which draws every lab
+    from the simulation's generator.
+     */
+    private final boolean parallelInitialization = false;
+
+    /*
+    If true, Globals copies the grids and lab arrays it measures each step and measures them on a background thread,
+    so the schedule doesn't wait for them. Each aggregation is then published, written and passed to the
+    ConvergenceDetector one aggregation interval later, and the last one when the run finishes. The measures are
+    the same, but a run that stops at steady state stops one interval later.
+     */
+    private final boolean backgroundGlobals = false;
+
+    /*
+    If false, Globals does not write resources/runJOB.csv, and the run does not write the quantile sketches of the labs
+    to resources/sketchesJOB.dat. Turned off by drivers that run thousands of replicates and only keep their final
+    measures (e.g. SensitivityAnalysis).
+     */
+    private boolean writeOutputFile = true;
+
+    /*
+    If true, every publication and every grant awarded is recorded in the binary EventJournal resources/eventsJOB.dat.
+     */
+    private boolean writeEventJournal = false;
+
+    /*
+    If true, the parent, founder, birth and death steps and inherited effort of every lab are kept in a LabLineage,
+    which is written to resources/lineageJOB.csv when the run finishes.
+     */
+    private boolean recordLineage = false;
+
+    /*
+    If greater than 0, the state of the run is hashed every fingerprintInterval steps into the TrajectoryFingerprint
+    resources/fingerprintJOB.dat, to check with FingerprintVerifier that another way of running it gives the same
+    trajectory. Runs launched from the command line take it from -fingerprint N.
+     */
+    private int fingerprintInterval = fingerprintIntervalRequested;
+
+    /*
+    Steady state detection. At every aggregation, Globals passes the windowed FDR, funds Gini and postdoc number Gini to
+    a ConvergenceDetector that applies steadyStateTest (RELATIVE_DRIFT or MSER) with steadyStateWindow and
+    steadyStateTolerance. The convergence step it reports is written to the output as convergenceStep, -1 until found.
+    If stopAtSteadyState is true, the run stops at the end of the step in which it is found,
+    or at the end of step minimumStepsBeforeStopping if that comes later.
+     */
+    private final int steadyStateTest = ConvergenceDetector.RELATIVE_DRIFT;
+    private final int steadyStateWindow = 20;
+    private final double steadyStateTolerance = 0.05;
+    private final boolean stopAtSteadyState = false;
+    private final long minimumStepsBeforeStopping = 1000;
     //endregion
 
+    /*
+    Number of steps requested with -for on the command line. Used to estimate the time remaining. 0 if unknown.
+     */
+    private static long stepsRequested = 0;
+
+    /*
+    Fingerprint interval requested with -fingerprint on the command line, used as the default of fingerprintInterval.
+     */
+    private static int fingerprintIntervalRequested = 0;
+
     //region Objects
     private Bag bagOfAllLabs;
     private int latestIdAssigned;
     private Agency agencyObject;
     private ScienceMaster scienceMasterObject;
     private Globals globalsObject;
-    private DoubleGrid2D epistemicLandscape = new DoubleGrid2D(sizeOfLandscape, sizeOfLandscape, initialBaseRate);
+    private LabPopulationStepper labPopulationStepper;
+    private SimulationMetrics simulationMetrics;
+    private SimulationStepEvent stepEvent;
+    private ConvergenceDetector convergenceDetector;
+    private EventJournal eventJournal;
+    private TrajectoryFingerprint trajectoryFingerprint;
+    private LabLineage labLineage;
+    private FenwickGrid2D publicationDensity;
+    private MovementStrategy movementStrategyObject;
+    private NeighbourhoodIndex neighbourhoodIndex;
+    private LandscapeTileVersions landscapeTileVersions;
+    private Binomial binomialDistribution;
+    private EpistemicLandscape epistemicLandscape = sparseEpistemicLandscape
+            ? new SparseEpistemicLandscape(sizeOfLandscape, sizeOfLandscape, initialBaseRate)
+            : new DenseEpistemicLandscape(sizeOfLandscape, sizeOfLandscape, initialBaseRate);
     private SparseGrid2D locationOfLaboratories = new SparseGrid2D(sizeOfLandscape, sizeOfLandscape);
+    private boolean locationOfLaboratoriesAttached = !headlessMode;
     private IntGrid2D publicationRecordOfTopics = new IntGrid2D(sizeOfLandscape, sizeOfLandscape, 0);
     //endregion
 
@@ -59,11 +210,29 @@ public class ScienceFunding extends SimState {
      */
     public static void main(String[] args) {
         {
+            for (int i = 0; i < args.length - 1; i++) {
+                if (args[i].equals("-for")) {
+                    stepsRequested = Long.parseLong(args[i + 1]);
+                }
+                if (args[i].equals("-fingerprint")) {
+                    fingerprintIntervalRequested = Integer.parseInt(args[i + 1]);
+                }
+            }
             doLoop(ScienceFunding.class, args);
             System.exit(0);
         }
     }
 
+    /**
+     * Sets the number of steps that runs started from now on are expected to last, for drivers that do not go
+     * through main (e.g. AdaptiveSweep).
+     *
+     * @param steps The number of steps, 0 if unknown.
+     */
+    static void setStepsRequested(long steps) {
+        stepsRequested = steps;
+    }
+
     /**
      * Start the simulation by clearing grids, allocating the established topics,
      * creating labs and assigning them to a topic, and scheduling the objects.
@@ -72,9 +241,10 @@ public class ScienceFunding extends SimState {
     public void start() {
         super.start();
         locationOfLaboratories.clear();
-        bagOfAllLabs = new Bag();
+        bagOfAllLabs = new Bag(numberOfLabs);
 
         Bag allEstablishedTopics = new Bag();
+        Set<Double2D> establishedTopicSet = new HashSet<>(); // to check in O(1) that a topic is not established already.
         if (numberOfEstablishedTopics > 0) {
             for (int i = 0; i < numberOfEstablishedTopics; i++) {
                 Double2D establishedTopic;
@@ -85,66 +255,252 @@ public class ScienceFunding extends SimState {
                     yDimensionOfTopic = random.nextInt(sizeOfLandscape);
                     establishedTopic = new Double2D(xDimensionOfTopic, yDimensionOfTopic);
                 }
-                while (allEstablishedTopics.contains(establishedTopic));
+                while (establishedTopicSet.contains(establishedTopic));
                 allEstablishedTopics.add(establishedTopic);
+                establishedTopicSet.add(establishedTopic);
                 LandscapeUtils.increaseAndDisperse(epistemicLandscape, (int) establishedTopic.x, (int) establishedTopic.y, 0.499);
             }
         }
 
+        if (simulationMetrics != null) {
+            simulationMetrics.close();
+        }
+        simulationMetrics = new SimulationMetrics(instrumentPhases, stepsRequested);
+        if (registerMetricsMBean) {
+            simulationMetrics.registerMBean(job(), seed());
+        }
+        if (writeProfileFile) {
+            try {
+                simulationMetrics.openProfileFile(job());
+            } catch (IOException io) {
+                io.printStackTrace();
+            }
+        }
+        if (serveMetricsEndpoint) {
+            try {
+                simulationMetrics.attachToEndpoint(MetricsEndpoint.getSharedEndpoint(metricsEndpointPort), job(), seed());
+            } catch (IOException io) {
+                io.printStackTrace();
+            }
+        } else if (MetricsEndpoint.getRunningEndpoint() != null) {
+            simulationMetrics.attachToEndpoint(MetricsEndpoint.getRunningEndpoint(), job(), seed());
+        }
+        schedule.scheduleRepeating(this.simulationMetrics, 4, 1);
+
+        if (eventJournal != null) {
+            eventJournal.close();
+            eventJournal = null;
+        }
+        if (writeEventJournal) {
+            try {
+                new File("resources").mkdirs();
+                eventJournal = new EventJournal(job(), sizeOfLandscape, seed());
+            } catch (IOException io) {
+                io.printStackTrace();
+            }
+        }
+        if (trajectoryFingerprint != null) {
+            trajectoryFingerprint.close();
+            trajectoryFingerprint = null;
+        }
+        if (fingerprintInterval > 0) {
+            try {
+                new File("resources").mkdirs();
+                trajectoryFingerprint = new TrajectoryFingerprint(job(), fingerprintInterval, seed());
+            } catch (IOException io) {
+                io.printStackTrace();
+            }
+        }
+
+        /*
+        The flight recorder step event is opened before anything else runs in a step, and committed after everything else.
+         */
+        schedule.scheduleRepeating(simState -> ((ScienceFunding) simState).beginStepEvent(), -1, 1);
+        schedule.scheduleRepeating(simState -> ((ScienceFunding) simState).endStep(), 5, 1);
+
+        binomialDistribution = new Binomial(1, 0.5, random);
+        convergenceDetector = new ConvergenceDetector(steadyStateTest, steadyStateWindow, steadyStateTolerance, 3);
+
         scienceMasterObject = new ScienceMaster();
         schedule.scheduleRepeating(this.scienceMasterObject, 0, 1);
 
-        agencyObject = new Agency();
+        agencyObject = new Agency(budgetOfAgency, proportionOfBigGrants, includeNoiseInEvaluation, evaluationNoise);
         schedule.scheduleRepeating(this.agencyObject, 2, 1);
 
+        labPopulationStepper = new LabPopulationStepper(numberOfLabs);
+        schedule.scheduleRepeating(this.labPopulationStepper, 1, 1);
+
         globalsObject = new Globals();
+        labLineage = recordLineage ? new LabLineage() : null;
+        publicationDensity = innovationNeighbourhoodRadius > 0
+                ? new FenwickGrid2D(sizeOfLandscape, sizeOfLandscape).setTo(publicationRecordOfTopics.field) : null;
+        neighbourhoodIndex = movementStrategy != MovementStrategy.RANDOM_WALK
+                ? new NeighbourhoodIndex(epistemicLandscape, publicationRecordOfTopics) : null;
+        landscapeTileVersions = null;
+        if (movementStrategy == MovementStrategy.TOWARDS_HIGHER_BASE_RATE) {
+            movementStrategyObject = new GradientMovement(NeighbourhoodIndex.BASE_RATE, true, movementRadius);
+        } else if (movementStrategy == MovementStrategy.TOWARDS_FEWER_PUBLICATIONS) {
+            movementStrategyObject = new GradientMovement(NeighbourhoodIndex.PUBLICATIONS, false, movementRadius);
+        } else {
+            movementStrategyObject = new RandomWalkMovement();
+        }
         schedule.scheduleOnce(this.globalsObject);
         schedule.scheduleRepeating(this.globalsObject, 3, 1);
 
+        /*
+        The labs are created, drawing their topics from the simulation's generator or, with parallelInitialization,
+        from the generators of their blocks, and then added to the bag, histograms, lineage and stepper in one pass.
+         */
+        Lab[] founders = parallelInitialization ? PopulationInitializer.createFounders(this, allEstablishedTopics) : null;
         for (int i = 0; i < numberOfLabs; i++) {
-            Double2D topicOfLab;
-            int labTopicX;
-            int labTopicY;
-            if (numberOfEstablishedTopics > 0) {
-                topicOfLab = (Double2D) allEstablishedTopics.get(random.nextInt(allEstablishedTopics.size()));
-                int xMutationFromEstablished = random.nextInt(3);
-                int yMutationFromEstablished = random.nextInt(3);
-                if (random.nextBoolean()) { // then, randomly decide the direction of your distance.
-                    xMutationFromEstablished = -1 * xMutationFromEstablished;
-                }
-                if (random.nextBoolean()) {
-                    yMutationFromEstablished = -1 * yMutationFromEstablished;
-                }
-                labTopicX = (int) topicOfLab.x + xMutationFromEstablished;
-                labTopicY = (int) topicOfLab.y + yMutationFromEstablished;
-            } else {
-                topicOfLab = new Double2D(random.nextInt(sizeOfLandscape), random.nextInt(sizeOfLandscape));
-                labTopicX = (int) topicOfLab.x;
-                labTopicY = (int) topicOfLab.y;
+            Lab schedulingLab = founders != null ? founders[i] : createFounder(i, random, allEstablishedTopics);
+            latestIdAssigned = i;
+            bagOfAllLabs.add(schedulingLab);
+            globalsObject.addLabToHistograms(schedulingLab);
+            if (labLineage != null) {
+                labLineage.addFounder(i, schedule.getSteps(), schedulingLab.effort);
             }
-            if (labTopicX >= sizeOfLandscape) {
-                labTopicX = sizeOfLandscape - 1;
+            updateLocationOfLab(schedulingLab);
+            labPopulationStepper.addLab(schedulingLab);
+        }
+    }
+
+    /**
+     * Creates a lab of the initial population: on a random topic or, if there are established topics, near a random
+     * one of them, with the initial effort and possibly a postdoc for the first turn.
+     * Only reads the simulation, so labs can be created on several threads with their own generators.
+     *
+     * @param labId                Id of the new lab.
+     * @param generator            The generator to draw from.
+     * @param allEstablishedTopics The established topics, as Double2D.
+     * @return The new lab, not yet added to the simulation.
+     */
+    Lab createFounder(int labId, MersenneTwisterFast generator, Bag allEstablishedTopics) {
+        Double2D topicOfLab;
+        int labTopicX;
+        int labTopicY;
+        if (numberOfEstablishedTopics > 0) {
+            topicOfLab = (Double2D) allEstablishedTopics.get(generator.nextInt(allEstablishedTopics.size()));
+            int xMutationFromEstablished = generator.nextInt(3);
+            int yMutationFromEstablished = generator.nextInt(3);
+            if (generator.nextBoolean()) { // then, randomly decide the direction of your distance.
+                xMutationFromEstablished = -1 * xMutationFromEstablished;
             }
-            if (labTopicX < 0) {
-                labTopicX = 0;
+            if (generator.nextBoolean()) {
+                yMutationFromEstablished = -1 * yMutationFromEstablished;
             }
-            if (labTopicY >= sizeOfLandscape) {
-                labTopicY = sizeOfLandscape - 1;
+            labTopicX = (int) topicOfLab.x + xMutationFromEstablished;
+            labTopicY = (int) topicOfLab.y + yMutationFromEstablished;
+        } else {
+            topicOfLab = new Double2D(generator.nextInt(sizeOfLandscape), generator.nextInt(sizeOfLandscape));
+            labTopicX = (int) topicOfLab.x;
+            labTopicY = (int) topicOfLab.y;
+        }
+        if (labTopicX >= sizeOfLandscape) {
+            labTopicX = sizeOfLandscape - 1;
+        }
+        if (labTopicX < 0) {
+            labTopicX = 0;
+        }
+        if (labTopicY >= sizeOfLandscape) {
+            labTopicY = sizeOfLandscape - 1;
+        }
+        if (labTopicY < 0) {
+            labTopicY = 0;
+        }
+        Lab founder = new Lab(labId, labTopicX, labTopicY);
+
+        if (generator.nextDouble() < probabilityOfPostdocAtStart) {
+            founder.numberOfPostdocs += 1; // This postdoc will last only one turn.
+        }
+
+        founder.effort = initialEffort;
+        return founder;
+    }
+
+    /**
+     * Closes the metrics of the run, unregistering its MBean, detaching it from the metrics endpoint
+     * and closing its profile file, and closes the event journal and the trajectory fingerprint.
+     * Globals first publishes and writes the aggregation it may still be measuring in the background, and then
+     * writes its quantile sketches, if the output file is written.
+     * The lineage, if recorded, is written and kept for inspection until the next start().
+     */
+    @Override
+    public void finish() {
+        super.finish();
+        if (globalsObject != null) {
+            globalsObject.finish(this);
+            if (writeOutputFile) {
+                try {
+                    new File("resources").mkdirs();
+                    globalsObject.writeSketches(new File("resources", "sketches" + job() + ".dat"));
+                } catch (IOException io) {
+                    io.printStackTrace();
+                }
             }
-            if (labTopicY < 0) {
-                labTopicY = 0;
+        }
+        if (simulationMetrics != null) {
+            simulationMetrics.close();
+        }
+        if (eventJournal != null) {
+            eventJournal.close();
+            eventJournal = null;
+        }
+        if (trajectoryFingerprint != null) {
+            trajectoryFingerprint.close();
+            trajectoryFingerprint = null;
+        }
+        if (labLineage != null) {
+            try {
+                new File("resources").mkdirs();
+                labLineage.write("resources" + File.separator + "lineage" + job() + ".csv");
+            } catch (IOException io) {
+                io.printStackTrace();
             }
-            Lab schedulingLab = new Lab(i, labTopicX, labTopicY);
-            latestIdAssigned = i;
+        }
+    }
 
-            if (random.nextDouble() < probabilityOfPostdocAtStart) {
-                schedulingLab.numberOfPostdocs += 1; // This postdoc will last only one turn.
-            }
+    /**
+     * Starts timing the flight recorder event for this step.
+     * If no recording is running, the event is discarded when committed, at close to no cost.
+     */
+    void beginStepEvent() {
+        stepEvent = new SimulationStepEvent();
+        stepEvent.begin();
+    }
 
-            schedulingLab.effort = initialEffort;
-            bagOfAllLabs.add(schedulingLab);
-            locationOfLaboratories.setObjectLocation(schedulingLab, labTopicX, labTopicY);
-            schedulingLab.stoppable = schedule.scheduleRepeating(schedulingLab, 1, 1);
+    /**
+     * Fills the flight recorder event for this step with the counts collected by SimulationMetrics and commits it.
+     */
+    void commitStepEvent() {
+        if (stepEvent == null) {
+            return;
+        }
+        stepEvent.end();
+        if (stepEvent.shouldCommit()) {
+            stepEvent.step = schedule.getSteps();
+            stepEvent.numberOfLabs = labPopulationStepper.getPopulationSize();
+            stepEvent.applicants = simulationMetrics.getApplicantsLastStep();
+            stepEvent.publications = simulationMetrics.getPublicationsLastStep();
+            stepEvent.grantsAwarded = simulationMetrics.getGrantsAwardedLastStep();
+            stepEvent.births = simulationMetrics.getBirthsLastStep();
+            stepEvent.commit();
+        }
+        stepEvent = null;
+    }
+
+    /**
+     * Last thing to run in a step. Commits the flight recorder event, fingerprints the state if it is time to and,
+     * if stopAtSteadyState is set and the steady state has been found, stops the run once minimumStepsBeforeStopping
+     * steps have run.
+     */
+    void endStep() {
+        commitStepEvent();
+        if (trajectoryFingerprint != null) {
+            trajectoryFingerprint.record(this);
+        }
+        if (stopAtSteadyState && convergenceDetector.hasConverged() && schedule.getSteps() + 1 >= minimumStepsBeforeStopping) {
+            kill();
         }
     }
 
@@ -156,6 +512,29 @@ public class ScienceFunding extends SimState {
         latestIdAssigned++;
     }
 
+    /**
+     * Moves a lab to its current x and y in locationOfLaboratories, or adds it if it wasn't there.
+     * Does nothing in headless mode until the grid has been requested.
+     *
+     * @param lab The lab whose location changed.
+     */
+    void updateLocationOfLab(Lab lab) {
+        if (locationOfLaboratoriesAttached) {
+            locationOfLaboratories.setObjectLocation(lab, lab.xLocationInLandscape, lab.yLocationInLandscape);
+        }
+    }
+
+    /**
+     * Removes a lab from locationOfLaboratories. Does nothing in headless mode until the grid has been requested.
+     *
+     * @param lab The lab that is being removed from the simulation.
+     */
+    void removeLocationOfLab(Lab lab) {
+        if (locationOfLaboratoriesAttached) {
+            locationOfLaboratories.remove(lab);
+        }
+    }
+
     //region Getters
 
     /*
@@ -166,11 +545,26 @@ public class ScienceFunding extends SimState {
         return agencyObject;
     }
 
-    public DoubleGrid2D getEpistemicLandscape() {
+    public EpistemicLandscape getEpistemicLandscape() {
         return epistemicLandscape;
     }
 
+    /**
+     * In headless mode, the grid is built from the labs' own locations the first time it is requested.
+     * After that it is maintained every time a lab moves, is born or dies.
+     *
+     * @return The sparse grid with the location of every lab.
+     */
     public SparseGrid2D getLocationOfLaboratories() {
+        if (!locationOfLaboratoriesAttached) {
+            locationOfLaboratoriesAttached = true;
+            locationOfLaboratories.clear();
+            if (bagOfAllLabs != null) {
+                for (int i = 0; i < bagOfAllLabs.size(); i++) {
+                    updateLocationOfLab((Lab) bagOfAllLabs.get(i));
+                }
+            }
+        }
         return locationOfLaboratories;
     }
 
@@ -190,14 +584,107 @@ public class ScienceFunding extends SimState {
         return scienceMasterObject;
     }
 
+    public LabPopulationStepper getLabPopulationStepper() {
+        return labPopulationStepper;
+    }
+
+    public SimulationMetrics getSimulationMetrics() {
+        return simulationMetrics;
+    }
+
+    /**
+     * @return The event journal of the run, or null if writeEventJournal is false.
+     */
+    EventJournal getEventJournal() {
+        return eventJournal;
+    }
+
+    /**
+     * @return The lineage of the labs of the run, or null if recordLineage is false.
+     */
+    LabLineage getLabLineage() {
+        return labLineage;
+    }
+
+    /**
+     * @return The publications per topic as a FenwickGrid2D, or null if innovationNeighbourhoodRadius is 0.
+     */
+    FenwickGrid2D getPublicationDensity() {
+        return publicationDensity;
+    }
+
+    /**
+     * @return The strategy labs move with, as selected by movementStrategy.
+     */
+    MovementStrategy getMovementStrategyObject() {
+        return movementStrategyObject;
+    }
+
+    /**
+     * @return The index of extremes of the landscape and the publications per topic, or null for RANDOM_WALK.
+     */
+    NeighbourhoodIndex getNeighbourhoodIndex() {
+        return neighbourhoodIndex;
+    }
+
+    /**
+     * @return The versions of the tiles of the landscape and the publications per topic, or null if nothing copies them.
+     */
+    LandscapeTileVersions getLandscapeTileVersions() {
+        return landscapeTileVersions;
+    }
+
+    /**
+     * Makes labs stamp the tiles of the topics they change, for whoever keeps copies of the grids (the UI snapshots).
+     * Set again after every start(), which clears it.
+     */
+    void setLandscapeTileVersions(LandscapeTileVersions landscapeTileVersions) {
+        this.landscapeTileVersions = landscapeTileVersions;
+    }
+
+    /**
+     * @return The fingerprint of the run, or null if fingerprintInterval is 0.
+     */
+    TrajectoryFingerprint getTrajectoryFingerprint() {
+        return trajectoryFingerprint;
+    }
+
+    ConvergenceDetector getConvergenceDetector() {
+        return convergenceDetector;
+    }
+
+    public long getConvergenceStep() {
+        return convergenceDetector.getConvergenceStep();
+    }
+
     public Globals getGlobalsObject() {
         return globalsObject;
     }
 
+    public Binomial getBinomialDistribution() {
+        return binomialDistribution;
+    }
+
     public int getSizeOfLandscape() {
         return sizeOfLandscape;
     }
 
+    public int getNumberOfLabs() {
+        return numberOfLabs;
+    }
+
+    public int getNumberOfEstablishedTopics() {
+        return numberOfEstablishedTopics;
+    }
+
+    public double getInitialEffort() {
+        return initialEffort;
+    }
+
+    public double getProbabilityOfPostdocAtStart() {
+        return probabilityOfPostdocAtStart;
+    }
+
     public double getPowerLevel() {
         return powerLevel;
     }
@@ -238,6 +725,18 @@ public class ScienceFunding extends SimState {
         return weightOfPrestigeInFunding;
     }
 
+    public int getInnovationNeighbourhoodRadius() {
+        return innovationNeighbourhoodRadius;
+    }
+
+    public int getMovementStrategy() {
+        return movementStrategy;
+    }
+
+    public int getMovementRadius() {
+        return movementRadius;
+    }
+
     public double getProbabilityOfEffortMutation() {
         return probabilityOfEffortMutation;
     }
@@ -250,6 +749,22 @@ public class ScienceFunding extends SimState {
         return lotteryOfFunding;
     }
 
+    public int getBudgetOfAgency() {
+        return budgetOfAgency;
+    }
+
+    public double getProportionOfBigGrants() {
+        return proportionOfBigGrants;
+    }
+
+    public boolean getIncludeNoiseInEvaluation() {
+        return includeNoiseInEvaluation;
+    }
+
+    public double getEvaluationNoise() {
+        return evaluationNoise;
+    }
+
     public double getInitialBaseRate() {
         return initialBaseRate;
     }
@@ -258,6 +773,38 @@ public class ScienceFunding extends SimState {
         return standardDeviationOfEffortMutation;
     }
 
+    public boolean getSparseEpistemicLandscape() {
+        return sparseEpistemicLandscape;
+    }
+
+    public boolean getAggregateResearchSampling() {
+        return aggregateResearchSampling;
+    }
+
+    public boolean getBackgroundGlobals() {
+        return backgroundGlobals;
+    }
+
+    public boolean getWriteOutputFile() {
+        return writeOutputFile;
+    }
+
+    public boolean getWriteEventJournal() {
+        return writeEventJournal;
+    }
+
+    public boolean getRecordLineage() {
+        return recordLineage;
+    }
+
+    public int getFingerprintInterval() {
+        return fingerprintInterval;
+    }
+
+    public boolean getHeadlessMode() {
+        return headlessMode;
+    }
+
     /*
      The remaining getters are used in visualization through ScienceFundingWithUI
      */
@@ -302,6 +849,14 @@ public class ScienceFunding extends SimState {
         return this.globalsObject.getTotalFundsDistribution();
     }
 
+    public double[] getFundsHistogramCounts() {
+        return this.globalsObject.getTotalFundsHistogram().getCountsAsDoubles();
+    }
+
+    public double[] getPostdocNumberHistogramCounts() {
+        return this.globalsObject.getPostdocNumberHistogram().getCountsAsDoubles();
+    }
+
     public double getFundsGini() {
         return this.globalsObject.getTotalFundsGiniLastWindow();
     }
@@ -317,5 +872,123 @@ public class ScienceFunding extends SimState {
     public double getPostdocNumberGini() {
         return this.globalsObject.getPostdocNumberGiniLastWindow();
     }
+    //endregion
+
+    //region Setters
+    public void setNumberOfLabs(int numberOfLabs) {
+        this.numberOfLabs = numberOfLabs;
+    }
+
+    public void setNumberOfEstablishedTopics(int numberOfEstablishedTopics) {
+        this.numberOfEstablishedTopics = numberOfEstablishedTopics;
+    }
+
+    public void setInitialEffort(double initialEffort) {
+        this.initialEffort = initialEffort;
+    }
+
+    public void setPowerLevel(double powerLevel) {
+        this.powerLevel = powerLevel;
+    }
+
+    public void setCostOfEffortConstant(double costOfEffortConstant) {
+        this.costOfEffortConstant = costOfEffortConstant;
+    }
+
+    public void setProbabilityOfReplication(double probabilityOfReplication) {
+        this.probabilityOfReplication = probabilityOfReplication;
+    }
+
+    public void setProbabilityOfPublishingNegative(double probabilityOfPublishingNegative) {
+        this.probabilityOfPublishingNegative = probabilityOfPublishingNegative;
+    }
+
+    public void setIncreaseInBaseRate(double increaseInBaseRate) {
+        this.increaseInBaseRate = increaseInBaseRate;
+    }
+
+    public void setEffectivenessOfPeerReviewers(double effectivenessOfPeerReviewers) {
+        this.effectivenessOfPeerReviewers = effectivenessOfPeerReviewers;
+    }
+
+    public void setProbabilityOfPostdocAtStart(double probabilityOfPostdocAtStart) {
+        this.probabilityOfPostdocAtStart = probabilityOfPostdocAtStart;
+    }
+
+    public void setCostOfApplyingForFunding(double costOfApplyingForFunding) {
+        this.costOfApplyingForFunding = costOfApplyingForFunding;
+    }
 
+    public void setProbabilityOfApplyingForFunding(double probabilityOfApplyingForFunding) {
+        this.probabilityOfApplyingForFunding = probabilityOfApplyingForFunding;
+    }
+
+    public void setWeightOfInnovationInFunding(double weightOfInnovationInFunding) {
+        this.weightOfInnovationInFunding = weightOfInnovationInFunding;
+    }
+
+    public void setWeightOfPrestigeInFunding(double weightOfPrestigeInFunding) {
+        this.weightOfPrestigeInFunding = weightOfPrestigeInFunding;
+    }
+
+    public void setInnovationNeighbourhoodRadius(int innovationNeighbourhoodRadius) {
+        this.innovationNeighbourhoodRadius = innovationNeighbourhoodRadius;
+    }
+
+    public void setMovementStrategy(int movementStrategy) {
+        this.movementStrategy = movementStrategy;
+    }
+
+    public void setMovementRadius(int movementRadius) {
+        this.movementRadius = movementRadius;
+    }
+
+    public void setLotteryOfFunding(boolean lotteryOfFunding) {
+        this.lotteryOfFunding = lotteryOfFunding;
+    }
+
+    public void setWriteOutputFile(boolean writeOutputFile) {
+        this.writeOutputFile = writeOutputFile;
+    }
+
+    public void setWriteEventJournal(boolean writeEventJournal) {
+        this.writeEventJournal = writeEventJournal;
+    }
+
+    public void setRecordLineage(boolean recordLineage) {
+        this.recordLineage = recordLineage;
+    }
+
+    public void setFingerprintInterval(int fingerprintInterval) {
+        this.fingerprintInterval = fingerprintInterval;
+    }
+
+    public void setBudgetOfAgency(int budgetOfAgency) {
+        this.budgetOfAgency = budgetOfAgency;
+    }
+
+    public void setProportionOfBigGrants(double proportionOfBigGrants) {
+        this.proportionOfBigGrants = proportionOfBigGrants;
+    }
+
+    public void setIncludeNoiseInEvaluation(boolean includeNoiseInEvaluation) {
+        this.includeNoiseInEvaluation = includeNoiseInEvaluation;
+    }
+
+    public void setEvaluationNoise(double evaluationNoise) {
+        this.evaluationNoise = evaluationNoise;
+    }
+
+    public void setProbabilityOfEffortMutation(double probabilityOfEffortMutation) {
+        this.probabilityOfEffortMutation = probabilityOfEffortMutation;
+    }
+
+    public void setStandardDeviationOfEffortMutation(double standardDeviationOfEffortMutation) {
+        this.standardDeviationOfEffortMutation = standardDeviationOfEffortMutation;
+    }
+
+    public void setMaximumTopicMutationDistance(int maximumTopicMutationDistance) {
+        this.maximumTopicMutationDistance = maximumTopicMutationDistance;
+    }
+    //endregion
 }
@@ -3,11 +3,10 @@ import sim.engine.SimState;
 import sim.portrayal.DrawInfo2D;
 import sim.portrayal.Inspector;
 import sim.portrayal.grid.SparseGridPortrayal2D;
-import sim.portrayal.grid.ValueGridPortrayal2D;
 import sim.portrayal.simple.OvalPortrayal2D;
 import sim.util.gui.SimpleColorMap;
-import sim.util.media.chart.HistogramGenerator;
-import sim.util.media.chart.HistogramSeriesAttributes;
+import sim.util.media.chart.BarChartGenerator;
+import sim.util.media.chart.BarChartSeriesAttributes;
 import sim.util.media.chart.TimeSeriesAttributes;
 import sim.util.media.chart.TimeSeriesChartGenerator;
 
@@ -16,10 +15,29 @@ import java.awt.*;
 
 public class ScienceFundingWithUI extends GUIState {
     //region Fields
-    final ValueGridPortrayal2D landscapePortrayal = new ValueGridPortrayal2D();
+    final MipmapGridPortrayal2D landscapePortrayal = new MipmapGridPortrayal2D();
+    final MipmapGridPortrayal2D publicationsPortrayal = new MipmapGridPortrayal2D();
     final SparseGridPortrayal2D labsPortrayal = new SparseGridPortrayal2D();
     public Display2D landscapeDisplay;
     public JFrame landscapeFrame;
+
+    /*
+    The charts and the landscape are drawn from snapshots published by the SnapshotPublisher every snapshotInterval
+    steps, and rendered on the Swing thread every refreshMillis milliseconds.
+     */
+    private final int snapshotInterval = 1;
+    private final int refreshMillis = 100;
+    private SnapshotPublisher snapshotPublisher;
+    private Timer renderTimer;
+    private LandscapeMipmap epistemicMipmap;
+    private LandscapeMipmap publicationMipmap;
+
+    /*
+    Largest side of the landscape display in pixels. Bigger landscapes are drawn from coarser levels of the mipmaps
+    until the user zooms in.
+     */
+    private final int maximumDisplaySize = 800;
+    private long lastRenderedStep;
     //endregion
 
     /**
@@ -30,10 +48,10 @@ public class ScienceFundingWithUI extends GUIState {
     public TimeSeriesAttributes fundsGiniAttributes;
     public TimeSeriesAttributes postdocNumberGiniAttributes;
 
-    public HistogramGenerator fundsHistogram;
-    public HistogramSeriesAttributes fundsDistributionAttributes;
-    public HistogramGenerator postdocNumberHistogram;
-    public HistogramSeriesAttributes postdocNumberDistributionAttributes;
+    public BarChartGenerator fundsHistogram;
+    public BarChartSeriesAttributes fundsDistributionAttributes;
+    public BarChartGenerator postdocNumberHistogram;
+    public BarChartSeriesAttributes postdocNumberDistributionAttributes;
 
     public TimeSeriesChartGenerator landscapeChart;
     public TimeSeriesAttributes discoveredMeanAttributes;
@@ -98,8 +116,8 @@ public class ScienceFundingWithUI extends GUIState {
     }
 
     /**
-     * Starts the visualization. This clears all previous chart and then allocates
-     * the Attribs object that monitor the evolution of the measures. Finalizes by setting up the
+     * Starts the visualization. This clears all previous chart and then sets up the snapshot publisher
+     * and the timer that feed the measures to the charts. Finalizes by setting up the
      * portrayal of the current simulation state.
      */
     @Override
@@ -109,15 +127,7 @@ public class ScienceFundingWithUI extends GUIState {
         timeSeriesChart.clearAllSeries();
         landscapeChart.clearAllSeries();
         publicationChart.clearAllSeries();
-        ChartUtilities.scheduleSeries(this, falseDiscoveryRateAttributes, () -> ((ScienceFunding) state).getFalseDiscoveryRate());
-        ChartUtilities.scheduleSeries(this, fundsGiniAttributes, () -> ((ScienceFunding) state).getFundsGini());
-        ChartUtilities.scheduleSeries(this, postdocNumberGiniAttributes, () -> ((ScienceFunding) state).getPostdocNumberGini());
-        ChartUtilities.scheduleSeries(this, fundsDistributionAttributes, () -> ((ScienceFunding) state).getFundsDistribution());
-        ChartUtilities.scheduleSeries(this, postdocNumberDistributionAttributes, () -> ((ScienceFunding) state).getPostdocNumberDistribution());
-        ChartUtilities.scheduleSeries(this, discoveredMeanAttributes, () -> ((ScienceFunding) state).getDiscoveredMean());
-        ChartUtilities.scheduleSeries(this, discoveredStandardDevAttributes, () -> ((ScienceFunding) state).getDiscoveredStandardDev());
-        ChartUtilities.scheduleSeries(this, publicationMeanAttributes, () -> ((ScienceFunding) state).getPublicationMean());
-        ChartUtilities.scheduleSeries(this, publicationStandardDevAttributes, () -> ((ScienceFunding) state).getPublicationStandardDev());
+        setupSnapshots();
         setupPortrayals((ScienceFunding) getSimulationInspectedObject());
     }
 
@@ -129,27 +139,94 @@ public class ScienceFundingWithUI extends GUIState {
     @Override
     public void load(SimState state) {
         super.load(state);
-        ChartUtilities.scheduleSeries(this, falseDiscoveryRateAttributes, ((ScienceFunding) state)::getDiscoveredMean);
-        ChartUtilities.scheduleSeries(this, fundsGiniAttributes, ((ScienceFunding) state)::getFundsGini);
-        ChartUtilities.scheduleSeries(this, postdocNumberGiniAttributes, ((ScienceFunding) state)::getPostdocNumberGini);
-        ChartUtilities.scheduleSeries(this, fundsDistributionAttributes, ((ScienceFunding) state)::getFundsDistribution);
-        ChartUtilities.scheduleSeries(this, postdocNumberDistributionAttributes, ((ScienceFunding) state)::getPostdocNumberDistribution);
-        ChartUtilities.scheduleSeries(this, discoveredMeanAttributes, ((ScienceFunding) state)::getDiscoveredMean);
-        ChartUtilities.scheduleSeries(this, discoveredStandardDevAttributes, ((ScienceFunding) state)::getDiscoveredStandardDev);
-        ChartUtilities.scheduleSeries(this, publicationMeanAttributes, ((ScienceFunding) state)::getPublicationMean);
-        ChartUtilities.scheduleSeries(this, publicationStandardDevAttributes, ((ScienceFunding) state)::getPublicationStandardDev);
+        setupSnapshots();
         setupPortrayals((ScienceFunding) state);
     }
 
     /**
-     * Sets up both the charts and the visualization of the labs on the epistemic landscape.
+     * Creates the snapshot publisher, schedules it to run in the simulation thread after every step, and starts
+     * the Swing timer that renders the latest snapshot into the charts and the landscape display.
+     */
+    private void setupSnapshots() {
+        if (renderTimer != null) {
+            renderTimer.stop();
+        }
+        snapshotPublisher = new SnapshotPublisher((ScienceFunding) state, snapshotInterval);
+        scheduleRepeatingImmediatelyAfter(snapshotPublisher);
+        lastRenderedStep = -1;
+        renderTimer = new Timer(refreshMillis, event -> renderLatestSnapshot());
+        renderTimer.start();
+    }
+
+    /**
+     * Called on the Swing thread by the render timer. Adds the measures of the latest snapshot to the time series,
+     * replaces the histogram values, and updates the tiles of the landscape mipmaps that changed.
+     * Only snapshots newer than the last rendered one are drawn.
+     */
+    private void renderLatestSnapshot() {
+        SnapshotPublisher.Snapshot snapshot = snapshotPublisher.acquireLatest();
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            if (snapshot.step <= lastRenderedStep) {
+                return;
+            }
+            long step = snapshot.step;
+            falseDiscoveryRateAttributes.getSeries().add(step, snapshot.falseDiscoveryRate, true);
+            fundsGiniAttributes.getSeries().add(step, snapshot.fundsGini, true);
+            postdocNumberGiniAttributes.getSeries().add(step, snapshot.postdocNumberGini, true);
+            discoveredMeanAttributes.getSeries().add(step, snapshot.discoveredMean, true);
+            discoveredStandardDevAttributes.getSeries().add(step, snapshot.discoveredStandardDev, true);
+            publicationMeanAttributes.getSeries().add(step, snapshot.publicationMean, true);
+            publicationStandardDevAttributes.getSeries().add(step, snapshot.publicationStandardDev, true);
+            fundsDistributionAttributes.setValues(snapshot.fundsHistogram.clone());
+            fundsDistributionAttributes.setLabels(histogramLabels(snapshot.fundsHistogram.length));
+            postdocNumberDistributionAttributes.setValues(snapshot.postdocNumberHistogram.clone());
+            postdocNumberDistributionAttributes.setLabels(histogramLabels(snapshot.postdocNumberHistogram.length));
+            timeSeriesChart.updateChartLater(step);
+            landscapeChart.updateChartLater(step);
+            publicationChart.updateChartLater(step);
+            fundsHistogram.updateChartLater(step);
+            postdocNumberHistogram.updateChartLater(step);
+
+            if (epistemicMipmap != null && snapshot.epistemicLandscape != null) {
+                boolean landscapeChanged = epistemicMipmap.update(snapshot.epistemicLandscape, snapshot.epistemicTileVersions, snapshot.version);
+                landscapeChanged |= publicationMipmap.update(snapshot.publicationRecordOfTopics, snapshot.publicationTileVersions, snapshot.version);
+                if (landscapeChanged) {
+                    landscapeDisplay.repaint();
+                }
+            }
+            lastRenderedStep = step;
+        } finally {
+            snapshotPublisher.release(snapshot);
+        }
+    }
+
+    /**
+     * @param numberOfBins Number of bins of a histogram kept by Globals.
+     * @return The label of each bin: its value, and "n+" for the last bin, which also counts every value above it.
+     */
+    private static String[] histogramLabels(int numberOfBins) {
+        return new IntegerHistogram(numberOfBins).getBinLabels();
+    }
+
+    /**
+     * Sets up the visualization of the labs on the epistemic landscape.
+     * The landscape and publication portrayals draw mipmaps owned by the UI, which are refreshed from published snapshots.
      * This follows students tutorial available in Mason Manual, p. 33.
      * The last lines define the colors of the portrayal of the epistemic landscape.
      *
      * @param state Simulation state casted as ScienceFunding.
      */
     public void setupPortrayals(ScienceFunding state) {
-        landscapePortrayal.setField(state.getEpistemicLandscape());
+        int sizeOfLandscape = state.getSizeOfLandscape();
+        epistemicMipmap = new LandscapeMipmap(sizeOfLandscape, sizeOfLandscape, state.getInitialBaseRate()); // refreshed from snapshots by renderLatestSnapshot.
+        epistemicMipmap.setTo(state.getEpistemicLandscape().toGrid());
+        publicationMipmap = new LandscapeMipmap(sizeOfLandscape, sizeOfLandscape, 0);
+        publicationMipmap.setTo(state.getPublicationRecordOfTopics());
+        landscapePortrayal.setField(epistemicMipmap);
+        publicationsPortrayal.setField(publicationMipmap);
         labsPortrayal.setField(state.getLocationOfLaboratories());
         labsPortrayal.setPortrayalForAll(new OvalPortrayal2D() {
             public void draw(Object object, Graphics2D graphics, DrawInfo2D info) {
@@ -161,6 +238,9 @@ public class ScienceFundingWithUI extends GUIState {
         SimpleColorMap colorsOfLandscape = new SimpleColorMap();
         colorsOfLandscape.setLevels(0.001, 0.5, new Color(0, 0, 0, 0), new Color(255, 0, 0, 150));
         landscapePortrayal.setMap(colorsOfLandscape);
+        SimpleColorMap colorsOfPublications = new SimpleColorMap();
+        colorsOfPublications.setLevels(0, 50, new Color(0, 0, 0, 0), new Color(0, 0, 255, 150));
+        publicationsPortrayal.setMap(colorsOfPublications);
         landscapeDisplay.reset();
         landscapeDisplay.setBackdrop(Color.white);
         landscapeDisplay.repaint();
@@ -177,13 +257,15 @@ public class ScienceFundingWithUI extends GUIState {
     public void init(Controller console) {
         super.init(console);
         int sizeOfLandscape = ((ScienceFunding) state).getSizeOfLandscape();
-        landscapeDisplay = new Display2D(sizeOfLandscape, sizeOfLandscape, this);
+        int displaySize = Math.min(sizeOfLandscape, maximumDisplaySize);
+        landscapeDisplay = new Display2D(displaySize, displaySize, this);
         landscapeDisplay.setClipping(false);
         landscapeFrame = landscapeDisplay.createFrame();
         landscapeFrame.setTitle("Science Funding");
         console.registerFrame(landscapeFrame);
         landscapeFrame.setVisible(true);
         landscapeDisplay.attach(landscapePortrayal, "Landscape");
+        landscapeDisplay.attach(publicationsPortrayal, "Publications", false);
         landscapeDisplay.attach(labsPortrayal, "labs");
 
         timeSeriesChart = ChartUtilities.buildTimeSeriesChartGenerator(this, "Time series", "Steps");
@@ -191,11 +273,15 @@ public class ScienceFundingWithUI extends GUIState {
         falseDiscoveryRateAttributes = ChartUtilities.addSeries(timeSeriesChart, "False Discovery Rate");
         postdocNumberGiniAttributes = ChartUtilities.addSeries(timeSeriesChart, "Number of Postdocs Gini");
 
-        fundsHistogram = ChartUtilities.buildHistogramGenerator(this, "Distribution of Funds", "Number of Labs");
-        fundsDistributionAttributes = ChartUtilities.addSeries(fundsHistogram, "Total funds (sum)", 5);
+        fundsHistogram = ChartUtilities.buildBarChartGenerator(this, "Distribution of Funds");
+        fundsHistogram.setXAxisLabel("Total funds (years)");
+        fundsHistogram.setYAxisLabel("Number of Labs");
+        fundsDistributionAttributes = ChartUtilities.addSeries(fundsHistogram, "Total funds (sum)");
 
-        postdocNumberHistogram = ChartUtilities.buildHistogramGenerator(this, "Distribution of Number of Postdocs", "number of labs");
-        postdocNumberDistributionAttributes = ChartUtilities.addSeries(postdocNumberHistogram, "Total number of postdocs", 5);
+        postdocNumberHistogram = ChartUtilities.buildBarChartGenerator(this, "Distribution of Number of Postdocs");
+        postdocNumberHistogram.setXAxisLabel("Number of postdocs");
+        postdocNumberHistogram.setYAxisLabel("number of labs");
+        postdocNumberDistributionAttributes = ChartUtilities.addSeries(postdocNumberHistogram, "Total number of postdocs");
 
         landscapeChart = ChartUtilities.buildTimeSeriesChartGenerator(this, "Landscape state", "Steps");
         discoveredMeanAttributes = ChartUtilities.addSeries(landscapeChart, "Mean Base Rate of Landscape");
@@ -212,6 +298,10 @@ public class ScienceFundingWithUI extends GUIState {
     @Override
     public void quit() {
         super.quit();
+        if (renderTimer != null) {
+            renderTimer.stop();
+            renderTimer = null;
+        }
         if (landscapeFrame != null) {
             landscapeFrame.dispose();
         }
@@ -1,6 +1,5 @@
 import sim.engine.SimState;
 import sim.engine.Steppable;
-import sim.field.grid.SparseGrid2D;
 import sim.util.Bag;
 
 import java.util.ArrayList;
@@ -26,15 +25,17 @@ class ScienceMaster implements Steppable {
     @Override
     public void step(SimState state) {
         ScienceFunding simulation = (ScienceFunding) state;
+        simulation.getSimulationMetrics().startPhase(SimulationMetrics.SCIENCE_MASTER);
         updateHighest(simulation);
         Lab dyingLab = chooseDyingLab(simulation);
         createALab(simulation, dyingLab);
+        simulation.getSimulationMetrics().endPhase(SimulationMetrics.SCIENCE_MASTER);
     }
 
     /**
      * To kill a lab, the ScienceMaster chooses 10 random labs from all of them.
      * It then picks the lab with the highest age from those 10 labs.
-     * The chosen lab is removed from the simulation state and from the landscape of labs.
+     * The chosen lab is removed from the population stepper and from the landscape of labs.
      * It will be removed from the bag of all labs by createALab. This allows the dying lab to participate
      * in the drawing of who will get to reproduce. Only after this the lab is completely removed from the simulation.
      *
@@ -43,7 +44,6 @@ class ScienceMaster implements Steppable {
      */
     private Lab chooseDyingLab(ScienceFunding state) {
         Bag allLabs = state.getBagOfAllLabs();
-        SparseGrid2D locationOfLabs = state.getLocationOfLaboratories();
 
         Bag candidatesForDying = new Bag();
         for (int i = 0; i < 10; i++) {
@@ -56,8 +56,12 @@ class ScienceMaster implements Steppable {
 
         candidatesForDying.sort(Comparator.comparing(Lab::getAge));
         Lab dyingLab = (Lab) candidatesForDying.pop();
-        dyingLab.stoppable.stop();
-        locationOfLabs.remove(dyingLab);
+        state.getLabPopulationStepper().removeLab(dyingLab);
+        state.removeLocationOfLab(dyingLab);
+        state.getSimulationMetrics().countDeath();
+        if (state.getLabLineage() != null) {
+            state.getLabLineage().recordDeath(dyingLab.getLabId(), state.schedule.getSteps());
+        }
         return dyingLab;
     }
 
@@ -72,15 +76,15 @@ class ScienceMaster implements Steppable {
      * it came, with slight variations controlled by parameters probabilityOfEffortMutation, standardDeviationOfEffortMutation,
      * and maximumTopicMutationDistance, all controlled in ScienceFunding.
      * The dying lab is considered for the reproduction drawing.
+     * If the lineage is recorded, the new lab is recorded as a child of the lab the postdoc came from.
      * After the drawing, the old lab is removed from the Bag of all labs, and the new lab is added to it, in addition to
-     * the schedule and the landscape.
+     * the population stepper and the landscape.
      *
      * @param state    The Simulation State, cast as ScienceFunding.
      * @param dyingLab The lab that is going to be killed, chosen by chooseDyingLab.
      */
     private void createALab(ScienceFunding state, Lab dyingLab) {
         Bag allLabs = state.getBagOfAllLabs();
-        SparseGrid2D locationOfLabs = state.getLocationOfLaboratories();
 
         ArrayList<Lab> candidatesForReproduction = new ArrayList<>(); // create an empty arraylist for the drawing.
         for (int i = 0; i < allLabs.size(); i++) { // loop through all labs. if the lab doesn't have postdocs, ignore them. if they do, loop through them adding the lab to the ticket list once per postdoc.
@@ -151,8 +155,14 @@ class ScienceMaster implements Steppable {
 
             allLabs.remove(dyingLab);
             allLabs.add(newLab);
-            newLab.stoppable = state.schedule.scheduleRepeating(newLab, 1, 1);
-            locationOfLabs.setObjectLocation(newLab, newLab.xLocationInLandscape, newLab.yLocationInLandscape); // add new lab to epistemic landscape
+            state.getGlobalsObject().removeLabFromHistograms(dyingLab);
+            state.getGlobalsObject().addLabToHistograms(newLab);
+            state.getLabPopulationStepper().addNewLab(newLab);
+            state.updateLocationOfLab(newLab); // add new lab to epistemic landscape
+            state.getSimulationMetrics().countBirth();
+            if (state.getLabLineage() != null) {
+                state.getLabLineage().addBirth(newLab.getLabId(), reproducedLab.getLabId(), state.schedule.getSteps(), newLab.effort);
+            }
         }
     }
 
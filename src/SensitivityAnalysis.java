@@ -0,0 +1,505 @@
+import ec.util.MersenneTwisterFast;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Global sensitivity analysis of the model measures to its parameters, with Morris elementary effects or Sobol indices.
+ * The driver builds a sample design over the parameter ranges, runs every design point as a replicate on all cores,
+ * and computes the indices once every point has run.
+ * MORRIS: trajectories random one-at-a-time paths on a grid of levels. Each trajectory starts at a random grid point
+ * and moves every parameter once by delta = levels / (2 * (levels - 1)), in random order, so it takes
+ * (parameters + 1) runs. levels must be even and at least 2, so that delta is a whole number of grid steps. For every parameter, reports mu, mu* (mean absolute effect) and sigma of its elementary effects.
+ * SOBOL: Saltelli's design with two random matrices A and B of samples rows, plus, for every parameter i,
+ * A with column i taken from B, so it takes samples * (parameters + 2) runs. First order indices use Saltelli (2010)
+ * and total indices use Jansen's estimator.
+ * Design and seeds are deterministic given -seed: every run of a trajectory (Morris) or of a row (Sobol) uses the
+ * same simulation seed, so the differences between them come from the parameters and not from the random stream.
+ * Progress is checkpointed: each finished run is appended to the checkpoint file, whose first line records the study.
+ * Started again with the same arguments, the driver skips the runs already in the file.
+ * Usage:
+ * java SensitivityAnalysis -parameters FILE [-method morris|sobol] [-trajectories 20] [-levels 4] [-samples 64]
+ * [-measures falseDiscoveryRate] [-for 5000] [-threads N] [-seed 1]
+ * [-checkpoint resources/sensitivityCheckpoint.csv] [-keepRunFiles] [-cache DIR] [-metrics PORT]
+ * The parameters file has a line per parameter: its ReplicateRunner name, minimum and maximum. Integer parameters
+ * are rounded, and boolean parameters are true in the upper half of their unit range. Lines starting with # are ignored.
+ * Indices are written to resources/sensitivityIndices.csv. With -cache, design points already in that RunCache
+ * (e.g. from a study with more trajectories and the same seed) are not run again. With -metrics, the progress of the
+ * study, runs found in the checkpoint included, and the runs in progress are served by the MetricsEndpoint on that port.
+ */
+class SensitivityAnalysis {
+
+    //region Methods
+    static final String MORRIS = "morris";
+    static final String SOBOL = "sobol";
+    //endregion
+
+    //region Fields
+    private final String method;
+    private final String[] parameterNames;
+    private final double[] minimums;
+    private final double[] maximums;
+    private final Class<?>[] parameterTypes;
+    private final String[] measureNames;
+    private final int trajectories;
+    private final int levels;
+    private final int samples;
+    private final long steps;
+    private final int threads;
+    private final long seed;
+    private final String checkpointFile;
+    private final boolean keepRunFiles;
+    private RunCache runCache;
+    private final MetricsEndpoint.SweepProgress progress = new MetricsEndpoint.SweepProgress("SensitivityAnalysis");
+
+    /*
+    The design: the point in the unit hypercube of every run, and the group (trajectory or row) it belongs to.
+     */
+    private double[][] design;
+    private int[] groupOfRun;
+    private double[][] results;
+    //endregion
+
+    SensitivityAnalysis(String method, String[] parameterNames, double[] minimums, double[] maximums,
+                        String[] measureNames, int trajectories, int levels, int samples, long steps, int threads,
+                        long seed, String checkpointFile, boolean keepRunFiles) {
+        this.method = method;
+        this.parameterNames = parameterNames;
+        this.minimums = minimums;
+        this.maximums = maximums;
+        this.measureNames = measureNames;
+        this.trajectories = trajectories;
+        this.levels = levels;
+        this.samples = samples;
+        this.steps = steps;
+        this.threads = threads;
+        this.seed = seed;
+        this.checkpointFile = checkpointFile;
+        this.keepRunFiles = keepRunFiles;
+        this.parameterTypes = new Class<?>[parameterNames.length];
+        for (int i = 0; i < parameterNames.length; i++) {
+            parameterTypes[i] = ReplicateRunner.parameterType(parameterNames[i]);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        String parametersFile = null;
+        String method = MORRIS;
+        int trajectories = 20;
+        int levels = 4;
+        int samples = 64;
+        String[] measureNames = {"falseDiscoveryRate"};
+        long steps = 5000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        String checkpointFile = "resources" + File.separator + "sensitivityCheckpoint.csv";
+        boolean keepRunFiles = false;
+        String cacheDirectory = null;
+        int metricsPort = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-parameters": parametersFile = args[++i]; break;
+                case "-method": method = args[++i].toLowerCase(); break;
+                case "-trajectories": trajectories = Integer.parseInt(args[++i]); break;
+                case "-levels": levels = Integer.parseInt(args[++i]); break;
+                case "-samples": samples = Integer.parseInt(args[++i]); break;
+                case "-measures": measureNames = args[++i].split(","); break;
+                case "-for": steps = Long.parseLong(args[++i]); break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                case "-seed": seed = Long.parseLong(args[++i]); break;
+                case "-checkpoint": checkpointFile = args[++i]; break;
+                case "-keepRunFiles": keepRunFiles = true; break;
+                case "-cache": cacheDirectory = args[++i]; break;
+                case "-metrics": metricsPort = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (parametersFile == null) {
+            throw new IllegalArgumentException("A parameters file is required: -parameters FILE");
+        }
+        if (!method.equals(MORRIS) && !method.equals(SOBOL)) {
+            throw new IllegalArgumentException("Unknown method " + method + ", expected morris or sobol");
+        }
+        if (levels < 2 || levels % 2 != 0) {
+            throw new IllegalArgumentException("The number of levels must be even and at least 2, not " + levels);
+        }
+        List<String> names = new ArrayList<>();
+        List<double[]> ranges = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(parametersFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                if (tokens.length != 3) {
+                    throw new IllegalArgumentException("Expected name minimum maximum: " + line);
+                }
+                names.add(tokens[0]);
+                ranges.add(new double[]{Double.parseDouble(tokens[1]), Double.parseDouble(tokens[2])});
+            }
+        }
+        double[] minimums = new double[names.size()];
+        double[] maximums = new double[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            minimums[i] = ranges.get(i)[0];
+            maximums[i] = ranges.get(i)[1];
+        }
+        new File("resources").mkdirs();
+        SensitivityAnalysis analysis = new SensitivityAnalysis(method, names.toArray(new String[0]), minimums, maximums,
+                measureNames, trajectories, levels, samples, steps, threads, seed, checkpointFile, keepRunFiles);
+        if (cacheDirectory != null) {
+            analysis.setRunCache(new RunCache(cacheDirectory));
+        }
+        if (metricsPort > 0) {
+            MetricsEndpoint.getSharedEndpoint(metricsPort).attach(analysis.getProgress());
+        }
+        analysis.run();
+        System.exit(0);
+    }
+
+    /**
+     * Builds the design, reads the checkpoint, runs the missing points, and writes the indices.
+     */
+    void run() throws IOException, InterruptedException, ExecutionException {
+        if (method.equals(MORRIS)) {
+            buildMorrisDesign();
+        } else {
+            buildSobolDesign();
+        }
+        results = new double[design.length][];
+        int alreadyRun = readCheckpoint();
+        if (alreadyRun > 0) {
+            System.err.println("Resuming: " + alreadyRun + " of " + design.length + " runs already done");
+        }
+        progress.setRunsTotal(design.length);
+        progress.addRunsDone(alreadyRun);
+        ScienceFunding.setStepsRequested(steps);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ExecutorCompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+        try (BufferedWriter checkpointWriter = new BufferedWriter(new FileWriter(checkpointFile, true))) {
+            if (alreadyRun == 0) {
+                checkpointWriter.write(describeStudy());
+                checkpointWriter.newLine();
+                checkpointWriter.flush();
+            }
+            int submitted = 0;
+            for (int run = 0; run < design.length; run++) {
+                if (results[run] == null) {
+                    int thisRun = run;
+                    completionService.submit(() -> {
+                        results[thisRun] = runDesignPoint(thisRun);
+                        return thisRun;
+                    });
+                    submitted++;
+                }
+            }
+            for (int i = 0; i < submitted; i++) {
+                int finishedRun = completionService.take().get();
+                writeCheckpointLine(checkpointWriter, finishedRun);
+                progress.addRunsDone(1);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (method.equals(MORRIS)) {
+            writeMorrisIndices();
+        } else {
+            writeSobolIndices();
+        }
+    }
+
+    void setRunCache(RunCache runCache) {
+        this.runCache = runCache;
+    }
+
+    MetricsEndpoint.SweepProgress getProgress() {
+        return progress;
+    }
+
+    private double[] runDesignPoint(int run) {
+        String[] values = new String[parameterNames.length];
+        for (int i = 0; i < parameterNames.length; i++) {
+            values[i] = parameterValue(i, design[run][i]);
+        }
+        ScienceFunding model = ReplicateRunner.configure(parameterNames, values, seed + groupOfRun[run], run);
+        model.setWriteOutputFile(keepRunFiles);
+        return RunCache.run(runCache, model, steps, measureNames);
+    }
+
+    /**
+     * @param parameter The index of the parameter.
+     * @param unitValue Its position in the unit interval.
+     * @return The value of the parameter, as text for ReplicateRunner.
+     */
+    String parameterValue(int parameter, double unitValue) {
+        if (parameterTypes[parameter] == Boolean.TYPE) {
+            return Boolean.toString(unitValue >= 0.5);
+        }
+        double value = minimums[parameter] + unitValue * (maximums[parameter] - minimums[parameter]);
+        if (parameterTypes[parameter] == Integer.TYPE || parameterTypes[parameter] == Long.TYPE) {
+            return Long.toString(Math.round(value));
+        }
+        return Double.toString(value);
+    }
+
+    //region Designs
+    /**
+     * Trajectory t takes runs t * (k + 1) to t * (k + 1) + k. Its base point has every coordinate on one of the
+     * levels / 2 lowest levels, so that adding delta stays inside the unit interval.
+     */
+    private void buildMorrisDesign() {
+        int k = parameterNames.length;
+        double delta = levels / (2.0 * (levels - 1));
+        MersenneTwisterFast random = new MersenneTwisterFast(seed);
+        design = new double[trajectories * (k + 1)][];
+        groupOfRun = new int[design.length];
+        for (int t = 0; t < trajectories; t++) {
+            double[] point = new double[k];
+            for (int i = 0; i < k; i++) {
+                point[i] = random.nextInt(levels / 2) / (double) (levels - 1);
+            }
+            int[] order = new int[k];
+            for (int i = 0; i < k; i++) {
+                order[i] = i;
+            }
+            for (int i = k - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            int firstRun = t * (k + 1);
+            design[firstRun] = point.clone();
+            for (int move = 0; move < k; move++) {
+                point[order[move]] += delta;
+                design[firstRun + move + 1] = point.clone();
+            }
+            for (int run = firstRun; run <= firstRun + k; run++) {
+                groupOfRun[run] = t;
+            }
+        }
+    }
+
+    /**
+     * Row j takes runs j * (k + 2) to j * (k + 2) + k + 1: A_j, B_j, and A_j with column i from B_j for every i.
+     */
+    private void buildSobolDesign() {
+        int k = parameterNames.length;
+        MersenneTwisterFast random = new MersenneTwisterFast(seed);
+        design = new double[samples * (k + 2)][];
+        groupOfRun = new int[design.length];
+        for (int j = 0; j < samples; j++) {
+            double[] a = new double[k];
+            double[] b = new double[k];
+            for (int i = 0; i < k; i++) {
+                a[i] = random.nextDouble();
+            }
+            for (int i = 0; i < k; i++) {
+                b[i] = random.nextDouble();
+            }
+            int firstRun = j * (k + 2);
+            design[firstRun] = a;
+            design[firstRun + 1] = b;
+            for (int i = 0; i < k; i++) {
+                double[] ab = a.clone();
+                ab[i] = b[i];
+                design[firstRun + 2 + i] = ab;
+            }
+            for (int run = firstRun; run < firstRun + k + 2; run++) {
+                groupOfRun[run] = j;
+            }
+        }
+    }
+    //endregion
+
+    //region Checkpoint
+    /**
+     * @return The first line of the checkpoint file, which identifies the study so that a checkpoint is only resumed
+     * with the same design.
+     */
+    private String describeStudy() {
+        StringBuilder description = new StringBuilder("# method=").append(method);
+        if (method.equals(MORRIS)) {
+            description.append(" trajectories=").append(trajectories).append(" levels=").append(levels);
+        } else {
+            description.append(" samples=").append(samples);
+        }
+        description.append(" seed=").append(seed).append(" steps=").append(steps).append(" parameters=");
+        for (int i = 0; i < parameterNames.length; i++) {
+            description.append(i > 0 ? ";" : "").append(parameterNames[i]).append(':').append(minimums[i])
+                    .append(':').append(maximums[i]);
+        }
+        description.append(" measures=").append(String.join(";", measureNames));
+        return description.toString();
+    }
+
+    /**
+     * Fills results with the runs found in the checkpoint file. A last line cut short by an interruption is ignored.
+     *
+     * @return The number of runs read.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    private int readCheckpoint() throws IOException {
+        File file = new File(checkpointFile);
+        if (!file.exists() || file.length() == 0) {
+            return 0;
+        }
+        int runsRead = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String firstLine = reader.readLine();
+            if (!describeStudy().equals(firstLine)) {
+                throw new IllegalStateException("Checkpoint " + checkpointFile + " belongs to another study: " + firstLine);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.split(",");
+                if (tokens.length != measureNames.length + 1) {
+                    continue;
+                }
+                try {
+                    int run = Integer.parseInt(tokens[0]);
+                    double[] measures = new double[measureNames.length];
+                    for (int i = 0; i < measures.length; i++) {
+                        measures[i] = Double.parseDouble(tokens[i + 1]);
+                    }
+                    if (run >= 0 && run < results.length && results[run] == null) {
+                        results[run] = measures;
+                        runsRead++;
+                    }
+                } catch (NumberFormatException exception) {
+                    // a line cut short by an interruption
+                }
+            }
+        }
+        return runsRead;
+    }
+
+    private void writeCheckpointLine(BufferedWriter writer, int run) throws IOException {
+        StringBuilder line = new StringBuilder().append(run);
+        for (double measure : results[run]) {
+            line.append(',').append(measure);
+        }
+        writer.write(line.toString());
+        writer.newLine();
+        writer.flush();
+    }
+    //endregion
+
+    //region Indices
+    /**
+     * Elementary effect of a move = (y after - y before) / delta. Moves with a NaN measure at either end are skipped.
+     */
+    private void writeMorrisIndices() throws IOException {
+        int k = parameterNames.length;
+        double delta = levels / (2.0 * (levels - 1));
+        try (BufferedWriter writer = openIndicesFile("measure,parameter,mu,muStar,sigma,effects")) {
+            for (int m = 0; m < measureNames.length; m++) {
+                double[] sum = new double[k];
+                double[] sumOfAbsolutes = new double[k];
+                double[] sumOfSquares = new double[k];
+                int[] count = new int[k];
+                for (int t = 0; t < trajectories; t++) {
+                    int firstRun = t * (k + 1);
+                    for (int move = 0; move < k; move++) {
+                        int before = firstRun + move;
+                        int after = before + 1;
+                        int parameter = movedParameter(before, after);
+                        double effect = (results[after][m] - results[before][m]) / delta;
+                        if (Double.isNaN(effect)) {
+                            continue;
+                        }
+                        sum[parameter] += effect;
+                        sumOfAbsolutes[parameter] += Math.abs(effect);
+                        sumOfSquares[parameter] += effect * effect;
+                        count[parameter]++;
+                    }
+                }
+                for (int i = 0; i < k; i++) {
+                    double mu = sum[i] / count[i];
+                    double variance = count[i] > 1 ? (sumOfSquares[i] - count[i] * mu * mu) / (count[i] - 1) : Double.NaN;
+                    writer.write(measureNames[m] + "," + parameterNames[i] + "," + mu + "," + sumOfAbsolutes[i] / count[i]
+                            + "," + Math.sqrt(Math.max(variance, 0)) + "," + count[i]);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private int movedParameter(int before, int after) {
+        for (int i = 0; i < parameterNames.length; i++) {
+            if (design[after][i] != design[before][i]) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Runs " + before + " and " + after + " do not differ");
+    }
+
+    /**
+     * With f the measure, V the variance of f over A and B, and rows with a NaN measure skipped:
+     * first order S_i = mean(f(B) * (f(AB_i) - f(A))) / V, total ST_i = mean((f(A) - f(AB_i))^2) / (2 V).
+     */
+    private void writeSobolIndices() throws IOException {
+        int k = parameterNames.length;
+        try (BufferedWriter writer = openIndicesFile("measure,parameter,firstOrder,total,samples")) {
+            for (int m = 0; m < measureNames.length; m++) {
+                double sum = 0;
+                double sumOfSquares = 0;
+                int count = 0;
+                for (int j = 0; j < samples; j++) {
+                    for (int matrix = 0; matrix < 2; matrix++) {
+                        double y = results[j * (k + 2) + matrix][m];
+                        if (!Double.isNaN(y)) {
+                            sum += y;
+                            sumOfSquares += y * y;
+                            count++;
+                        }
+                    }
+                }
+                double mean = sum / count;
+                double variance = sumOfSquares / count - mean * mean;
+                for (int i = 0; i < k; i++) {
+                    double firstOrderSum = 0;
+                    double totalSum = 0;
+                    int rows = 0;
+                    for (int j = 0; j < samples; j++) {
+                        int firstRun = j * (k + 2);
+                        double yA = results[firstRun][m];
+                        double yB = results[firstRun + 1][m];
+                        double yAB = results[firstRun + 2 + i][m];
+                        if (Double.isNaN(yA) || Double.isNaN(yB) || Double.isNaN(yAB)) {
+                            continue;
+                        }
+                        firstOrderSum += yB * (yAB - yA);
+                        totalSum += (yA - yAB) * (yA - yAB);
+                        rows++;
+                    }
+                    writer.write(measureNames[m] + "," + parameterNames[i] + "," + firstOrderSum / rows / variance
+                            + "," + totalSum / rows / (2 * variance) + "," + rows);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private BufferedWriter openIndicesFile(String header) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter("resources" + File.separator + "sensitivityIndices.csv"));
+        writer.write(header);
+        writer.newLine();
+        return writer;
+    }
+    //endregion
+}
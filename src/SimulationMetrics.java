@@ -0,0 +1,477 @@
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Measures where a run spends its time. Each scheduled phase (ScienceMaster, labs, Agency, Globals and output writing)
+ * calls startPhase() and endPhase() around its work, which records the elapsed nanoseconds and, when the JVM supports it,
+ * the bytes allocated by the simulation thread during the phase. The objects that know about model events report
+ * counts of applicants, publications, births, deaths and grants awarded.
+ * SimulationMetrics is scheduled last each step (ordering 4) to close the step: it updates the steps per second and
+ * the estimated time remaining, and optionally writes a row to the per-step profile file.
+ * The measures are exposed through JMX by SimulationMetricsMBean, and, if the run is attached to a MetricsEndpoint,
+ * published each step as an immutable Sample that the endpoint serves over HTTP.
+ * Overhead is two System.nanoTime() calls and, if allocation is measured, two thread allocation lookups per phase.
+ */
+public class SimulationMetrics implements Steppable, SimulationMetricsMBean {
+
+    //region Phases
+    static final int SCIENCE_MASTER = 0;
+    static final int LABS = 1;
+    static final int AGENCY = 2;
+    static final int GLOBALS = 3;
+    static final int OUTPUT = 4;
+    private static final String[] PHASE_NAMES = {"scienceMaster", "labs", "agency", "globals", "output"};
+    //endregion
+
+    //region Fields
+    private final boolean enabled;
+    private final long targetSteps;
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    private final long[] phaseStartNanos = new long[PHASE_NAMES.length];
+    private final long[] phaseStartBytes = new long[PHASE_NAMES.length];
+    private final long[] phaseThisStepNanos = new long[PHASE_NAMES.length];
+    private final long[] phaseThisStepBytes = new long[PHASE_NAMES.length];
+
+    /*
+    Per-phase measures of the last complete step and totals up to it. Replaced by new arrays at the end of every step and
+    never modified afterwards, so that JMX and the endpoint, which read them from other threads, see whole steps only.
+     */
+    private volatile long[] phaseLastStepNanos = new long[PHASE_NAMES.length];
+    private volatile long[] phaseTotalNanos = new long[PHASE_NAMES.length];
+    private volatile long[] phaseLastStepBytes = new long[PHASE_NAMES.length];
+    private volatile long[] phaseTotalBytes = new long[PHASE_NAMES.length];
+
+    private int applicantsThisStep;
+    private int publicationsThisStep;
+    private int birthsThisStep;
+    private int deathsThisStep;
+    private int grantsAwardedThisStep;
+    private int applicantsLastStep;
+    private int publicationsLastStep;
+    private int birthsLastStep;
+    private int deathsLastStep;
+    private int grantsAwardedLastStep;
+    private long totalApplicants;
+    private long totalPublications;
+    private long totalBirths;
+    private long totalDeaths;
+    private long totalGrantsAwarded;
+
+    private long stepsCompleted;
+    private long runStartNanos;
+    private double stepsPerSecond;
+
+    private BufferedWriter profileWriter;
+    private ObjectName registeredName;
+    private MetricsEndpoint endpoint;
+    private long job;
+    private long seed;
+    private volatile Sample publishedSample;
+    //endregion
+
+    /**
+     * The measures of a run at the end of a step, together with the Globals measures reported on the endpoint.
+     * Built on the simulation thread and read by the endpoint's thread, so it is never modified after publication.
+     */
+    static final class Sample {
+        final long job;
+        final long seed;
+        final long step;
+        final long stepsCompleted;
+        final long targetSteps;
+        final double stepsPerSecond;
+        final double estimatedSecondsRemaining;
+        final double falseDiscoveryRate;
+        final double fundsGini;
+        final double postdocNumberGini;
+        final double proportionOfTopicsExplored;
+        final double meanBaseRate;
+        final String[] phaseNames;
+        final long[] phaseLastStepNanos;
+        final long[] phaseTotalNanos;
+
+        private Sample(SimulationMetrics metrics, long step, Globals globalsObject) {
+            this.job = metrics.job;
+            this.seed = metrics.seed;
+            this.step = step;
+            this.stepsCompleted = metrics.stepsCompleted;
+            this.targetSteps = metrics.targetSteps;
+            this.stepsPerSecond = metrics.stepsPerSecond;
+            this.estimatedSecondsRemaining = metrics.getEstimatedSecondsRemaining();
+            this.falseDiscoveryRate = globalsObject.getFalseDiscoveryRateLastWindow();
+            this.fundsGini = globalsObject.getTotalFundsGiniLastWindow();
+            this.postdocNumberGini = globalsObject.getPostdocNumberGiniLastWindow();
+            this.proportionOfTopicsExplored = globalsObject.getProportionOfTopicsExplored();
+            this.meanBaseRate = globalsObject.getMeanBaseRate();
+            this.phaseNames = PHASE_NAMES;
+            this.phaseLastStepNanos = metrics.phaseLastStepNanos;
+            this.phaseTotalNanos = metrics.phaseTotalNanos;
+        }
+    }
+
+    /**
+     * @param enabled     If false, phases are not timed and nothing is written or registered. Counts are still kept.
+     * @param targetSteps Number of steps the run is expected to last, used for the estimated time remaining. 0 if unknown.
+     */
+    SimulationMetrics(boolean enabled, long targetSteps) {
+        this.enabled = enabled;
+        this.targetSteps = targetSteps;
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (enabled && threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled()) {
+            this.allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        } else {
+            this.allocationBean = null;
+        }
+        this.runStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Marks the beginning of a phase. Phases may nest (output writing happens inside the Globals phase).
+     *
+     * @param phase One of the phase constants.
+     */
+    void startPhase(int phase) {
+        if (!enabled) {
+            return;
+        }
+        if (allocationBean != null) {
+            phaseStartBytes[phase] = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        phaseStartNanos[phase] = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a phase and adds its duration and allocation to this step's measures.
+     *
+     * @param phase One of the phase constants, previously passed to startPhase().
+     */
+    void endPhase(int phase) {
+        if (!enabled) {
+            return;
+        }
+        long elapsedNanos = System.nanoTime() - phaseStartNanos[phase];
+        phaseThisStepNanos[phase] += elapsedNanos;
+        if (allocationBean != null) {
+            phaseThisStepBytes[phase] += allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - phaseStartBytes[phase];
+        }
+    }
+
+    void countApplicants(int numberOfApplicants) {
+        applicantsThisStep += numberOfApplicants;
+    }
+
+    void countPublications(int numberOfPublications) {
+        publicationsThisStep += numberOfPublications;
+    }
+
+    void countBirth() {
+        birthsThisStep++;
+    }
+
+    void countDeath() {
+        deathsThisStep++;
+    }
+
+    void countGrantAwarded() {
+        grantsAwardedThisStep++;
+    }
+
+    /**
+     * Closes the step: moves this step's counts to the last step's and updates the totals and the steps completed,
+     * which is done even when timing is disabled because the flight recorder events read them. Then publishes the per-phase
+     * measures of the step, updates the steps per second, writes the profile row if a profile file was opened,
+     * and publishes a Sample if the run is attached to an endpoint.
+     *
+     * @param state The simulation state.
+     */
+    @Override
+    public void step(SimState state) {
+        applicantsLastStep = applicantsThisStep;
+        publicationsLastStep = publicationsThisStep;
+        birthsLastStep = birthsThisStep;
+        deathsLastStep = deathsThisStep;
+        grantsAwardedLastStep = grantsAwardedThisStep;
+        totalApplicants += applicantsThisStep;
+        totalPublications += publicationsThisStep;
+        totalBirths += birthsThisStep;
+        totalDeaths += deathsThisStep;
+        totalGrantsAwarded += grantsAwardedThisStep;
+        applicantsThisStep = 0;
+        publicationsThisStep = 0;
+        birthsThisStep = 0;
+        deathsThisStep = 0;
+        grantsAwardedThisStep = 0;
+        stepsCompleted++;
+        if (enabled) {
+            publishPhaseMeasures();
+            double elapsedSeconds = (System.nanoTime() - runStartNanos) / 1e9;
+            stepsPerSecond = elapsedSeconds > 0 ? stepsCompleted / elapsedSeconds : 0;
+
+            if (profileWriter != null) {
+                try {
+                    writeProfileRow(state.schedule.getSteps());
+                } catch (IOException io) {
+                    io.printStackTrace();
+                }
+            }
+        }
+        if (endpoint != null) {
+            publishedSample = new Sample(this, state.schedule.getSteps(), ((ScienceFunding) state).getGlobalsObject());
+        }
+    }
+
+    /**
+     * Replaces the published per-phase measures with new arrays for the step just finished, and resets the step's.
+     */
+    private void publishPhaseMeasures() {
+        long[] totalNanos = phaseTotalNanos.clone();
+        long[] totalBytes = phaseTotalBytes.clone();
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            totalNanos[i] += phaseThisStepNanos[i];
+            totalBytes[i] += phaseThisStepBytes[i];
+        }
+        phaseLastStepNanos = phaseThisStepNanos.clone();
+        phaseLastStepBytes = phaseThisStepBytes.clone();
+        phaseTotalNanos = totalNanos;
+        phaseTotalBytes = totalBytes;
+        Arrays.fill(phaseThisStepNanos, 0);
+        Arrays.fill(phaseThisStepBytes, 0);
+    }
+
+    /**
+     * Opens the per-step profile file, stored next to the run output as resources/profileN.csv, and writes its header.
+     *
+     * @param job The MASON job number of the run.
+     * @throws IOException If the file cannot be created.
+     */
+    void openProfileFile(long job) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        String fileName = "resources" + System.getProperty("file.separator") + "profile" + job + ".csv";
+        profileWriter = new BufferedWriter(new FileWriter(fileName));
+        StringBuilder header = new StringBuilder("stepNumber");
+        for (String phaseName : PHASE_NAMES) {
+            header.append(',').append(phaseName).append("Nanos");
+        }
+        for (String phaseName : PHASE_NAMES) {
+            header.append(',').append(phaseName).append("AllocatedBytes");
+        }
+        header.append(",applicants,publications,births,deaths,grantsAwarded,stepsPerSecond");
+        profileWriter.write(header.toString());
+        profileWriter.newLine();
+    }
+
+    private void writeProfileRow(long stepNumber) throws IOException {
+        StringBuilder row = new StringBuilder();
+        row.append(stepNumber);
+        for (long nanos : phaseLastStepNanos) {
+            row.append(',').append(nanos);
+        }
+        for (long bytes : phaseLastStepBytes) {
+            row.append(',').append(bytes);
+        }
+        row.append(',').append(applicantsLastStep).append(',').append(publicationsLastStep).append(',')
+                .append(birthsLastStep).append(',').append(deathsLastStep).append(',').append(grantsAwardedLastStep)
+                .append(',').append(stepsPerSecond);
+        profileWriter.write(row.toString());
+        profileWriter.newLine();
+    }
+
+    /**
+     * Registers this object in the platform MBean server, under a name that includes job and seed
+     * so that parallel runs in the same JVM do not collide.
+     *
+     * @param job  The MASON job number of the run.
+     * @param seed The random seed of the run.
+     */
+    void registerMBean(long job, long seed) {
+        if (!enabled) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            registeredName = new ObjectName("ScienceFunding:type=SimulationMetrics,job=" + job + ",seed=" + seed);
+            if (server.isRegistered(registeredName)) {
+                server.unregisterMBean(registeredName);
+            }
+            server.registerMBean(this, registeredName);
+        } catch (JMException exception) {
+            exception.printStackTrace();
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Starts publishing a Sample at the end of every step and makes the run visible on the endpoint.
+     * Works with timing disabled too, in which case the phase times and the speed are reported as 0.
+     *
+     * @param metricsEndpoint The endpoint of this JVM.
+     * @param job             The MASON job number of the run.
+     * @param seed            The random seed of the run.
+     */
+    void attachToEndpoint(MetricsEndpoint metricsEndpoint, long job, long seed) {
+        this.job = job;
+        this.seed = seed;
+        this.endpoint = metricsEndpoint;
+        metricsEndpoint.attach(this);
+    }
+
+    /**
+     * Unregisters the MBean, detaches from the metrics endpoint and closes the profile file, if they were set up.
+     * Called when the simulation finishes.
+     */
+    void close() {
+        if (endpoint != null) {
+            endpoint.detach(this);
+            endpoint = null;
+        }
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException exception) {
+                exception.printStackTrace();
+            }
+            registeredName = null;
+        }
+        if (profileWriter != null) {
+            try {
+                profileWriter.close();
+            } catch (IOException io) {
+                io.printStackTrace();
+            }
+            profileWriter = null;
+        }
+    }
+
+    //region Getters
+    Sample getPublishedSample() {
+        return publishedSample;
+    }
+
+    @Override
+    public String[] getPhaseNames() {
+        return PHASE_NAMES.clone();
+    }
+
+    @Override
+    public long[] getPhaseLastStepNanos() {
+        return phaseLastStepNanos.clone();
+    }
+
+    @Override
+    public long[] getPhaseTotalNanos() {
+        return phaseTotalNanos.clone();
+    }
+
+    @Override
+    public double[] getPhaseMeanNanos() {
+        long[] totalNanos = phaseTotalNanos;
+        long steps = stepsCompleted;
+        double[] meanNanos = new double[PHASE_NAMES.length];
+        for (int i = 0; i < meanNanos.length; i++) {
+            meanNanos[i] = steps > 0 ? (double) totalNanos[i] / steps : 0;
+        }
+        return meanNanos;
+    }
+
+    @Override
+    public long[] getPhaseLastStepAllocatedBytes() {
+        return phaseLastStepBytes.clone();
+    }
+
+    @Override
+    public long[] getPhaseTotalAllocatedBytes() {
+        return phaseTotalBytes.clone();
+    }
+
+    @Override
+    public long getStepsCompleted() {
+        return stepsCompleted;
+    }
+
+    @Override
+    public long getTargetSteps() {
+        return targetSteps;
+    }
+
+    @Override
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
+    /**
+     * @return Seconds left until targetSteps at the current steps per second. NaN if the target is unknown.
+     */
+    @Override
+    public double getEstimatedSecondsRemaining() {
+        if (targetSteps <= 0 || stepsPerSecond <= 0) {
+            return Double.NaN;
+        }
+        return Math.max(targetSteps - stepsCompleted, 0) / stepsPerSecond;
+    }
+
+    @Override
+    public int getApplicantsLastStep() {
+        return applicantsLastStep;
+    }
+
+    @Override
+    public int getPublicationsLastStep() {
+        return publicationsLastStep;
+    }
+
+    @Override
+    public int getBirthsLastStep() {
+        return birthsLastStep;
+    }
+
+    @Override
+    public int getDeathsLastStep() {
+        return deathsLastStep;
+    }
+
+    @Override
+    public int getGrantsAwardedLastStep() {
+        return grantsAwardedLastStep;
+    }
+
+    @Override
+    public long getTotalApplicants() {
+        return totalApplicants;
+    }
+
+    @Override
+    public long getTotalPublications() {
+        return totalPublications;
+    }
+
+    @Override
+    public long getTotalBirths() {
+        return totalBirths;
+    }
+
+    @Override
+    public long getTotalDeaths() {
+        return totalDeaths;
+    }
+
+    @Override
+    public long getTotalGrantsAwarded() {
+        return totalGrantsAwarded;
+    }
+    //endregion
+}
@@ -0,0 +1,47 @@
+/**
+ * JMX management interface of SimulationMetrics. Every getter is exposed as a read-only attribute,
+ * so a running simulation can be watched from JConsole or any other JMX client.
+ * Arrays of per-phase values are ordered as getPhaseNames().
+ */
+public interface SimulationMetricsMBean {
+
+    String[] getPhaseNames();
+
+    long[] getPhaseLastStepNanos();
+
+    long[] getPhaseTotalNanos();
+
+    double[] getPhaseMeanNanos();
+
+    long[] getPhaseLastStepAllocatedBytes();
+
+    long[] getPhaseTotalAllocatedBytes();
+
+    long getStepsCompleted();
+
+    long getTargetSteps();
+
+    double getStepsPerSecond();
+
+    double getEstimatedSecondsRemaining();
+
+    int getApplicantsLastStep();
+
+    int getPublicationsLastStep();
+
+    int getBirthsLastStep();
+
+    int getDeathsLastStep();
+
+    int getGrantsAwardedLastStep();
+
+    long getTotalApplicants();
+
+    long getTotalPublications();
+
+    long getTotalBirths();
+
+    long getTotalDeaths();
+
+    long getTotalGrantsAwarded();
+}
@@ -0,0 +1,34 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event spanning one simulation step, from before the ScienceMaster to after the SimulationMetrics.
+ * Emitted by ScienceFunding. Lets GC pauses and JIT activity be lined up with steps in JDK Mission Control.
+ */
+@Name("ScienceFunding.Step")
+@Label("Simulation Step")
+@Category("Science Funding")
+@Description("One step of the science funding simulation")
+class SimulationStepEvent extends Event {
+
+    @Label("Step")
+    long step;
+
+    @Label("Labs")
+    int numberOfLabs;
+
+    @Label("Applicants")
+    int applicants;
+
+    @Label("Publications")
+    int publications;
+
+    @Label("Grants Awarded")
+    int grantsAwarded;
+
+    @Label("Births")
+    int births;
+}
@@ -0,0 +1,76 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Merges the quantile sketches of a set of replicates into the sketches of the ensemble, and prints their quantiles.
+ * Every run that writes its output file also writes resources/sketchesJOB.dat, with the QuantileSketch of the effort,
+ * prestige and age of the labs over its last aggregation window. The sketches of every sketchesJOB.dat file of a
+ * directory are merged by name, in the order of the file names, so the same runs always give the same quantiles.
+ * Usage: java SketchMerge -runs DIRECTORY [-quantiles 0.1,0.25,0.5,0.75,0.9]
+ * A line per sketch is printed with the number of runs that have it, the number of values it summarises, and its
+ * quantiles.
+ */
+class SketchMerge {
+
+    private SketchMerge() {
+    }
+
+    /**
+     * @param args See the class description.
+     * @throws IOException If a sketch file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String directory = null;
+        double[] fractions = {0.1, 0.25, 0.5, 0.75, 0.9};
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-runs": directory = args[++i]; break;
+                case "-quantiles": fractions = Arrays.stream(args[++i].split(",")).mapToDouble(Double::parseDouble).toArray(); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (directory == null) {
+            throw new IllegalArgumentException("A directory of runs is required: -runs DIRECTORY");
+        }
+        Map<String, Integer> runs = new LinkedHashMap<>();
+        Map<String, QuantileSketch> ensemble = merge(new File(directory), runs);
+        StringBuilder header = new StringBuilder("sketch,runs,count");
+        for (double fraction : fractions) {
+            header.append(",quantile").append(fraction);
+        }
+        System.out.println(header);
+        for (Map.Entry<String, QuantileSketch> sketch : ensemble.entrySet()) {
+            StringBuilder line = new StringBuilder(sketch.getKey()).append(',').append(runs.get(sketch.getKey()))
+                    .append(',').append(sketch.getValue().getCount());
+            for (double quantile : sketch.getValue().quantiles(fractions)) {
+                line.append(',').append(quantile);
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * @param directory Directory with the sketch files of a set of replicates.
+     * @param runs      Filled with the number of files that have each sketch.
+     * @return The merged sketches, by name, in the order they first appear.
+     */
+    static Map<String, QuantileSketch> merge(File directory, Map<String, Integer> runs) throws IOException {
+        File[] sketchFiles = directory.listFiles((parent, fileName) -> fileName.matches("sketches\\d+\\.dat"));
+        if (sketchFiles == null || sketchFiles.length == 0) {
+            throw new IOException("No sketch files in " + directory);
+        }
+        Arrays.sort(sketchFiles);
+        Map<String, QuantileSketch> ensemble = new LinkedHashMap<>();
+        for (File sketchFile : sketchFiles) {
+            for (Map.Entry<String, QuantileSketch> sketch : QuantileSketch.readFile(sketchFile).entrySet()) {
+                ensemble.computeIfAbsent(sketch.getKey(), name -> new QuantileSketch(sketch.getValue().getAccuracy()))
+                        .merge(sketch.getValue());
+                runs.merge(sketch.getKey(), 1, Integer::sum);
+            }
+        }
+        return ensemble;
+    }
+}
@@ -0,0 +1,190 @@
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.field.grid.DoubleGrid2D;
+import sim.field.grid.IntGrid2D;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Publishes copies of the measures and grids that the visualization shows, so the Swing thread never reads
+ * the live simulation while it is being updated.
+ * The publisher is stepped in the simulation thread between steps, where the model is consistent. Every
+ * publishInterval steps it copies the state into the back buffer and swaps it with the front buffer.
+ * The UI takes the front buffer with acquireLatest(), renders it at its own pace, and hands it back with release().
+ * Each buffer is claimed atomically by whoever uses it, so the publisher never writes a buffer the UI is reading.
+ * If the UI is still holding the back buffer when it is time to publish, the publication is skipped: the UI is
+ * behind anyway, and the simulation doesn't wait for it.
+ * The grids are not copied whole: the publisher installs LandscapeTileVersions in the simulation, and a buffer only
+ * copies the tiles that changed since it was last filled. The snapshot carries the versions of its tiles, so the UI
+ * can refresh its mipmaps from the tiles that changed since the snapshot it rendered before.
+ */
+class SnapshotPublisher implements Steppable {
+
+    /**
+     * A copy of everything the visualization needs from one step.
+     */
+    static class Snapshot {
+        final int bufferIndex;
+        long step = -1;
+        double falseDiscoveryRate;
+        double fundsGini;
+        double postdocNumberGini;
+        double discoveredMean;
+        double discoveredStandardDev;
+        double publicationMean;
+        double publicationStandardDev;
+        double[] fundsHistogram = new double[0];
+        double[] postdocNumberHistogram = new double[0];
+        DoubleGrid2D epistemicLandscape;
+        IntGrid2D publicationRecordOfTopics;
+        long version = -1; // the LandscapeTileVersions version the grids are up to. -1 until filled.
+        long[] epistemicTileVersions = new long[0];
+        long[] publicationTileVersions = new long[0];
+
+        Snapshot(int bufferIndex) {
+            this.bufferIndex = bufferIndex;
+        }
+    }
+
+    //region Fields
+    private final int publishInterval;
+    private static final int FREE = 0;
+    private static final int WRITING = 1;
+    private static final int READING = 2;
+
+    private final Snapshot[] buffers = {new Snapshot(0), new Snapshot(1)};
+    private final AtomicIntegerArray bufferStates = new AtomicIntegerArray(2);
+    private volatile int frontBuffer = 0;
+    private volatile boolean published = false;
+    private final LandscapeTileVersions landscapeTileVersions;
+    //endregion
+
+    /**
+     * Creates a publisher of the state of a simulation that has just been started or loaded,
+     * and makes its labs stamp the tiles they change.
+     *
+     * @param simulation      The simulation.
+     * @param publishInterval Number of steps between publications. 1 publishes every step.
+     */
+    SnapshotPublisher(ScienceFunding simulation, int publishInterval) {
+        this.publishInterval = Math.max(publishInterval, 1);
+        this.landscapeTileVersions = new LandscapeTileVersions(simulation.getSizeOfLandscape(), simulation.getSizeOfLandscape());
+        simulation.setLandscapeTileVersions(landscapeTileVersions);
+    }
+
+    /**
+     * Copies the simulation state into the back buffer and makes it the front buffer, if it is time to publish
+     * and the UI isn't holding the back buffer.
+     *
+     * @param state The simulation state.
+     */
+    @Override
+    public void step(SimState state) {
+        ScienceFunding simulation = (ScienceFunding) state;
+        if (simulation.schedule.getSteps() % publishInterval != 0) {
+            return;
+        }
+        int backBuffer = 1 - frontBuffer;
+        if (!bufferStates.compareAndSet(backBuffer, FREE, WRITING)) { // the UI is still reading the back buffer.
+            return;
+        }
+        fill(buffers[backBuffer], simulation);
+        bufferStates.set(backBuffer, FREE);
+        frontBuffer = backBuffer;
+        published = true;
+    }
+
+    /**
+     * Takes the latest published snapshot. It won't be overwritten until it is released.
+     * If the publisher swapped buffers in the meantime, this may be the previous snapshot, which is still complete.
+     *
+     * @return The latest snapshot, or null if nothing has been published yet or the publisher is writing it.
+     */
+    Snapshot acquireLatest() {
+        if (!published) {
+            return null;
+        }
+        int front = frontBuffer;
+        if (!bufferStates.compareAndSet(front, FREE, READING)) {
+            return null;
+        }
+        return buffers[front];
+    }
+
+    /**
+     * Hands back a snapshot obtained with acquireLatest(), so the publisher may overwrite it.
+     *
+     * @param snapshot The snapshot that is no longer being read.
+     */
+    void release(Snapshot snapshot) {
+        bufferStates.set(snapshot.bufferIndex, FREE);
+    }
+
+    private void fill(Snapshot snapshot, ScienceFunding simulation) {
+        snapshot.step = simulation.schedule.getSteps();
+        snapshot.falseDiscoveryRate = simulation.getFalseDiscoveryRate();
+        snapshot.fundsGini = simulation.getFundsGini();
+        snapshot.postdocNumberGini = simulation.getPostdocNumberGini();
+        snapshot.discoveredMean = simulation.getDiscoveredMean();
+        snapshot.discoveredStandardDev = simulation.getDiscoveredStandardDev();
+        snapshot.publicationMean = simulation.getPublicationMean();
+        snapshot.publicationStandardDev = simulation.getPublicationStandardDev();
+        snapshot.fundsHistogram = copyInto(snapshot.fundsHistogram, simulation.getFundsHistogramCounts());
+        snapshot.postdocNumberHistogram = copyInto(snapshot.postdocNumberHistogram, simulation.getPostdocNumberHistogramCounts());
+
+        EpistemicLandscape epistemicLandscape = simulation.getEpistemicLandscape();
+        IntGrid2D publicationGrid = simulation.getPublicationRecordOfTopics();
+        int width = epistemicLandscape.getWidth();
+        int height = epistemicLandscape.getHeight();
+        if (snapshot.epistemicLandscape == null) {
+            snapshot.epistemicLandscape = new DoubleGrid2D(width, height);
+            snapshot.publicationRecordOfTopics = new IntGrid2D(width, height);
+        }
+        long copiedVersion = snapshot.version;
+        snapshot.version = landscapeTileVersions.advance();
+        long[] epistemicTileVersions = landscapeTileVersions.getTileVersions(NeighbourhoodIndex.BASE_RATE);
+        long[] publicationTileVersions = landscapeTileVersions.getTileVersions(NeighbourhoodIndex.PUBLICATIONS);
+        int tilesY = landscapeTileVersions.getTilesY();
+        int tileSize = LandscapeTileVersions.TILE_SIZE;
+        for (int tile = 0; tile < epistemicTileVersions.length; tile++) {
+            int xStart = (tile / tilesY) * tileSize;
+            int xEnd = Math.min(xStart + tileSize, width);
+            int yStart = (tile % tilesY) * tileSize;
+            int yEnd = Math.min(yStart + tileSize, height);
+            if (epistemicTileVersions[tile] > copiedVersion) {
+                for (int x = xStart; x < xEnd; x++) {
+                    double[] column = snapshot.epistemicLandscape.field[x];
+                    for (int y = yStart; y < yEnd; y++) {
+                        column[y] = epistemicLandscape.get(x, y);
+                    }
+                }
+            }
+            if (publicationTileVersions[tile] > copiedVersion) {
+                for (int x = xStart; x < xEnd; x++) {
+                    System.arraycopy(publicationGrid.field[x], yStart, snapshot.publicationRecordOfTopics.field[x], yStart, yEnd - yStart);
+                }
+            }
+        }
+        snapshot.epistemicTileVersions = copyInto(snapshot.epistemicTileVersions, epistemicTileVersions);
+        snapshot.publicationTileVersions = copyInto(snapshot.publicationTileVersions, publicationTileVersions);
+    }
+
+    /**
+     * @return destination if it has the same length as source, or a new array otherwise, with the values of source.
+     */
+    private static double[] copyInto(double[] destination, double[] source) {
+        if (destination.length != source.length) {
+            destination = new double[source.length];
+        }
+        System.arraycopy(source, 0, destination, 0, source.length);
+        return destination;
+    }
+
+    private static long[] copyInto(long[] destination, long[] source) {
+        if (destination.length != source.length) {
+            destination = new long[source.length];
+        }
+        System.arraycopy(source, 0, destination, 0, source.length);
+        return destination;
+    }
+}
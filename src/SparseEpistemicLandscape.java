@@ -0,0 +1,151 @@
+import sim.field.grid.DoubleGrid2D;
+
+import java.util.Arrays;
+
+/**
+ * Epistemic landscape that only stores the topics whose base rate differs from the initial base rate.
+ * Publications only disperse over a small neighbourhood around labs, so most of a big landscape is never touched.
+ * Deviations are kept in a LongDoubleHashMap keyed by x * height + y, so memory is O(touched topics) instead of O(cells).
+ * Setting a topic back to the initial base rate removes it from the map.
+ */
+class SparseEpistemicLandscape implements EpistemicLandscape {
+
+    //region Fields
+    private final int width;
+    private final int height;
+    private final double initialBaseRate;
+    private final LongDoubleHashMap deviatingTopics;
+    private DoubleGrid2D materializedGrid;
+    //endregion
+
+    /**
+     * @param width           Width of the landscape.
+     * @param height          Height of the landscape.
+     * @param initialBaseRate The base rate of every topic that is not stored.
+     */
+    SparseEpistemicLandscape(int width, int height, double initialBaseRate) {
+        this.width = width;
+        this.height = height;
+        this.initialBaseRate = initialBaseRate;
+        this.deviatingTopics = new LongDoubleHashMap();
+    }
+
+    private SparseEpistemicLandscape(int width, int height, double initialBaseRate, LongDoubleHashMap deviatingTopics) {
+        this.width = width;
+        this.height = height;
+        this.initialBaseRate = initialBaseRate;
+        this.deviatingTopics = deviatingTopics;
+    }
+
+    @Override
+    public double get(int x, int y) {
+        return deviatingTopics.get(keyOf(x, y), initialBaseRate);
+    }
+
+    @Override
+    public void set(int x, int y, double baseRate) {
+        if (baseRate == initialBaseRate) {
+            deviatingTopics.remove(keyOf(x, y));
+        } else {
+            deviatingTopics.put(keyOf(x, y), baseRate);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Allocates an array with every topic. This is O(cells), so it should only be used for inspection.
+     */
+    @Override
+    public double[] toArray() {
+        double[] allBaseRates = new double[width * height];
+        Arrays.fill(allBaseRates, initialBaseRate);
+        long[] keys = deviatingTopics.keys;
+        double[] values = deviatingTopics.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] >= 0) {
+                allBaseRates[(int) keys[i]] = values[i];
+            }
+        }
+        return allBaseRates;
+    }
+
+    /**
+     * Topics that are not stored all contribute the initial base rate, so only the stored ones are visited.
+     */
+    @Override
+    public double mean() {
+        double numberOfTopics = (double) width * height;
+        double sum = (numberOfTopics - deviatingTopics.size()) * initialBaseRate;
+        long[] keys = deviatingTopics.keys;
+        double[] values = deviatingTopics.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] >= 0) {
+                sum += values[i];
+            }
+        }
+        return sum / numberOfTopics;
+    }
+
+    @Override
+    public double standardDeviation(double mean) {
+        double numberOfTopics = (double) width * height;
+        double initialDeviation = initialBaseRate - mean;
+        double sumOfSquaredDeviations = (numberOfTopics - deviatingTopics.size()) * initialDeviation * initialDeviation;
+        long[] keys = deviatingTopics.keys;
+        double[] values = deviatingTopics.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] >= 0) {
+                double deviation = values[i] - mean;
+                sumOfSquaredDeviations += deviation * deviation;
+            }
+        }
+        return Math.sqrt(sumOfSquaredDeviations / numberOfTopics);
+    }
+
+    /**
+     * Only copies the stored topics, so this is O(touched topics).
+     */
+    @Override
+    public EpistemicLandscape copy() {
+        return new SparseEpistemicLandscape(width, height, initialBaseRate, deviatingTopics.copy());
+    }
+
+    /**
+     * Copies the landscape into a grid that is allocated on the first call and reused afterwards.
+     */
+    @Override
+    public DoubleGrid2D toGrid() {
+        if (materializedGrid == null) {
+            materializedGrid = new DoubleGrid2D(width, height);
+        }
+        materializedGrid.setTo(initialBaseRate);
+        long[] keys = deviatingTopics.keys;
+        double[] values = deviatingTopics.values;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] >= 0) {
+                materializedGrid.field[(int) (keys[i] / height)][(int) (keys[i] % height)] = values[i];
+            }
+        }
+        return materializedGrid;
+    }
+
+    /**
+     * @return The number of topics whose base rate differs from the initial base rate.
+     */
+    int getNumberOfDeviatingTopics() {
+        return deviatingTopics.size();
+    }
+
+    private long keyOf(int x, int y) {
+        return (long) x * height + y;
+    }
+}
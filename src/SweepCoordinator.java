@@ -0,0 +1,311 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Serves the replicates of a sweep to SweepWorker processes over plain TCP, so a sweep can use several machines.
+ * The coordinator holds a queue of jobs, one per (condition, replicate), with the conditions file format of AdaptiveSweep
+ * and the same seeds (seed + condition * 100000 + replicate). Workers pull: every worker thread keeps a connection
+ * open and asks for a job whenever it is idle, so fast workers take more jobs than slow ones.
+ * A job handed to a connection is in flight until its result comes back. If the connection closes or fails first
+ * (worker killed, machine gone), its job goes back to the front of the queue for the next idle worker. If the run
+ * throws, the worker reports it with FAILED and the job goes to the back of the queue, so the other jobs go on. A job
+ * is given to at most maxAttempts workers: after that it is marked failed, so a job that always throws or kills its
+ * worker cannot keep the sweep from ending. A connection that asks for a job while one is in flight abandons that one,
+ * which counts as an attempt.
+ * The protocol is one line of text per message:
+ * worker: NEXT                  coordinator: JOB id seed steps measure,measure,... parameter=value ...
+ *                                            WAIT (nothing queued, jobs still in flight) or DONE
+ * worker: RESULT id value ...   coordinator: OK
+ * worker: FAILED id reason      coordinator: OK
+ * Results are appended to resources/distributedResults.csv as they arrive, and failed jobs are reported on the
+ * standard error stream. The coordinator exits when every job has a result or has failed.
+ * Usage:
+ * java SweepCoordinator -conditions FILE [-replicates 10] [-measures falseDiscoveryRate,fundsGini] [-for 5000]
+ * [-seed 1] [-port 7070] [-bind 127.0.0.1] [-attempts 3] [-metrics PORT]
+ * Bind to 0.0.0.0 (or a specific interface) to accept workers from other machines.
+ * With -metrics, the jobs total, done and failed are served by a MetricsEndpoint on that port.
+ */
+class SweepCoordinator {
+
+    //region Fields
+    private final String[] measureNames;
+    private final long steps;
+    private final int maxAttempts;
+    private final Deque<Job> queue = new ArrayDeque<>();
+    private final Job[] jobs;
+    private int jobsFinished; // with a result or failed.
+    private int jobsFailed;
+    private BufferedWriter resultsWriter;
+    private final MetricsEndpoint.SweepProgress progress = new MetricsEndpoint.SweepProgress("SweepCoordinator");
+    //endregion
+
+    /**
+     * A replicate of a condition. Its result is null until a worker sends it.
+     * attempts counts the times it was handed to a worker; failed is set when the last attempt allowed ends without a result.
+     */
+    static class Job {
+        final int id;
+        final AdaptiveSweep.Condition condition;
+        final int replicate;
+        final long seed;
+        double[] result;
+        int attempts;
+        boolean failed;
+
+        Job(int id, AdaptiveSweep.Condition condition, int replicate, long seed) {
+            this.id = id;
+            this.condition = condition;
+            this.replicate = replicate;
+            this.seed = seed;
+        }
+    }
+
+    SweepCoordinator(List<AdaptiveSweep.Condition> conditions, int replicates, String[] measureNames, long steps, long seed,
+                     int maxAttempts) {
+        this.measureNames = measureNames;
+        this.steps = steps;
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        List<Job> allJobs = new ArrayList<>();
+        for (int replicate = 0; replicate < replicates; replicate++) {
+            for (AdaptiveSweep.Condition condition : conditions) {
+                Job job = new Job(allJobs.size(), condition, replicate, seed + condition.index * 100000L + replicate);
+                allJobs.add(job);
+                queue.add(job);
+            }
+        }
+        this.jobs = allJobs.toArray(new Job[0]);
+        progress.setRunsTotal(jobs.length);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String conditionsFile = null;
+        int replicates = 10;
+        String[] measureNames = {"falseDiscoveryRate", "fundsGini"};
+        long steps = 5000;
+        long seed = 1;
+        int port = 7070;
+        String bindAddress = InetAddress.getLoopbackAddress().getHostAddress();
+        int maxAttempts = 3;
+        int metricsPort = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-conditions": conditionsFile = args[++i]; break;
+                case "-replicates": replicates = Integer.parseInt(args[++i]); break;
+                case "-measures": measureNames = args[++i].split(","); break;
+                case "-for": steps = Long.parseLong(args[++i]); break;
+                case "-seed": seed = Long.parseLong(args[++i]); break;
+                case "-port": port = Integer.parseInt(args[++i]); break;
+                case "-bind": bindAddress = args[++i]; break;
+                case "-attempts": maxAttempts = Integer.parseInt(args[++i]); break;
+                case "-metrics": metricsPort = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (conditionsFile == null) {
+            throw new IllegalArgumentException("A conditions file is required: -conditions FILE");
+        }
+        List<AdaptiveSweep.Condition> conditions = AdaptiveSweep.readConditions(conditionsFile, measureNames.length);
+        for (AdaptiveSweep.Condition condition : conditions) {
+            ReplicateRunner.configure(condition.parameterNames, condition.parameterValues, seed, 0); // fail before serving
+        }
+        new File("resources").mkdirs();
+        SweepCoordinator coordinator = new SweepCoordinator(conditions, replicates, measureNames, steps, seed, maxAttempts);
+        if (metricsPort > 0) {
+            MetricsEndpoint.getSharedEndpoint(metricsPort).attach(coordinator.getProgress());
+        }
+        coordinator.serve(new InetSocketAddress(bindAddress, port));
+        System.exit(0);
+    }
+
+    /**
+     * Accepts worker connections, each served by its own thread, until every job has a result or has failed.
+     *
+     * @param address The address and port to listen on.
+     * @throws IOException If the server socket cannot be opened or the results cannot be written.
+     */
+    void serve(InetSocketAddress address) throws IOException {
+        resultsWriter = new BufferedWriter(new FileWriter("resources" + File.separator + "distributedResults.csv"));
+        resultsWriter.write("condition,replicate,seed,job,worker," + String.join(",", measureNames));
+        resultsWriter.newLine();
+        resultsWriter.flush();
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.bind(address);
+            System.err.println("Coordinator listening on " + serverSocket.getLocalSocketAddress() + " with " + jobs.length + " jobs");
+            Thread acceptor = new Thread(() -> {
+                while (true) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        Thread connection = new Thread(() -> handle(socket), "worker " + socket.getRemoteSocketAddress());
+                        connection.setDaemon(true);
+                        connection.start();
+                    } catch (IOException exception) {
+                        return; // the server socket was closed
+                    }
+                }
+            }, "acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            synchronized (this) {
+                while (jobsFinished < jobs.length) {
+                    try {
+                        wait();
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                resultsWriter.close();
+            }
+        }
+        System.err.println("All " + jobs.length + " jobs finished, " + jobsFailed + " of them failed");
+    }
+
+    /**
+     * Serves one worker connection. The job in flight on this connection, if any, is released when the worker reports
+     * that it failed, when the worker asks for another one, or when the connection ends without sending its result.
+     */
+    private void handle(Socket socket) {
+        Job inFlight = null;
+        String worker = socket.getRemoteSocketAddress().toString();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            socket.setKeepAlive(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens[0].equals("NEXT")) {
+                    if (inFlight != null) {
+                        release(inFlight, "abandoned by worker " + worker, false);
+                    }
+                    inFlight = take();
+                    if (inFlight != null) {
+                        out.println(describe(inFlight));
+                    } else {
+                        out.println(isFinished() ? "DONE" : "WAIT");
+                    }
+                } else if (tokens[0].equals("RESULT") && inFlight != null && Integer.parseInt(tokens[1]) == inFlight.id) {
+                    double[] result = new double[measureNames.length];
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = Double.parseDouble(tokens[i + 2]);
+                    }
+                    finish(inFlight, result, worker);
+                    inFlight = null;
+                    out.println("OK");
+                } else if (tokens[0].equals("FAILED") && inFlight != null && Integer.parseInt(tokens[1]) == inFlight.id) {
+                    String[] parts = line.trim().split("\\s+", 3);
+                    release(inFlight, "failed on worker " + worker + (parts.length > 2 ? ": " + parts[2] : ""), false);
+                    inFlight = null;
+                    out.println("OK");
+                } else {
+                    out.println("ERROR unexpected " + line);
+                }
+            }
+        } catch (SocketException exception) {
+            // the worker went away; its job is requeued below
+        } catch (IOException | RuntimeException exception) {
+            exception.printStackTrace();
+        } finally {
+            if (inFlight != null) {
+                release(inFlight, "worker " + worker + " left", true);
+            }
+            try {
+                socket.close();
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    MetricsEndpoint.SweepProgress getProgress() {
+        return progress;
+    }
+
+    private String describe(Job job) {
+        StringBuilder message = new StringBuilder("JOB ").append(job.id).append(' ').append(job.seed).append(' ')
+                .append(steps).append(' ').append(String.join(",", measureNames));
+        for (int i = 0; i < job.condition.parameterNames.length; i++) {
+            message.append(' ').append(job.condition.parameterNames[i]).append('=').append(job.condition.parameterValues[i]);
+        }
+        return message.toString();
+    }
+
+    private synchronized Job take() {
+        Job job = queue.pollFirst();
+        if (job != null) {
+            job.attempts++;
+        }
+        return job;
+    }
+
+    /**
+     * Puts back a job that was in flight and ended without a result, or marks it failed if it had all its attempts.
+     *
+     * @param job    The job.
+     * @param reason What happened to it, for the log.
+     * @param first  If true the job goes to the front of the queue, as when its worker went away; if false, to the back,
+     *               as when the run itself failed, so the other jobs are tried before it again.
+     */
+    private synchronized void release(Job job, String reason, boolean first) {
+        if (job.result != null || job.failed) {
+            return;
+        }
+        if (job.attempts >= maxAttempts) {
+            job.failed = true;
+            jobsFailed++;
+            jobsFinished++;
+            progress.runFailed();
+            System.err.println("Job " + job.id + " (" + job.condition.name + ", replicate " + job.replicate + ") " + reason
+                    + ", and failed after " + job.attempts + " attempts");
+            notifyAll();
+        } else {
+            if (first) {
+                queue.addFirst(job);
+            } else {
+                queue.addLast(job);
+            }
+            System.err.println("Job " + job.id + " " + reason + ", requeued");
+        }
+    }
+
+    private synchronized boolean isFinished() {
+        return jobsFinished == jobs.length;
+    }
+
+    private synchronized void finish(Job job, double[] result, String worker) throws IOException {
+        if (job.result != null || job.failed) {
+            return;
+        }
+        job.result = result;
+        jobsFinished++;
+        progress.addRunsDone(1);
+        StringBuilder line = new StringBuilder();
+        line.append(job.condition.name).append(',').append(job.replicate).append(',').append(job.seed).append(',')
+                .append(job.id).append(',').append(worker);
+        for (double value : result) {
+            line.append(',').append(value);
+        }
+        resultsWriter.write(line.toString());
+        resultsWriter.newLine();
+        resultsWriter.flush();
+        notifyAll();
+    }
+}
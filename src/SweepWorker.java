@@ -0,0 +1,146 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs jobs served by a SweepCoordinator. Every worker thread opens its own connection and loops: it asks for a job,
+ * runs it with ReplicateRunner, and sends back the measures. It waits and asks again when the coordinator has nothing
+ * queued but jobs are still in flight elsewhere (one of them may be requeued), and stops when the coordinator answers
+ * DONE or closes the connection. Replicates do not write their resources/runJOB.csv files.
+ * A run that throws is reported to the coordinator with FAILED, and the worker goes on with the next job.
+ * Usage:
+ * java SweepWorker [-coordinator 127.0.0.1:7070] [-threads N] [-cache DIR] [-metrics PORT]
+ * With -cache, jobs already in that RunCache are answered from it. Workers on one machine can share the directory.
+ * With -metrics, the runs in progress are served by a MetricsEndpoint on that port.
+ */
+class SweepWorker implements Runnable {
+
+    //region Fields
+    private static final long WAIT_MILLIS = 1000;
+    private static final int CONNECTION_ATTEMPTS = 10;
+
+    private final String host;
+    private final int port;
+    private final RunCache runCache;
+    //endregion
+
+    SweepWorker(String host, int port, RunCache runCache) {
+        this.host = host;
+        this.port = port;
+        this.runCache = runCache;
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        String coordinator = "127.0.0.1:7070";
+        int threads = Runtime.getRuntime().availableProcessors();
+        String cacheDirectory = null;
+        int metricsPort = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-coordinator": coordinator = args[++i]; break;
+                case "-threads": threads = Integer.parseInt(args[++i]); break;
+                case "-cache": cacheDirectory = args[++i]; break;
+                case "-metrics": metricsPort = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        int colon = coordinator.lastIndexOf(':');
+        String host = coordinator.substring(0, colon);
+        int port = Integer.parseInt(coordinator.substring(colon + 1));
+        RunCache runCache = cacheDirectory == null ? null : new RunCache(cacheDirectory);
+        if (metricsPort > 0) {
+            MetricsEndpoint.getSharedEndpoint(metricsPort);
+        }
+        Thread[] workerThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workerThreads[i] = new Thread(new SweepWorker(host, port, runCache), "sweep worker " + i);
+            workerThreads[i].start();
+        }
+        for (Thread workerThread : workerThreads) {
+            workerThread.join();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Connects, retrying for a while in case the coordinator is still starting, and then serves jobs until done.
+     */
+    @Override
+    public void run() {
+        for (int attempt = 1; attempt <= CONNECTION_ATTEMPTS; attempt++) {
+            try (Socket socket = new Socket(host, port)) {
+                serveJobs(socket);
+                return;
+            } catch (ConnectException exception) {
+                sleep();
+            } catch (IOException exception) {
+                return; // the coordinator closed the connection: the sweep is over
+            }
+        }
+        System.err.println("Could not connect to coordinator at " + host + ":" + port);
+    }
+
+    private void serveJobs(Socket socket) throws IOException {
+        socket.setKeepAlive(true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        while (true) {
+            out.println("NEXT");
+            String reply = in.readLine();
+            if (reply == null || reply.equals("DONE")) {
+                return;
+            }
+            if (reply.equals("WAIT")) {
+                sleep();
+                continue;
+            }
+            String[] tokens = reply.split("\\s+");
+            if (!tokens[0].equals("JOB")) {
+                throw new IOException("Unexpected message from coordinator: " + reply);
+            }
+            int id = Integer.parseInt(tokens[1]);
+            long seed = Long.parseLong(tokens[2]);
+            long steps = Long.parseLong(tokens[3]);
+            String[] measureNames = tokens[4].split(",");
+            String[] parameterNames = new String[tokens.length - 5];
+            String[] parameterValues = new String[tokens.length - 5];
+            for (int i = 5; i < tokens.length; i++) {
+                int equals = tokens[i].indexOf('=');
+                parameterNames[i - 5] = tokens[i].substring(0, equals);
+                parameterValues[i - 5] = tokens[i].substring(equals + 1);
+            }
+            StringBuilder result;
+            try {
+                ScienceFunding.setStepsRequested(steps);
+                ScienceFunding model = ReplicateRunner.configure(parameterNames, parameterValues, seed, id);
+                model.setWriteOutputFile(false);
+                double[] measures = RunCache.run(runCache, model, steps, measureNames);
+                result = new StringBuilder("RESULT ").append(id);
+                for (double measure : measures) {
+                    result.append(' ').append(measure);
+                }
+            } catch (RuntimeException exception) {
+                exception.printStackTrace();
+                result = new StringBuilder("FAILED ").append(id).append(' ')
+                        .append(String.valueOf(exception).replaceAll("\\s+", " "));
+            }
+            out.println(result);
+            if (in.readLine() == null) {
+                return;
+            }
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(WAIT_MILLIS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+
+/**
+ * Hashes of the state of a run every few steps, to check that a faster way of running the model follows exactly the
+ * same trajectory as the original. Compare the files of two runs with FingerprintVerifier.
+ * Every fingerprintInterval steps, at the end of the step, each component of the state is written in a canonical form
+ * into its own SHA-256, of which the first 8 bytes are kept:
+ * LANDSCAPE    width, height and the bits of the base rate of every topic, column by column
+ * PUBLICATIONS width, height and the publications of every topic, column by column
+ * LABS         number of labs and, by labId, labId, x, y, and the bits of effort, prestige and score, age and postdocs
+ * GRANTS       by labId, labId, number of grants and the years left of each, in the order the lab keeps them
+ * RANDOM       the state of the simulation's MersenneTwisterFast, as written by writeState
+ * MEASURES     the aggregations Globals published for steps up to this one, in order of their step: each is hashed
+ *              with the hash of those before it, and holds its step, the bits of every per-turn and windowed measure,
+ *              the lab distributions, the histogram counts and the quantile sketches
+ * Hashing the components separately tells which part of the state diverged first, not only when.
+ * The measures component is what checks ways of measuring (GridStatistics, backgroundGlobals) rather than of running.
+ * As measures are matched by the step they measure, not by the step they are published in, a run that publishes
+ * them later (backgroundGlobals) gives the same fingerprints. A record is therefore written once an aggregation of a
+ * later step is published, or when the run finishes.
+ * The file, resources/fingerprintJOB.dat, starts with a header of HEADER_LENGTH bytes (MAGIC, FORMAT_VERSION, the number
+ * of components, the interval and the seed) followed by a record of RECORD_LENGTH bytes per fingerprint: the step and
+ * the hash of every component, all little endian longs. Hashing costs O(topics + labs + grants) per fingerprint.
+ */
+class TrajectoryFingerprint {
+
+    //region Format
+    static final int MAGIC = 0x50465446; // "FTFP" in little endian
+    static final int FORMAT_VERSION = 2;
+    static final int HEADER_LENGTH = 32;
+    static final String[] COMPONENTS = {"landscape", "publications", "labs", "grants", "random", "measures"};
+    static final int LANDSCAPE = 0;
+    static final int PUBLICATIONS = 1;
+    static final int LABS = 2;
+    static final int GRANTS = 3;
+    static final int RANDOM = 4;
+    static final int MEASURES = 5;
+    static final int RECORD_LENGTH = 8 * (1 + COMPONENTS.length);
+    //endregion
+
+    //region Fields
+    private final int interval;
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private final MessageDigest digest;
+    private final ByteBuffer scratch = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+    private final Deque<long[]> pendingRecords = new ArrayDeque<>(); // the step and the hashes of the state.
+    private long measuresHash; // of every aggregation published so far.
+    //endregion
+
+    /**
+     * Creates the fingerprint file of a run, replacing any of the same job.
+     *
+     * @param job      The MASON job of the run.
+     * @param interval Number of steps between fingerprints. Steps 0, interval, 2 * interval... are fingerprinted.
+     * @param seed     The seed of the run.
+     * @throws IOException If the file cannot be created.
+     */
+    TrajectoryFingerprint(long job, int interval, long seed) throws IOException {
+        this(new File("resources", "fingerprint" + job + ".dat"), interval, seed);
+    }
+
+    TrajectoryFingerprint(File file, int interval, long seed) throws IOException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The fingerprint interval must be positive, not " + interval);
+        }
+        this.interval = interval;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("SHA-256 is not available", exception);
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(COMPONENTS.length).putInt(interval).putLong(seed).putLong(0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * Hashes the state if the current step is a multiple of the interval. Called at the end of every step.
+     * The fingerprint is written once the measures of the step are known (see measured()).
+     *
+     * @param state The simulation state.
+     */
+    void record(ScienceFunding state) {
+        long step = state.schedule.getSteps();
+        if (step % interval != 0) {
+            return;
+        }
+        long[] pending = new long[1 + COMPONENTS.length];
+        pending[0] = step;
+        System.arraycopy(hash(state), 0, pending, 1, COMPONENTS.length);
+        pendingRecords.addLast(pending);
+    }
+
+    /**
+     * Adds an aggregation published by Globals to the measures component, after writing the fingerprints of the
+     * steps before it, which hold every aggregation up to their step. Aggregations are published in order of step.
+     *
+     * @param measures The measures just published.
+     */
+    void measured(Globals.Measures measures) {
+        writePendingRecords(measures.step);
+        putLong(measuresHash);
+        putLong(measures.step);
+        putLong(Double.doubleToLongBits(measures.meanBaseRate));
+        putLong(Double.doubleToLongBits(measures.baseRateSDev));
+        putLong(Double.doubleToLongBits(measures.proportionOfTopicsExplored));
+        putLong(Double.doubleToLongBits(measures.meanPublicationsPerTopic));
+        putLong(Double.doubleToLongBits(measures.publicationsPerTopicSDev));
+        putLong(Double.doubleToLongBits(measures.falseDiscoveryRateLastWindow));
+        putLong(Double.doubleToLongBits(measures.meanTotalFundsLastWindow));
+        putLong(Double.doubleToLongBits(measures.totalFundsGiniLastWindow));
+        putLong(Double.doubleToLongBits(measures.postdocNumberMeanLastWindow));
+        putLong(Double.doubleToLongBits(measures.postdocNumberGiniLastWindow));
+        putDoubles(measures.totalFundsDistribution);
+        putDoubles(measures.postdocNumberDistribution);
+        putHistogram(measures.totalFundsHistogram);
+        putHistogram(measures.postdocNumberHistogram);
+        flushScratch();
+        try (DataOutputStream sketches = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+            for (QuantileSketch sketch : new QuantileSketch[]{measures.effortSketch, measures.prestigeSketch, measures.ageSketch}) {
+                sketch.write(sketches);
+            }
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        measuresHash = finishHash();
+    }
+
+    /**
+     * Writes the fingerprints of the steps before a step, with the measures published so far.
+     */
+    private void writePendingRecords(long beforeStep) {
+        while (!pendingRecords.isEmpty() && pendingRecords.peekFirst()[0] < beforeStep) {
+            long[] pending = pendingRecords.pollFirst();
+            pending[1 + MEASURES] = measuresHash;
+            record.clear();
+            for (long value : pending) {
+                record.putLong(value);
+            }
+            record.flip();
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } catch (IOException io) {
+                io.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @param state The simulation state.
+     * @return The hash of every component of the state, in the order of COMPONENTS. The measures component is 0:
+     * it is added by measured().
+     */
+    long[] hash(ScienceFunding state) {
+        long[] hashes = new long[COMPONENTS.length];
+
+        EpistemicLandscape epistemicLandscape = state.getEpistemicLandscape();
+        putInt(epistemicLandscape.getWidth());
+        putInt(epistemicLandscape.getHeight());
+        for (int x = 0; x < epistemicLandscape.getWidth(); x++) {
+            for (int y = 0; y < epistemicLandscape.getHeight(); y++) {
+                putLong(Double.doubleToLongBits(epistemicLandscape.get(x, y)));
+            }
+        }
+        hashes[LANDSCAPE] = finishHash();
+
+        int[][] publications = state.getPublicationRecordOfTopics().field;
+        putInt(publications.length);
+        putInt(publications.length == 0 ? 0 : publications[0].length);
+        for (int[] column : publications) {
+            for (int count : column) {
+                putInt(count);
+            }
+        }
+        hashes[PUBLICATIONS] = finishHash();
+
+        Lab[] labs = new Lab[state.getBagOfAllLabs().size()];
+        for (int i = 0; i < labs.length; i++) {
+            labs[i] = (Lab) state.getBagOfAllLabs().get(i);
+        }
+        Arrays.sort(labs, Comparator.comparingInt(Lab::getLabId));
+        putInt(labs.length);
+        for (Lab lab : labs) {
+            putInt(lab.getLabId());
+            putInt(lab.xLocationInLandscape);
+            putInt(lab.yLocationInLandscape);
+            putLong(Double.doubleToLongBits(lab.effort));
+            putLong(Double.doubleToLongBits(lab.prestige));
+            putLong(Double.doubleToLongBits(lab.getScoreForApplying()));
+            putInt(lab.getAge());
+            putInt(lab.numberOfPostdocs);
+        }
+        hashes[LABS] = finishHash();
+
+        for (Lab lab : labs) {
+            putInt(lab.getLabId());
+            putInt(lab.grants.size());
+            for (int i = 0; i < lab.grants.size(); i++) {
+                putInt(lab.grants.get(i));
+            }
+        }
+        hashes[GRANTS] = finishHash();
+
+        flushScratch();
+        try (DataOutputStream randomState = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+            state.random.writeState(randomState);
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+        hashes[RANDOM] = finishHash();
+        return hashes;
+    }
+
+    private void putDoubles(double[] values) {
+        putInt(values.length);
+        for (double value : values) {
+            putLong(Double.doubleToLongBits(value));
+        }
+    }
+
+    private void putHistogram(IntegerHistogram histogram) {
+        putInt(histogram.getNumberOfBins());
+        for (int bin = 0; bin < histogram.getNumberOfBins(); bin++) {
+            putInt(histogram.getCount(bin));
+        }
+    }
+
+    private void putInt(int value) {
+        if (scratch.remaining() < Integer.BYTES) {
+            flushScratch();
+        }
+        scratch.putInt(value);
+    }
+
+    private void putLong(long value) {
+        if (scratch.remaining() < Long.BYTES) {
+            flushScratch();
+        }
+        scratch.putLong(value);
+    }
+
+    private void flushScratch() {
+        scratch.flip();
+        digest.update(scratch);
+        scratch.clear();
+    }
+
+    /**
+     * @return The first 8 bytes of the digest of everything put since the last hash, as a little endian long.
+     */
+    private long finishHash() {
+        flushScratch();
+        return ByteBuffer.wrap(digest.digest()).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    /**
+     * Writes the fingerprints still waiting for measures, with the measures published so far, and closes the file.
+     */
+    void close() {
+        writePendingRecords(Long.MAX_VALUE);
+        try {
+            channel.close();
+        } catch (IOException io) {
+            io.printStackTrace();
+        }
+    }
+}